@@ -0,0 +1,61 @@
+package se.raek.ahsa.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.runtime.RecognitionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.raek.ahsa.AhsaContext;
+import se.raek.ahsa.CompiledScript;
+import se.raek.ahsa.interpreter.Value;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompiledScriptBenchmark {
+
+	private static final String SOURCE =
+		"val clamp = fn(v, lo, hi) {\n" +
+		"  if v < lo {\n" +
+		"    return lo;\n" +
+		"  }\n" +
+		"  if v > hi {\n" +
+		"    return hi;\n" +
+		"  }\n" +
+		"  return v;\n" +
+		"};\n" +
+		"val score = clamp(x * 3 + 1, 0, 100);\n";
+
+	private AhsaContext context;
+	private CompiledScript script;
+	private final Value input = Value.makeNumber(7);
+
+	@Setup
+	public void setup() throws RecognitionException {
+		context = new AhsaContext();
+		script = context.compile(SOURCE, "x");
+	}
+
+	@Benchmark
+	public AhsaContext.Result parseEachTime() throws RecognitionException {
+		return context.compile(SOURCE, "x").run(input);
+	}
+
+	@Benchmark
+	public AhsaContext.Result compiledOnce() {
+		return script.run(input);
+	}
+
+}
@@ -0,0 +1,55 @@
+package se.raek.ahsa.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.raek.ahsa.parser.Environment;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EnvironmentBenchmark {
+
+	/** Number of bindings visible in the enclosing scope. */
+	@Param({"10", "100"})
+	public int bindings;
+
+	private Environment parent;
+
+	@Setup
+	public void setup() {
+		parent = new Environment();
+		for (int i = 0; i < bindings; i++) {
+			if (i % 2 == 0) {
+				parent.installValue("v" + i);
+			} else {
+				parent.installVariable("v" + i);
+			}
+		}
+	}
+
+	@Benchmark
+	public Environment enterBlockScope() {
+		return new Environment(parent, Environment.Type.BLOCK);
+	}
+
+	@Benchmark
+	public Environment enterFunctionScope() {
+		return new Environment(parent, Environment.Type.FUNCTION);
+	}
+
+}
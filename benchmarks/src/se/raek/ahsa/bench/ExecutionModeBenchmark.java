@@ -0,0 +1,54 @@
+package se.raek.ahsa.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.runtime.RecognitionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.interpreter.ExecutionMode;
+import se.raek.ahsa.interpreter.Interpreter;
+import se.raek.ahsa.interpreter.Store;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExecutionModeBenchmark {
+
+	@Param({"boxes", "arrayFillSum"})
+	public String program;
+
+	@Param({"concurrent", "singleThreaded"})
+	public String mode;
+
+	private Programs.TopLevel topLevel;
+	private List<Statement> stmts;
+
+	@Setup
+	public void setup() throws RecognitionException {
+		topLevel = new Programs.TopLevel(mode.equals("concurrent") ? ExecutionMode.CONCURRENT : ExecutionMode.singleThreaded());
+		stmts = topLevel.parse(Programs.byName(program));
+	}
+
+	@Benchmark
+	public Store executeTopLevel() {
+		Store sto = topLevel.newStore();
+		Interpreter.executeTopLevel(stmts, sto);
+		return sto;
+	}
+
+}
@@ -0,0 +1,62 @@
+package se.raek.ahsa.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.runtime.RecognitionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.interpreter.Interpreter;
+import se.raek.ahsa.interpreter.Store;
+import se.raek.ahsa.vm.Code;
+import se.raek.ahsa.vm.Compiler;
+import se.raek.ahsa.vm.VirtualMachine;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InterpreterBenchmark {
+
+	@Param({"fib", "nestedLoops", "arrayFillSum", "closures"})
+	public String program;
+
+	@Param({"interpreter", "vm"})
+	public String engine;
+
+	private Programs.TopLevel topLevel;
+	private List<Statement> stmts;
+	private Code code;
+
+	@Setup
+	public void setup() throws RecognitionException {
+		topLevel = new Programs.TopLevel();
+		stmts = topLevel.parse(Programs.byName(program));
+		code = Compiler.compile(stmts);
+	}
+
+	@Benchmark
+	public Store executeTopLevel() {
+		Store sto = topLevel.newStore();
+		if (engine.equals("vm")) {
+			VirtualMachine.executeTopLevel(code, sto);
+		} else {
+			Interpreter.executeTopLevel(stmts, sto);
+		}
+		return sto;
+	}
+
+}
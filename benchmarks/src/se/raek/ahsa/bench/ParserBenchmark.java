@@ -0,0 +1,47 @@
+package se.raek.ahsa.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.runtime.RecognitionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.raek.ahsa.Parser;
+import se.raek.ahsa.ast.Statement;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+
+	@Param({"fib", "nestedLoops", "arrayFillSum", "closures"})
+	public String program;
+
+	private String source;
+	private Programs.TopLevel topLevel;
+
+	@Setup
+	public void setup() {
+		source = Programs.byName(program);
+		topLevel = new Programs.TopLevel();
+	}
+
+	@Benchmark
+	public List<Statement> parseProgram() throws RecognitionException {
+		return Parser.parseProgram(source, topLevel.env);
+	}
+
+}
@@ -0,0 +1,143 @@
+package se.raek.ahsa.bench;
+
+import java.util.List;
+
+import org.antlr.runtime.RecognitionException;
+
+import se.raek.ahsa.Main;
+import se.raek.ahsa.Parser;
+import se.raek.ahsa.ast.Frame;
+import se.raek.ahsa.ast.Resolver;
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.interpreter.ExecutionMode;
+import se.raek.ahsa.interpreter.Store;
+import se.raek.ahsa.parser.Environment;
+
+public final class Programs {
+
+	private Programs() {
+	}
+
+	public static final String FIB =
+		"val fib = fn fib(n) {\n" +
+		"  if n < 2 {\n" +
+		"    return n;\n" +
+		"  }\n" +
+		"  return fib(n - 1) + fib(n - 2);\n" +
+		"};\n" +
+		"val result = fib(15);\n";
+
+	public static final String NESTED_LOOPS =
+		"var total = 0;\n" +
+		"var i = 0;\n" +
+		"loop outer {\n" +
+		"  if i == 100 {\n" +
+		"    break outer;\n" +
+		"  }\n" +
+		"  var j = 0;\n" +
+		"  loop inner {\n" +
+		"    if j == 100 {\n" +
+		"      break inner;\n" +
+		"    }\n" +
+		"    total = total + i * j;\n" +
+		"    j = j + 1;\n" +
+		"  }\n" +
+		"  i = i + 1;\n" +
+		"}\n";
+
+	public static final String ARRAY_FILL_SUM =
+		"val a = array(1000);\n" +
+		"var i = 0;\n" +
+		"loop {\n" +
+		"  if i == array_length(a) {\n" +
+		"    break;\n" +
+		"  }\n" +
+		"  array_set(a, i, i);\n" +
+		"  i = i + 1;\n" +
+		"}\n" +
+		"var sum = 0;\n" +
+		"i = 0;\n" +
+		"loop {\n" +
+		"  if i == array_length(a) {\n" +
+		"    break;\n" +
+		"  }\n" +
+		"  sum = sum + array_get(a, i);\n" +
+		"  i = i + 1;\n" +
+		"}\n";
+
+	public static final String CLOSURES =
+		"val make_adder = fn(n) {\n" +
+		"  return fn(x) {\n" +
+		"    return x + n;\n" +
+		"  };\n" +
+		"};\n" +
+		"val compose = fn(f, g) {\n" +
+		"  return fn(x) {\n" +
+		"    return f(g(x));\n" +
+		"  };\n" +
+		"};\n" +
+		"var acc = 0;\n" +
+		"var i = 0;\n" +
+		"loop {\n" +
+		"  if i == 1000 {\n" +
+		"    break;\n" +
+		"  }\n" +
+		"  acc = compose(make_adder(i), make_adder(1))(acc);\n" +
+		"  i = i + 1;\n" +
+		"}\n";
+
+	public static final String BOXES =
+		"val counter = box(0);\n" +
+		"var last = counter;\n" +
+		"var i = 0;\n" +
+		"loop {\n" +
+		"  if i == 1000 {\n" +
+		"    break;\n" +
+		"  }\n" +
+		"  box_set(counter, box_get(counter) + i);\n" +
+		"  last = box(box_get(counter));\n" +
+		"  i = i + 1;\n" +
+		"}\n";
+
+	public static String byName(String name) {
+		if (name.equals("fib")) return FIB;
+		if (name.equals("nestedLoops")) return NESTED_LOOPS;
+		if (name.equals("arrayFillSum")) return ARRAY_FILL_SUM;
+		if (name.equals("closures")) return CLOSURES;
+		if (name.equals("boxes")) return BOXES;
+		throw new IllegalArgumentException("Unknown program: " + name);
+	}
+
+	/**
+	 * The built-in functions installed the same way as Main does it. Programs
+	 * are resolved one level below the built-ins, so that each run can get a
+	 * fresh store for its top-level values.
+	 */
+	public static final class TopLevel {
+
+		public final Environment env = new Environment();
+		private final Store builtIns;
+		private final Frame frame = new Frame();
+
+		public TopLevel() {
+			this(ExecutionMode.CONCURRENT);
+		}
+
+		public TopLevel(ExecutionMode mode) {
+			builtIns = new Store(mode);
+			Main.addBuiltIns(env, builtIns, mode);
+		}
+
+		public List<Statement> parse(String source) throws RecognitionException {
+			List<Statement> stmts = Parser.parseProgram(source, env);
+			Resolver.resolve(stmts, frame, builtIns.getLevel() + 1);
+			return stmts;
+		}
+
+		public Store newStore() {
+			return new Store(builtIns, frame);
+		}
+
+	}
+
+}
@@ -0,0 +1,58 @@
+package se.raek.ahsa.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.raek.ahsa.ast.ValueLocation;
+import se.raek.ahsa.interpreter.Store;
+import se.raek.ahsa.interpreter.Value;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StoreBenchmark {
+
+	/** Number of parent links between the looking-up store and the definition. */
+	@Param({"0", "1", "4", "16"})
+	public int depth;
+
+	private ValueLocation val;
+	private Store leaf;
+
+	@Setup
+	public void setup() {
+		val = new ValueLocation("x");
+		Store sto = new Store();
+		define(sto, val, Value.makeNumber(1.0));
+		for (int i = 0; i < depth; i++) {
+			sto = new Store(sto);
+			define(sto, new ValueLocation("y" + i), Value.makeNull());
+		}
+		leaf = sto;
+	}
+
+	private static void define(Store sto, ValueLocation val, Value v) {
+		val.resolve(sto.getLevel(), sto.getFrame().allocateValue());
+		sto.defineValue(val, v);
+	}
+
+	@Benchmark
+	public Value lookupValue() {
+		return leaf.lookupValue(val);
+	}
+
+}
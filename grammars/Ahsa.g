@@ -12,6 +12,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import se.raek.ahsa.ast.Statement;
 import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.CallSite;
+import se.raek.ahsa.ast.ConstantCache;
+import se.raek.ahsa.ast.Frame;
 import se.raek.ahsa.ast.ValueLocation;
 import se.raek.ahsa.ast.VariableLocation;
 import se.raek.ahsa.ast.Literal;
@@ -187,7 +190,7 @@ break_statement returns [Statement stmt]
   ;
 
 return_statement returns [Statement stmt]
-  : 'return' e=expression? ';' { $stmt = makeReturn(($e.expr == null) ? makeConstant(makeNull()) : $e.expr); } ;
+  : 'return' e=expression? ';' { $stmt = makeReturn(($e.expr == null) ? makeConstant(makeNull(), new ConstantCache()) : $e.expr); } ;
 
 block returns [List<Statement> stmts]
   : '{'        { envStack.enterScope(Environment.Type.BLOCK); }
@@ -228,12 +231,12 @@ expr3 returns [Expression expr]
 
 expr4 returns [Expression expr]
   : e=expr5                 { $expr = $e.expr; }
-    ('(' es=expressions ')' { $expr = makeFunctionApplication($expr, $es.exprs); }
+    ('(' es=expressions ')' { $expr = makeFunctionApplication($expr, $es.exprs, new CallSite()); }
     )*
   ;
 
 expr5 returns [Expression expr]
-  : c=constant           { $expr = makeConstant($c.l); }
+  : c=constant           { $expr = makeConstant($c.l, new ConstantCache()); }
   | l=lookup             { $expr = $l.expr; }
   | fn=lambda            { $expr = $fn.expr; }
   | '(' e=expression ')' { $expr = $e.expr; }
@@ -279,7 +282,7 @@ lambda returns [Expression expr]
     ps=parameters
     ')'
     '{'
-    stmts=statements { $expr = makeFunctionAbstraction(self, $ps.vals, $stmts.stmts); }
+    stmts=statements { $expr = makeFunctionAbstraction(self, $ps.vals, $stmts.stmts, new Frame()); }
     '}'              { envStack.exitScope(); }
   ;
 
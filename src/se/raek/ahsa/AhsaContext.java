@@ -0,0 +1,174 @@
+package se.raek.ahsa;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.runtime.RecognitionException;
+
+import se.raek.ahsa.ast.ValueLocation;
+import se.raek.ahsa.ast.VariableLocation;
+import se.raek.ahsa.interpreter.ExecutionMode;
+import se.raek.ahsa.interpreter.Store;
+import se.raek.ahsa.interpreter.Value;
+import se.raek.ahsa.parser.Environment;
+import se.raek.ahsa.parser.Identifier;
+
+/**
+ * A set of built-in functions that programs can be run against, set up
+ * once and kept apart from those of other contexts. The stores of a
+ * context are its own, the values it creates take their ids from its own
+ * execution mode, and print writes to its own stream, so many contexts can
+ * run programs at the same time, in a thread pool or elsewhere.
+ *
+ * Contexts still share a few things. The executor that runs Tasks and
+ * the common ForkJoinPool that Parallel runs in are the same for all of
+ * them, so the tasks of one context compete with those of the others for
+ * threads. The Jit and Parallel thresholds are settings of the process.
+ * A context created with ExecutionMode.CONCURRENT, rather than a mode of
+ * its own, takes its ids from the global counters. The caches that the
+ * interpreter and the JIT keep in a compiled program, at its constants,
+ * call sites and function abstractions, are shared by all runs of that
+ * program, but not with other programs.
+ *
+ * Each program is run in a new top-level store below the built-ins, so
+ * one program does not see the values of another, and a program can be
+ * compiled once and run many times; see CompiledScript. The built-ins are
+ * only written when the context is created, so the programs of a
+ * concurrent context may also run at the same time, in any threads. Those
+ * of a single threaded context must be run one at a time.
+ */
+public final class AhsaContext {
+
+	private final ExecutionMode mode;
+	private final Environment env = new Environment();
+	private final Store builtIns;
+
+	/**
+	 * Creates a concurrent context with its own id counter, printing to
+	 * System.out.
+	 */
+	public AhsaContext() {
+		this(ExecutionMode.concurrent(), System.out);
+	}
+
+	public AhsaContext(ExecutionMode mode, PrintStream out) {
+		this(mode, new PrintWriter(out, true));
+	}
+
+	public AhsaContext(ExecutionMode mode, PrintWriter out) {
+		if (mode == null || out == null) throw new NullPointerException();
+		this.mode = mode;
+		builtIns = new Store(mode);
+		Main.addBuiltIns(env, builtIns, mode, out);
+	}
+
+	public static class UnboundNameException extends RuntimeException {
+
+		private static final long serialVersionUID = 2874017362119548303L;
+
+		public UnboundNameException(String name) {
+			super("no top-level value or variable named " + name);
+		}
+
+	}
+
+	public ExecutionMode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Parses, resolves and runs source as a program of its own, and
+	 * returns its top-level values and variables.
+	 */
+	public Result execute(String source) throws RecognitionException {
+		return compile(source).run();
+	}
+
+	/**
+	 * Parses and resolves source, to be run later, with inputs defined as
+	 * values called inputNames.
+	 */
+	public CompiledScript compile(String source, String... inputNames) throws RecognitionException {
+		return compile(source, false, inputNames);
+	}
+
+	/**
+	 * As above, and optimizes the program first if optimize is true.
+	 */
+	public CompiledScript compile(String source, boolean optimize, String... inputNames) throws RecognitionException {
+		return new CompiledScript(builtIns, env, source, optimize, Arrays.asList(inputNames));
+	}
+
+	/**
+	 * Parses and resolves source like compile, with every identifier in it
+	 * that is not the name of a built-in as an input, in the order they
+	 * first occur; see CompiledScript.getInputNames. Names that the program
+	 * defines itself are among them, so inputs may be left undefined.
+	 */
+	public CompiledScript compileWithFreeInputs(String source) throws RecognitionException {
+		List<String> inputNames = new ArrayList<String>();
+		for (String name : Parser.identifiers(source)) {
+			if (!isBuiltIn(name)) {
+				inputNames.add(name);
+			}
+		}
+		return new CompiledScript(builtIns, env, source, false, inputNames);
+	}
+
+	private boolean isBuiltIn(String name) {
+		return env.resolve(name).matchIdentifier(new Identifier.AbstractMatcher<Boolean>() {
+			@Override
+			public Boolean caseUnbound() {
+				return false;
+			}
+			@Override
+			public Boolean otherwise() {
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * The top-level values and variables of a program that has been run.
+	 */
+	public static final class Result {
+
+		private final Environment env;
+		private final Store sto;
+
+		Result(Environment env, Store sto) {
+			this.env = env;
+			this.sto = sto;
+		}
+
+		public Store getStore() {
+			return sto;
+		}
+
+		/**
+		 * Returns the top-level value or variable called name, or a
+		 * built-in function if the program defines nothing by that name.
+		 */
+		public Value get(final String name) {
+			return env.resolve(name).matchIdentifier(new Identifier.AbstractMatcher<Value>() {
+				@Override
+				public Value caseValue(ValueLocation val) {
+					return sto.lookupValue(val);
+				}
+				@Override
+				public Value caseVariable(VariableLocation var) {
+					return sto.lookupVariable(var);
+				}
+				@Override
+				public Value otherwise() {
+					throw new UnboundNameException(name);
+				}
+			});
+		}
+
+	}
+
+}
@@ -0,0 +1,129 @@
+package se.raek.ahsa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.antlr.runtime.RecognitionException;
+
+import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.Frame;
+import se.raek.ahsa.ast.Resolver;
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.ast.ValueLocation;
+import se.raek.ahsa.ast.VariableLocation;
+import se.raek.ahsa.interpreter.Interpreter;
+import se.raek.ahsa.interpreter.Store;
+import se.raek.ahsa.interpreter.Value;
+import se.raek.ahsa.optimizer.Optimizer;
+import se.raek.ahsa.parser.Environment;
+
+/**
+ * A program that has been parsed and resolved once, and can be run any
+ * number of times. Each run gets a new top-level store below the built-ins
+ * of the context it was compiled in, with the inputs defined in it as
+ * values, so runs do not see each other's values and may go on at the
+ * same time if the context is concurrent. The caches the interpreter keeps
+ * in the program, at its constants and call sites, only hold what it has
+ * learnt about the code, so the runs share them.
+ *
+ * The inputs are named when the script is compiled, and are defined
+ * before the program, in the same order, when it is run. An input can be
+ * left undefined, so that using it fails like using a value that has not
+ * been defined yet.
+ */
+public final class CompiledScript {
+
+	private final Store builtIns;
+	private final Environment env;
+	private final Frame frame = new Frame();
+	private final List<ValueLocation> inputs;
+	private final List<String> inputNames;
+	private final List<Statement> stmts;
+	private final List<String> definedNames;
+
+	CompiledScript(Store builtIns, Environment builtInEnv, String source, boolean optimize, List<String> inputNames) throws RecognitionException {
+		this.builtIns = builtIns;
+		env = new Environment(builtInEnv, Environment.Type.BLOCK);
+		int level = builtIns.getLevel() + 1;
+		List<ValueLocation> inputs = new ArrayList<ValueLocation>(inputNames.size());
+		for (String name : inputNames) {
+			ValueLocation val = env.installValue(name);
+			val.resolve(level, frame.allocateValue());
+			inputs.add(val);
+		}
+		this.inputs = Collections.unmodifiableList(inputs);
+		this.inputNames = Collections.unmodifiableList(new ArrayList<String>(inputNames));
+		List<Statement> stmts = Parser.parseProgram(source, env);
+		if (optimize) {
+			stmts = Optimizer.optimize(stmts);
+		}
+		Resolver.resolve(stmts, frame, level);
+		this.stmts = stmts;
+		definedNames = Collections.unmodifiableList(definedNames(stmts));
+	}
+
+	/**
+	 * The names of the values and variables defined by the top-level
+	 * statements of the program, in the order they are first defined.
+	 */
+	private static List<String> definedNames(List<Statement> stmts) {
+		List<String> names = new ArrayList<String>();
+		for (Statement stmt : stmts) {
+			String name = stmt.matchStatement(new Statement.AbstractMatcher<String>() {
+				@Override
+				public String caseValueDefinition(ValueLocation val, Expression expr) {
+					return val.label;
+				}
+				@Override
+				public String caseVariableAssignment(VariableLocation var, Expression expr) {
+					return var.label;
+				}
+				@Override
+				public String otherwise() {
+					return null;
+				}
+			});
+			if (name != null && !names.contains(name)) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	public int getInputCount() {
+		return inputs.size();
+	}
+
+	public List<String> getInputNames() {
+		return inputNames;
+	}
+
+	public List<String> getDefinedNames() {
+		return definedNames;
+	}
+
+	List<Statement> getStatements() {
+		return stmts;
+	}
+
+	/**
+	 * Runs the program with the inputs bound to args, and returns its
+	 * top-level values and variables. The inputs whose args are null are
+	 * left undefined.
+	 */
+	public AhsaContext.Result run(Value... args) {
+		if (args.length != inputs.size()) {
+			throw new IllegalArgumentException("script takes " + inputs.size() + " inputs, got " + args.length);
+		}
+		Store sto = new Store(builtIns, frame);
+		for (int i = 0; i < args.length; i++) {
+			if (args[i] != null) {
+				sto.defineValue(inputs.get(i), args[i]);
+			}
+		}
+		Interpreter.executeTopLevel(stmts, sto);
+		return new AhsaContext.Result(env, sto);
+	}
+
+}
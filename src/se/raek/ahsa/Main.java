@@ -1,53 +1,153 @@
 package se.raek.ahsa;
 
+import java.io.PrintWriter;
 import java.util.List;
 
+import se.raek.ahsa.ast.Resolver;
 import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.ast.ValueLocation;
 import se.raek.ahsa.interpreter.BuiltInFunctions;
+import se.raek.ahsa.interpreter.ExecutionMode;
 import se.raek.ahsa.interpreter.Function;
 import se.raek.ahsa.interpreter.Interpreter;
 import se.raek.ahsa.interpreter.Store;
 import se.raek.ahsa.interpreter.Value;
+import se.raek.ahsa.optimizer.Optimizer;
 import se.raek.ahsa.parser.AhsaLexer;
 import se.raek.ahsa.parser.AhsaParser;
 import se.raek.ahsa.parser.Environment;
+import se.raek.ahsa.vm.VirtualMachine;
 import org.antlr.runtime.*;
 
 public class Main {
 	
 	private static void addValue(Environment env, Store sto, String id, Value v) {
-		sto.defineValue(env.installValue(id), v); 
+		ValueLocation val = env.installValue(id);
+		val.resolve(sto.getLevel(), sto.getFrame().allocateValue());
+		sto.defineValue(val, v);
 	}
 	
 	private static void addFunction(Environment env, Store sto, String id, Function fn) {
 		addValue(env, sto, id, Value.makeFunction(fn));
 	}
 
-	public static void main(String[] args) throws Exception {
-		if (args.length != 1) {
-			System.out.println("Syntax: ahsa <filename>");
-			return;
-		}
-		
-		Environment env = new Environment();
-		Store sto = new Store();
-		addFunction(env, sto, "print", BuiltInFunctions.print);
-		addFunction(env, sto, "id", BuiltInFunctions.id);
-		addFunction(env, sto, "box", BuiltInFunctions.box);
+	public static void addBuiltIns(Environment env, Store sto) {
+		addBuiltIns(env, sto, ExecutionMode.CONCURRENT);
+	}
+
+	/**
+	 * Adds the built-in functions, creating values for mode. The functions
+	 * that run code in other threads are left out of single threaded modes.
+	 */
+	public static void addBuiltIns(Environment env, Store sto, ExecutionMode mode) {
+		addBuiltIns(env, sto, mode, new PrintWriter(System.out, true));
+	}
+
+	/**
+	 * Adds the built-in functions as above, with print writing to out.
+	 */
+	public static void addBuiltIns(Environment env, Store sto, ExecutionMode mode, PrintWriter out) {
+		addFunction(env, sto, "print", BuiltInFunctions.print(out));
+		addFunction(env, sto, "id", BuiltInFunctions.id(mode));
+		addFunction(env, sto, "box", BuiltInFunctions.box(mode));
 		addFunction(env, sto, "box_get", BuiltInFunctions.boxGet);
 		addFunction(env, sto, "box_set", BuiltInFunctions.boxSet);
-		addFunction(env, sto, "array", BuiltInFunctions.array);
+		addFunction(env, sto, "box_cas", BuiltInFunctions.boxCas);
+		addFunction(env, sto, "box_swap", BuiltInFunctions.boxSwap);
+		addFunction(env, sto, "box_get_and_set", BuiltInFunctions.boxGetAndSet);
+		addFunction(env, sto, "array", BuiltInFunctions.array(mode));
 		addFunction(env, sto, "array_get", BuiltInFunctions.arrayGet);
 		addFunction(env, sto, "array_set", BuiltInFunctions.arraySet);
 		addFunction(env, sto, "array_length", BuiltInFunctions.arrayLength);
+		addFunction(env, sto, "array_fill", BuiltInFunctions.arrayFill);
+		addFunction(env, sto, "array_copy", BuiltInFunctions.arrayCopy);
+		addFunction(env, sto, "array_cas", BuiltInFunctions.arrayCas);
+		addFunction(env, sto, "array_get_and_add", BuiltInFunctions.arrayGetAndAdd);
+		addFunction(env, sto, "array_get_volatile", BuiltInFunctions.arrayGetVolatile);
+		addFunction(env, sto, "array_set_release", BuiltInFunctions.arraySetRelease);
+		addFunction(env, sto, "array_slice", BuiltInFunctions.arraySlice);
+		addFunction(env, sto, "array_resize", BuiltInFunctions.arrayResize);
+		addFunction(env, sto, "vec", BuiltInFunctions.vec(mode));
+		addFunction(env, sto, "vec_push", BuiltInFunctions.vecPush);
+		addFunction(env, sto, "vec_pop", BuiltInFunctions.vecPop);
+		addFunction(env, sto, "vec_get", BuiltInFunctions.vecGet);
+		addFunction(env, sto, "vec_set", BuiltInFunctions.vecSet);
+		addFunction(env, sto, "vec_length", BuiltInFunctions.vecLength);
+		addFunction(env, sto, "map", BuiltInFunctions.map(mode));
+		addFunction(env, sto, "map_get", BuiltInFunctions.mapGet);
+		addFunction(env, sto, "map_put", BuiltInFunctions.mapPut);
+		addFunction(env, sto, "map_remove", BuiltInFunctions.mapRemove);
+		addFunction(env, sto, "map_size", BuiltInFunctions.mapSize);
+		addFunction(env, sto, "map_keys", BuiltInFunctions.mapKeys(mode));
+		addFunction(env, sto, "map_each", BuiltInFunctions.mapEach);
+		addFunction(env, sto, "pvec", BuiltInFunctions.pvec(mode));
+		addFunction(env, sto, "pvec_get", BuiltInFunctions.pvecGet);
+		addFunction(env, sto, "pvec_assoc", BuiltInFunctions.pvecAssoc);
+		addFunction(env, sto, "pvec_conj", BuiltInFunctions.pvecConj);
+		addFunction(env, sto, "pvec_pop", BuiltInFunctions.pvecPop);
+		addFunction(env, sto, "pvec_length", BuiltInFunctions.pvecLength);
+		addFunction(env, sto, "pvec_into", BuiltInFunctions.pvecInto);
+		if (mode.isConcurrent()) {
+			addFunction(env, sto, "parallel_map", BuiltInFunctions.parallelMap);
+			addFunction(env, sto, "parallel_reduce", BuiltInFunctions.parallelReduce);
+			addFunction(env, sto, "parallel_for", BuiltInFunctions.parallelFor);
+			addFunction(env, sto, "spawn", BuiltInFunctions.spawn(mode));
+			addFunction(env, sto, "join", BuiltInFunctions.join);
+		}
+		addFunction(env, sto, "chan", BuiltInFunctions.chan(mode));
+		addFunction(env, sto, "send", BuiltInFunctions.send);
+		addFunction(env, sto, "recv", BuiltInFunctions.recv);
+		addFunction(env, sto, "try_recv", BuiltInFunctions.tryRecv);
+		addFunction(env, sto, "close", BuiltInFunctions.close);
+		addFunction(env, sto, "counter", BuiltInFunctions.counter(mode));
+		addFunction(env, sto, "counter_add", BuiltInFunctions.counterAdd);
+		addFunction(env, sto, "counter_sum", BuiltInFunctions.counterSum);
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean useVm = false;
+		boolean optimize = false;
+		boolean singleThreaded = false;
+		String filename = null;
+		for (String arg : args) {
+			if (arg.equals("--vm")) {
+				useVm = true;
+			} else if (arg.equals("--optimize")) {
+				optimize = true;
+			} else if (arg.equals("--single-threaded")) {
+				singleThreaded = true;
+			} else if (filename == null) {
+				filename = arg;
+			} else {
+				filename = null;
+				break;
+			}
+		}
+		if (filename == null) {
+			System.out.println("Syntax: ahsa [--vm] [--optimize] [--single-threaded] <filename>");
+			return;
+		}
+		
+		Environment env = new Environment();
+		ExecutionMode mode = singleThreaded ? ExecutionMode.singleThreaded() : ExecutionMode.CONCURRENT;
+		Store sto = new Store(mode);
+		addBuiltIns(env, sto, mode);
 
-		CharStream input = new ANTLRFileStream(args[0]);
+		CharStream input = new ANTLRFileStream(filename);
 		AhsaLexer lexer = new AhsaLexer(input);
 		CommonTokenStream tokens = new CommonTokenStream(lexer);
 		AhsaParser parser = new AhsaParser(tokens);
 		parser.resetEnvironment(env);
 		List<Statement> stmts = parser.statements();
-		Interpreter.executeTopLevel(stmts, sto);
+		if (optimize) {
+			stmts = Optimizer.optimize(stmts);
+		}
+		Resolver.resolveTopLevel(stmts, sto.getFrame());
+		if (useVm) {
+			VirtualMachine.executeTopLevel(stmts, sto);
+		} else {
+			Interpreter.executeTopLevel(stmts, sto);
+		}
 	}
 
 }
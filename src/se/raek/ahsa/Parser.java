@@ -1,24 +1,49 @@
 package se.raek.ahsa;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.antlr.runtime.ANTLRStringStream;
 import org.antlr.runtime.CharStream;
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
 
 import se.raek.ahsa.ast.Statement;
 import se.raek.ahsa.parser.AhsaLexer;
 import se.raek.ahsa.parser.AhsaParser;
+import se.raek.ahsa.parser.Environment;
 
 public class Parser {
 	
 	public static List<Statement> parseProgram(String s) throws RecognitionException {
+		return parseProgram(s, new Environment());
+	}
+	
+	public static List<Statement> parseProgram(String s, Environment env) throws RecognitionException {
 		CharStream input = new ANTLRStringStream(s); 
 		AhsaLexer lexer = new AhsaLexer(input);
 		CommonTokenStream tokens = new CommonTokenStream(lexer);
 		AhsaParser parser = new AhsaParser(tokens);
+		parser.resetEnvironment(env);
 		return parser.statements();
 	}
+	
+	/**
+	 * Returns the identifiers that occur in s, each once, in the order
+	 * they first occur.
+	 */
+	public static List<String> identifiers(String s) {
+		AhsaLexer lexer = new AhsaLexer(new ANTLRStringStream(s));
+		Set<String> ids = new LinkedHashSet<String>();
+		for (Token t = lexer.nextToken(); t.getType() != Token.EOF; t = lexer.nextToken()) {
+			if (t.getType() == AhsaLexer.ID) {
+				ids.add(t.getText());
+			}
+		}
+		return new ArrayList<String>(ids);
+	}
 
 }
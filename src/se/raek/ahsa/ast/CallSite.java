@@ -0,0 +1,42 @@
+package se.raek.ahsa.ast;
+
+/**
+ * One function application in the program. An execution engine can cache
+ * what the call went to the last time here, to save work on the next call.
+ */
+public final class CallSite {
+	
+	private volatile Object cache;
+	
+	public CallSite() {
+		this.cache = null;
+	}
+	
+	public Object getCache() {
+		return cache;
+	}
+	
+	public void setCache(Object cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * All call sites are equal, so that the cache does not take part in
+	 * comparing expressions.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof CallSite;
+	}
+	
+	@Override
+	public int hashCode() {
+		return 0;
+	}
+	
+	@Override
+	public String toString() {
+		return "CallSite";
+	}
+
+}
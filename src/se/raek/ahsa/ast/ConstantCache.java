@@ -0,0 +1,47 @@
+package se.raek.ahsa.ast;
+
+/**
+ * One constant in the program. An execution engine can keep the value it
+ * makes from the literal here, so that it is made only once.
+ *
+ * The field is not volatile, since it is read on every evaluation of the
+ * constant. The values kept are immutable, so a thread that sees the field
+ * set also sees the whole value, and a thread that does not yet see it
+ * only makes an equal value of its own.
+ */
+public final class ConstantCache {
+	
+	private Object value;
+	
+	public ConstantCache() {
+		this.value = null;
+	}
+	
+	public Object getValue() {
+		return value;
+	}
+	
+	public void setValue(Object value) {
+		this.value = value;
+	}
+	
+	/**
+	 * All caches are equal, so that they do not take part in comparing
+	 * expressions.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof ConstantCache;
+	}
+	
+	@Override
+	public int hashCode() {
+		return 0;
+	}
+	
+	@Override
+	public String toString() {
+		return "ConstantCache";
+	}
+
+}
@@ -8,6 +8,9 @@ import se.raek.ahsa.ast.EqualityOperator;
 import se.raek.ahsa.ast.RelationalOperator;
 import se.raek.ahsa.ast.Statement;
 import se.raek.ahsa.ast.Literal;
+import se.raek.ahsa.ast.Frame;
+import se.raek.ahsa.ast.CallSite;
+import se.raek.ahsa.ast.ConstantCache;
 
 public abstract class Expression {
 
@@ -17,21 +20,21 @@ public abstract class Expression {
 	public abstract <T> T matchExpression(Matcher<T> m);
 
 	public interface Matcher<T> {
-		T caseConstant(Literal l);
+		T caseConstant(Literal l, ConstantCache cache);
 		T caseValueLookup(ValueLocation val);
 		T caseVariableLookup(VariableLocation var);
 		T caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right);
 		T caseEqualityOperation(EqualityOperator op, Expression left, Expression right);
 		T caseRelationalOperation(RelationalOperator op, Expression left, Expression right);
-		T caseFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body);
-		T caseFunctionApplication(Expression function, List<Expression> parameters);
+		T caseFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body, Frame frame);
+		T caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site);
 	}
 
 	public static abstract class AbstractMatcher<T> implements Matcher<T> {
 
 		public abstract T otherwise();
 
-		public T caseConstant(Literal l) {
+		public T caseConstant(Literal l, ConstantCache cache) {
 			return otherwise();
 		}
 
@@ -55,18 +58,18 @@ public abstract class Expression {
 			return otherwise();
 		}
 
-		public T caseFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body) {
+		public T caseFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body, Frame frame) {
 			return otherwise();
 		}
 
-		public T caseFunctionApplication(Expression function, List<Expression> parameters) {
+		public T caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
 			return otherwise();
 		}
 
 	}
 
-	public static Expression makeConstant(Literal l) {
-		return new Constant(l);
+	public static Expression makeConstant(Literal l, ConstantCache cache) {
+		return new Constant(l, cache);
 	}
 
 	public static Expression makeValueLookup(ValueLocation val) {
@@ -89,26 +92,28 @@ public abstract class Expression {
 		return new RelationalOperation(op, left, right);
 	}
 
-	public static Expression makeFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body) {
-		return new FunctionAbstraction(self, parameters, body);
+	public static Expression makeFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body, Frame frame) {
+		return new FunctionAbstraction(self, parameters, body, frame);
 	}
 
-	public static Expression makeFunctionApplication(Expression function, List<Expression> parameters) {
-		return new FunctionApplication(function, parameters);
+	public static Expression makeFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
+		return new FunctionApplication(function, parameters, site);
 	}
 
 	private static final class Constant extends Expression {
 
 		private final Literal l;
+		private final ConstantCache cache;
 
-		public Constant(Literal l) {
-			if (l == null) throw new NullPointerException();
+		public Constant(Literal l, ConstantCache cache) {
+			if (l == null || cache == null) throw new NullPointerException();
 			this.l = l;
+			this.cache = cache;
 		}
 
 		@Override
 		public <T> T matchExpression(Matcher<T> m) {
-			return m.caseConstant(l);
+			return m.caseConstant(l, cache);
 		}
 
 		@Override
@@ -116,17 +121,20 @@ public abstract class Expression {
 			if (this == otherObject) return true;
 			if (!(otherObject instanceof Constant)) return false;
 			Constant other = (Constant) otherObject;
-			return (l.equals(other.l));
+			return (l.equals(other.l)) && (cache.equals(other.cache));
 		}
 
 		@Override
 		public int hashCode() {
-			return l.hashCode();
+			int result = 17;
+			result = 31 * result + l.hashCode();
+			result = 31 * result + cache.hashCode();
+			return result;
 		}
 
 		@Override
 		public String toString() {
-			return "Constant(" + l + ")";
+			return "Constant(" + l + ", " + cache + ")";
 		}
 
 	}
@@ -330,17 +338,19 @@ public abstract class Expression {
 		private final ValueLocation self;
 		private final List<ValueLocation> parameters;
 		private final List<Statement> body;
+		private final Frame frame;
 
-		public FunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body) {
-			if (parameters == null || body == null) throw new NullPointerException();
+		public FunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body, Frame frame) {
+			if (parameters == null || body == null || frame == null) throw new NullPointerException();
 			this.self = self;
 			this.parameters = parameters;
 			this.body = body;
+			this.frame = frame;
 		}
 
 		@Override
 		public <T> T matchExpression(Matcher<T> m) {
-			return m.caseFunctionAbstraction(self, parameters, body);
+			return m.caseFunctionAbstraction(self, parameters, body, frame);
 		}
 
 		@Override
@@ -348,7 +358,7 @@ public abstract class Expression {
 			if (this == otherObject) return true;
 			if (!(otherObject instanceof FunctionAbstraction)) return false;
 			FunctionAbstraction other = (FunctionAbstraction) otherObject;
-			return (self == null ? other.self == null : self.equals(other.self)) && (parameters.equals(other.parameters)) && (body.equals(other.body));
+			return (self == null ? other.self == null : self.equals(other.self)) && (parameters.equals(other.parameters)) && (body.equals(other.body)) && (frame.equals(other.frame));
 		}
 
 		@Override
@@ -357,12 +367,13 @@ public abstract class Expression {
 			result = 31 * result + (self == null ? 0 : self.hashCode());
 			result = 31 * result + parameters.hashCode();
 			result = 31 * result + body.hashCode();
+			result = 31 * result + frame.hashCode();
 			return result;
 		}
 
 		@Override
 		public String toString() {
-			return "FunctionAbstraction(" + self + ", " + parameters + ", " + body + ")";
+			return "FunctionAbstraction(" + self + ", " + parameters + ", " + body + ", " + frame + ")";
 		}
 
 	}
@@ -371,16 +382,18 @@ public abstract class Expression {
 
 		private final Expression function;
 		private final List<Expression> parameters;
+		private final CallSite site;
 
-		public FunctionApplication(Expression function, List<Expression> parameters) {
-			if (function == null || parameters == null) throw new NullPointerException();
+		public FunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
+			if (function == null || parameters == null || site == null) throw new NullPointerException();
 			this.function = function;
 			this.parameters = parameters;
+			this.site = site;
 		}
 
 		@Override
 		public <T> T matchExpression(Matcher<T> m) {
-			return m.caseFunctionApplication(function, parameters);
+			return m.caseFunctionApplication(function, parameters, site);
 		}
 
 		@Override
@@ -388,7 +401,7 @@ public abstract class Expression {
 			if (this == otherObject) return true;
 			if (!(otherObject instanceof FunctionApplication)) return false;
 			FunctionApplication other = (FunctionApplication) otherObject;
-			return (function.equals(other.function)) && (parameters.equals(other.parameters));
+			return (function.equals(other.function)) && (parameters.equals(other.parameters)) && (site.equals(other.site));
 		}
 
 		@Override
@@ -396,12 +409,13 @@ public abstract class Expression {
 			int result = 17;
 			result = 31 * result + function.hashCode();
 			result = 31 * result + parameters.hashCode();
+			result = 31 * result + site.hashCode();
 			return result;
 		}
 
 		@Override
 		public String toString() {
-			return "FunctionApplication(" + function + ", " + parameters + ")";
+			return "FunctionApplication(" + function + ", " + parameters + ", " + site + ")";
 		}
 
 	}
@@ -0,0 +1,64 @@
+package se.raek.ahsa.ast;
+
+/**
+ * The slot layout of one function activation (or of the top level). Every
+ * value and variable defined in the function is given its own slot index by
+ * the Resolver, so that a Store can keep them in plain arrays.
+ */
+public final class Frame {
+	
+	private int valueCount;
+	private int variableCount;
+	private int activations;
+	private volatile Object compiledCode;
+	
+	public Frame() {
+		this.valueCount = 0;
+		this.variableCount = 0;
+	}
+	
+	public int getValueCount() {
+		return valueCount;
+	}
+	
+	public int getVariableCount() {
+		return variableCount;
+	}
+	
+	public int allocateValue() {
+		return valueCount++;
+	}
+	
+	public int allocateVariable() {
+		return variableCount++;
+	}
+	
+	/**
+	 * Counts one more activation of the function and returns the count so
+	 * far. The count is shared by all closures of the function and is only
+	 * approximate when they run concurrently.
+	 */
+	public int countActivation() {
+		if (activations < Integer.MAX_VALUE) {
+			activations++;
+		}
+		return activations;
+	}
+	
+	/**
+	 * Code an execution engine has generated for the function, if any.
+	 */
+	public Object getCompiledCode() {
+		return compiledCode;
+	}
+	
+	public void setCompiledCode(Object compiledCode) {
+		this.compiledCode = compiledCode;
+	}
+	
+	@Override
+	public String toString() {
+		return "Frame(" + valueCount + ", " + variableCount + ")";
+	}
+
+}
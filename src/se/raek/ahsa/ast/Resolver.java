@@ -0,0 +1,142 @@
+package se.raek.ahsa.ast;
+
+import java.util.List;
+
+/**
+ * Gives every value and variable of a program a slot address. A value gets
+ * the nesting level of the function it is defined in and an index in that
+ * function's frame; a variable only needs an index, since it can only be
+ * reached from its own function.
+ * 
+ * Locations that are already resolved are left as they are, so a program
+ * can be resolved more than once.
+ */
+public final class Resolver implements Expression.Matcher<Void>, Statement.Matcher<Void> {
+	
+	private final Frame frame;
+	private final int level;
+	
+	private Resolver(Frame frame, int level) {
+		this.frame = frame;
+		this.level = level;
+	}
+	
+	public static void resolve(List<Statement> stmts, Frame frame, int level) {
+		if (frame == null) throw new NullPointerException();
+		new Resolver(frame, level).resolveStatements(stmts);
+	}
+	
+	public static void resolveTopLevel(List<Statement> stmts, Frame frame) {
+		resolve(stmts, frame, 0);
+	}
+	
+	private void resolveStatements(List<Statement> stmts) {
+		for (Statement stmt : stmts) {
+			stmt.matchStatement(this);
+		}
+	}
+	
+	private void define(ValueLocation val) {
+		if (!val.isResolved()) {
+			val.resolve(level, frame.allocateValue());
+		} else if (val.getLevel() != level) {
+			throw new IllegalStateException("value " + val + " resolved for level " + val.getLevel() + ", defined at level " + level);
+		}
+	}
+	
+	private void define(VariableLocation var) {
+		if (!var.isResolved()) {
+			var.resolve(frame.allocateVariable());
+		}
+	}
+
+	public Void caseConstant(Literal l, ConstantCache cache) {
+		return null;
+	}
+
+	public Void caseValueLookup(ValueLocation val) {
+		return null;
+	}
+
+	public Void caseVariableLookup(VariableLocation var) {
+		define(var);
+		return null;
+	}
+
+	public Void caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
+		left.matchExpression(this);
+		right.matchExpression(this);
+		return null;
+	}
+
+	public Void caseEqualityOperation(EqualityOperator op, Expression left, Expression right) {
+		left.matchExpression(this);
+		right.matchExpression(this);
+		return null;
+	}
+
+	public Void caseRelationalOperation(RelationalOperator op, Expression left, Expression right) {
+		left.matchExpression(this);
+		right.matchExpression(this);
+		return null;
+	}
+
+	public Void caseFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body, Frame frame) {
+		Resolver inner = new Resolver(frame, level + 1);
+		if (self != null) {
+			inner.define(self);
+		}
+		for (ValueLocation param : parameters) {
+			inner.define(param);
+		}
+		inner.resolveStatements(body);
+		return null;
+	}
+
+	public Void caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
+		function.matchExpression(this);
+		for (Expression param : parameters) {
+			param.matchExpression(this);
+		}
+		return null;
+	}
+
+	public Void caseThrowawayExpression(Expression expr) {
+		expr.matchExpression(this);
+		return null;
+	}
+
+	public Void caseValueDefinition(ValueLocation val, Expression expr) {
+		expr.matchExpression(this);
+		define(val);
+		return null;
+	}
+
+	public Void caseVariableAssignment(VariableLocation var, Expression expr) {
+		expr.matchExpression(this);
+		define(var);
+		return null;
+	}
+
+	public Void caseConditional(Expression cond, List<Statement> thenStmts, List<Statement> elseStmts) {
+		cond.matchExpression(this);
+		resolveStatements(thenStmts);
+		resolveStatements(elseStmts);
+		return null;
+	}
+
+	public Void caseLoop(LoopLabel loop, List<Statement> body) {
+		resolveStatements(body);
+		return null;
+	}
+
+	public Void caseBreak(LoopLabel loop) {
+		return null;
+	}
+
+	public Void caseReturn(Expression expr) {
+		expr.matchExpression(this);
+		return null;
+	}
+
+}
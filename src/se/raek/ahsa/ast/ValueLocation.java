@@ -1,23 +1,47 @@
 package se.raek.ahsa.ast;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
 public final class ValueLocation {
 	
-	public final int id;
 	public final String label;
 	
-	private static AtomicInteger nextId = new AtomicInteger(0);
+	private int level = -1;
+	private int index = -1;
+	
 	
 	public ValueLocation(String label) {
 		if (label == null) throw new NullPointerException();
-		this.id = nextId.getAndIncrement();
 		this.label = label;
 	}
 	
+	public boolean isResolved() {
+		return index >= 0;
+	}
+	
+	/**
+	 * The function nesting level of the frame the value is defined in. The
+	 * top level is level 0.
+	 */
+	public int getLevel() {
+		return level;
+	}
+	
+	/**
+	 * The slot of the value within its frame.
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
+	public void resolve(int level, int index) {
+		if (level < 0 || index < 0) throw new IllegalArgumentException();
+		if (isResolved()) throw new IllegalStateException("value already resolved: " + this);
+		this.level = level;
+		this.index = index;
+	}
+	
 	@Override
 	public String toString() {
-		return "val" + id + "/" + label; 
+		return "val@" + Integer.toHexString(System.identityHashCode(this)) + "/" + label;
 	}
 
 }
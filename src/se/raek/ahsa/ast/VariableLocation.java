@@ -1,23 +1,39 @@
 package se.raek.ahsa.ast;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
 public final class VariableLocation {
 	
-	public final int id;
 	public final String label;
 	
-	private static AtomicInteger nextId = new AtomicInteger(0);
+	private int index = -1;
+	
 	
 	public VariableLocation(String label) {
 		if (label == null) throw new NullPointerException();
-		this.id = nextId.getAndIncrement();
 		this.label = label;
 	}
 	
+	public boolean isResolved() {
+		return index >= 0;
+	}
+	
+	/**
+	 * The slot of the variable within its frame. Variables are never
+	 * accessible from nested functions, so the slot is always looked up in
+	 * the current frame.
+	 */
+	public int getIndex() {
+		return index;
+	}
+	
+	public void resolve(int index) {
+		if (index < 0) throw new IllegalArgumentException();
+		if (isResolved()) throw new IllegalStateException("variable already resolved: " + this);
+		this.index = index;
+	}
+	
 	@Override
 	public String toString() {
-		return "var" + id + "/" + label; 
+		return "var@" + Integer.toHexString(System.identityHashCode(this)) + "/" + label;
 	}
 
-}
\ No newline at end of file
+}
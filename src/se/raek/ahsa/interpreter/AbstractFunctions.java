@@ -1,5 +1,7 @@
 package se.raek.ahsa.interpreter;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 
@@ -10,6 +12,22 @@ public class AbstractFunctions {
 	
 	public static abstract class Function0 implements Function {
 		
+		public final Value apply0() {
+			return invoke();
+		}
+		
+		public final Value apply1(Value v0) {
+			throw new Function.ArityException(0, 1);
+		}
+		
+		public final Value apply2(Value v0, Value v1) {
+			throw new Function.ArityException(0, 2);
+		}
+		
+		public final Value apply3(Value v0, Value v1, Value v2) {
+			throw new Function.ArityException(0, 3);
+		}
+		
 		public final Value apply(List<Value> parameters) {
 			int n = parameters.size();
 			if (n != 0) throw new Function.ArityException(0, n);
@@ -18,10 +36,29 @@ public class AbstractFunctions {
 		
 		protected abstract Value invoke();
 		
+		public void share() {
+		}
+		
 	}
 	
 	public static abstract class Function1 implements Function {
 		
+		public final Value apply0() {
+			throw new Function.ArityException(1, 0);
+		}
+		
+		public final Value apply1(Value v0) {
+			return invoke(v0);
+		}
+		
+		public final Value apply2(Value v0, Value v1) {
+			throw new Function.ArityException(1, 2);
+		}
+		
+		public final Value apply3(Value v0, Value v1, Value v2) {
+			throw new Function.ArityException(1, 3);
+		}
+		
 		public final Value apply(List<Value> parameters) {
 			int n = parameters.size();
 			if (n != 1) throw new Function.ArityException(1, n);
@@ -30,10 +67,29 @@ public class AbstractFunctions {
 		
 		protected abstract Value invoke(Value v0);
 		
+		public void share() {
+		}
+		
 	}
 	
 	public static abstract class Function2 implements Function {
 		
+		public final Value apply0() {
+			throw new Function.ArityException(2, 0);
+		}
+		
+		public final Value apply1(Value v0) {
+			throw new Function.ArityException(2, 1);
+		}
+		
+		public final Value apply2(Value v0, Value v1) {
+			return invoke(v0, v1);
+		}
+		
+		public final Value apply3(Value v0, Value v1, Value v2) {
+			throw new Function.ArityException(2, 3);
+		}
+		
 		public final Value apply(List<Value> parameters) {
 			int n = parameters.size();
 			if (n != 2) throw new Function.ArityException(2, n);
@@ -42,10 +98,29 @@ public class AbstractFunctions {
 		
 		protected abstract Value invoke(Value v0, Value v1);
 		
+		public void share() {
+		}
+		
 	}
 	
 	public static abstract class Function3 implements Function {
 		
+		public final Value apply0() {
+			throw new Function.ArityException(3, 0);
+		}
+		
+		public final Value apply1(Value v0) {
+			throw new Function.ArityException(3, 1);
+		}
+		
+		public final Value apply2(Value v0, Value v1) {
+			throw new Function.ArityException(3, 2);
+		}
+		
+		public final Value apply3(Value v0, Value v1, Value v2) {
+			return invoke(v0, v1, v2);
+		}
+		
 		public final Value apply(List<Value> parameters) {
 			int n = parameters.size();
 			if (n != 3) throw new Function.ArityException(3, n);
@@ -54,6 +129,36 @@ public class AbstractFunctions {
 		
 		protected abstract Value invoke(Value v0, Value v1, Value v2);
 		
+		public void share() {
+		}
+		
+	}
+	
+	/**
+	 * A function that takes its parameters as a list. The fixed-arity entry
+	 * points build one and call apply.
+	 */
+	public static abstract class FunctionN implements Function {
+		
+		public Value apply0() {
+			return apply(Collections.<Value>emptyList());
+		}
+		
+		public Value apply1(Value v0) {
+			return apply(Collections.singletonList(v0));
+		}
+		
+		public Value apply2(Value v0, Value v1) {
+			return apply(Arrays.asList(v0, v1));
+		}
+		
+		public Value apply3(Value v0, Value v1, Value v2) {
+			return apply(Arrays.asList(v0, v1, v2));
+		}
+		
+		public void share() {
+		}
+		
 	}
 
 }
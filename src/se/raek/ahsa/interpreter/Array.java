@@ -1,34 +1,133 @@
 package se.raek.ahsa.interpreter;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
 public final class Array {
 
 	public final int id;
-	private final Value[] values;
+	private ArrayStorage storage;
+	/** The mode that arrays made from this one are created for. */
+	private final ExecutionMode mode;
 
 	private static AtomicInteger nextId = new AtomicInteger(0);
 
-	public Array(int length) {
-		id = nextId.getAndIncrement();
-		values = new Value[length];
-		Value init = Value.makeNull();
-		for (int i = 0; i < length; i++) {
-			values[i] = init;
+	private static final VarHandle STORAGE;
+
+	static {
+		try {
+			STORAGE = MethodHandles.lookup().findVarHandle(Array.class, "storage", ArrayStorage.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
 		}
 	}
 
+	public Array(int length) {
+		this(length, ExecutionMode.CONCURRENT);
+	}
+
+	public Array(int length, ExecutionMode mode) {
+		this(new ArrayStorage.Nulls(length), mode);
+	}
+
+	private Array(ArrayStorage storage, ExecutionMode mode) {
+		id = mode.nextId(nextId);
+		this.storage = storage;
+		this.mode = mode;
+	}
+
 	public Value subscript(int i) {
-		return values[i];
+		return storage.get(i);
 	}
 
 	public void assignSubscript(int i, Value v) {
-		values[i] = v;
+		storage = storage.set(i, v);
 	}
 
 	public int getLength() {
-		return values.length;
+		return storage.length();
+	}
+
+	public ExecutionMode getMode() {
+		return mode;
+	}
+
+	public void fill(Value v) {
+		storage = storage.fill(v);
+	}
+
+	/**
+	 * Copies len elements from src to dst, like System.arraycopy.
+	 */
+	public static void copy(Array src, int srcPos, Array dst, int dstPos, int len) {
+		dst.storage = ArrayStorage.copy(src.storage, srcPos, dst.storage, dstPos, len);
+	}
+
+	/**
+	 * Returns a new array with the elements from index from up to to.
+	 */
+	public Array slice(int from, int to) {
+		return new Array(storage.copyOf(from, to, to - from), mode);
+	}
+
+	/**
+	 * Returns a new array with the given length, holding the elements of
+	 * this one that fit followed by nulls.
+	 */
+	public Array resize(int length) {
+		return new Array(storage.copyOf(0, storage.length(), length), mode);
+	}
+
+	/*
+	 * The atomic operations are atomic with respect to each other, also
+	 * when one of them has to change the kind of storage. Plain reads and
+	 * writes from other threads may see stale elements or be lost.
+	 */
+
+	/**
+	 * Returns the current storage, replacing it first if the atomic
+	 * operations cannot store v in it.
+	 */
+	private ArrayStorage.Atomic atomicStorage(Value v) {
+		while (true) {
+			ArrayStorage s = (ArrayStorage) STORAGE.getAcquire(this);
+			ArrayStorage live = s.live();
+			ArrayStorage.Atomic next = live.holdsAtomically(v) ? (ArrayStorage.Atomic) live : live.forAtomic(v);
+			if (next == s || STORAGE.compareAndSet(this, s, next)) {
+				return next;
+			}
+		}
+	}
+
+	public Value getVolatile(int i) {
+		return ((ArrayStorage) STORAGE.getAcquire(this)).getVolatile(i);
+	}
+
+	public void setRelease(int i, Value v) {
+		atomicStorage(v).setRelease(i, v);
+	}
+
+	/**
+	 * Sets element i to update if it is equal to expected, and returns
+	 * whether it did. Elements are compared with Value.equals, as by
+	 * Box.compareAndSet.
+	 */
+	public boolean compareAndSet(int i, Value expected, Value update) {
+		return atomicStorage(update).compareAndSet(i, expected, update);
+	}
+
+	/**
+	 * Atomically adds delta to the number in element i and returns the
+	 * old element.
+	 */
+	public Value getAndAdd(int i, double delta) {
+		return atomicStorage(NumberValues.make(delta)).getAndAdd(i, delta);
+	}
+
+	ArrayStorage getStorage() {
+		return storage;
 	}
 
 	@Override
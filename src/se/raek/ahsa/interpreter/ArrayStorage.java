@@ -0,0 +1,579 @@
+package se.raek.ahsa.interpreter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+
+/**
+ * How the elements of an Array are stored. An array starts out holding
+ * only nulls, and gets storage for numbers or booleans when the first one
+ * is stored in it. Storing a value of another kind switches it to Generic
+ * storage, which holds any values and is never switched away from.
+ *
+ * set, fill and copy return the storage to use from then on, which is
+ * either the same one or a new one holding the resulting elements.
+ *
+ * The atomic operations (getVolatile, setRelease, compareAndSet and
+ * getAndAdd) access the elements through VarHandles. The ones that store
+ * elements are only supported by Atomic storage that holdsAtomically the
+ * value to be stored; other storage is first replaced by forAtomic.
+ * Numbers storage that is generalized while atomic operations run on it
+ * moves each element atomically, and forwards operations that find an
+ * element moved to the new storage, so that no update is lost.
+ */
+abstract class ArrayStorage {
+
+	private static final Value NULL = Value.makeNull();
+	private static final Value TRUE = Value.makeBoolean(true);
+	private static final Value FALSE = Value.makeBoolean(false);
+
+	private static final VarHandle DOUBLES = MethodHandles.arrayElementVarHandle(double[].class);
+	private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+	private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Value[].class);
+
+	abstract int length();
+
+	abstract Value get(int i);
+
+	abstract ArrayStorage set(int i, Value v);
+
+	/**
+	 * Returns storage with every element set to v.
+	 */
+	abstract ArrayStorage fill(Value v);
+
+	/**
+	 * Returns new storage holding the elements from index from up to to,
+	 * followed by nulls up to newLength.
+	 */
+	abstract ArrayStorage copyOf(int from, int to, int newLength);
+
+	/**
+	 * Whether the atomic operations can store v in this storage, which is
+	 * then Atomic.
+	 */
+	abstract boolean holdsAtomically(Value v);
+
+	/**
+	 * Returns new storage with the same elements, which holdsAtomically v.
+	 */
+	Atomic forAtomic(Value v) {
+		return generalize();
+	}
+
+	/**
+	 * Returns the storage that the elements have been moved to, or this.
+	 */
+	ArrayStorage live() {
+		return this;
+	}
+
+	abstract Value getVolatile(int i);
+
+	static void checkIndex(int i, int length) {
+		if (i < 0 || i >= length) throw new ArrayIndexOutOfBoundsException(i);
+	}
+
+	static void checkRange(int from, int to, int length) {
+		if (from < 0 || to > length || from > to) {
+			throw new ArrayIndexOutOfBoundsException("range " + from + " to " + to + " of length " + length);
+		}
+	}
+
+	/**
+	 * Returns new storage of the kind that holds v, with every element set
+	 * to it.
+	 */
+	static ArrayStorage filled(int length, Value v) {
+		if (v == NULL) {
+			return new Nulls(length);
+		}
+		ArrayStorage storage;
+		if (NumberValues.isNumber(v)) {
+			storage = new Numbers(length);
+		} else if (v == TRUE || v == FALSE) {
+			storage = new Booleans(length);
+		} else {
+			storage = new Generic(new Value[length]);
+		}
+		return storage.fill(v);
+	}
+
+	/**
+	 * Copies len elements from src to dst, like System.arraycopy, and
+	 * returns the storage to use for dst from then on. src and dst may be
+	 * the same storage.
+	 */
+	static ArrayStorage copy(ArrayStorage src, int srcPos, ArrayStorage dst, int dstPos, int len) {
+		if (len < 0) throw new ArrayIndexOutOfBoundsException("negative length " + len);
+		checkRange(srcPos, srcPos + len, src.length());
+		checkRange(dstPos, dstPos + len, dst.length());
+		if (src instanceof Numbers && dst instanceof Numbers) {
+			System.arraycopy(((Numbers) src).numbers, srcPos, ((Numbers) dst).numbers, dstPos, len);
+			return dst;
+		} else if (src instanceof Generic && dst instanceof Generic) {
+			System.arraycopy(((Generic) src).values, srcPos, ((Generic) dst).values, dstPos, len);
+			return dst;
+		} else if (src instanceof Nulls && dst instanceof Nulls) {
+			return dst;
+		}
+		// Element by element, backwards if the ranges overlap that way.
+		if (src == dst && srcPos < dstPos) {
+			for (int i = len - 1; i >= 0; i--) {
+				dst = dst.set(dstPos + i, src.get(srcPos + i));
+			}
+		} else {
+			for (int i = 0; i < len; i++) {
+				dst = dst.set(dstPos + i, src.get(srcPos + i));
+			}
+		}
+		return dst;
+	}
+
+	/**
+	 * Returns Generic storage with the same elements.
+	 */
+	Generic generalize() {
+		Value[] values = new Value[length()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = get(i);
+		}
+		return new Generic(values);
+	}
+
+	/**
+	 * Storage that the atomic operations can store elements in.
+	 */
+	static abstract class Atomic extends ArrayStorage {
+
+		abstract void setRelease(int i, Value v);
+
+		/**
+		 * Sets element i to update if it is equal to expected, by
+		 * Value.equals, and returns whether it did.
+		 */
+		abstract boolean compareAndSet(int i, Value expected, Value update);
+
+		/**
+		 * Adds delta to the number in element i and returns the old
+		 * element.
+		 */
+		abstract Value getAndAdd(int i, double delta);
+
+	}
+
+	static final class Nulls extends Atomic {
+
+		private final int length;
+
+		Nulls(int length) {
+			if (length < 0) throw new NegativeArraySizeException();
+			this.length = length;
+		}
+
+		int length() {
+			return length;
+		}
+
+		Value get(int i) {
+			checkIndex(i, length);
+			return NULL;
+		}
+
+		ArrayStorage set(int i, Value v) {
+			checkIndex(i, length);
+			if (v == NULL) {
+				return this;
+			}
+			ArrayStorage storage;
+			if (NumberValues.isNumber(v)) {
+				storage = new Numbers(length);
+			} else if (v == TRUE || v == FALSE) {
+				storage = new Booleans(length);
+			} else {
+				storage = generalize();
+			}
+			return storage.set(i, v);
+		}
+
+		ArrayStorage fill(Value v) {
+			return filled(length, v);
+		}
+
+		ArrayStorage copyOf(int from, int to, int newLength) {
+			checkRange(from, to, length);
+			return new Nulls(newLength);
+		}
+
+		boolean holdsAtomically(Value v) {
+			return v == NULL;
+		}
+
+		@Override
+		Atomic forAtomic(Value v) {
+			if (NumberValues.isNumber(v) && Numbers.isStorable(NumberValues.getNumber(v))) {
+				return new Numbers(length);
+			}
+			return generalize();
+		}
+
+		Value getVolatile(int i) {
+			return get(i);
+		}
+
+		void setRelease(int i, Value v) {
+			checkIndex(i, length);
+		}
+
+		boolean compareAndSet(int i, Value expected, Value update) {
+			checkIndex(i, length);
+			return expected == NULL;
+		}
+
+		Value getAndAdd(int i, double delta) {
+			checkIndex(i, length);
+			throw new Interpreter.CastException("number", "null");
+		}
+
+	}
+
+	/**
+	 * Numbers in a double[]. Null is a NaN that arithmetic never produces;
+	 * storing a number with exactly those bits makes the storage generic.
+	 * Another such NaN marks the elements that generalize has moved.
+	 */
+	static final class Numbers extends Atomic {
+
+		private static final long NULL_BITS = 0x7ff80000deadbeefL;
+		private static final long MOVED_BITS = 0x7ff800000badf00dL;
+		private static final double NULL_NUMBER = Double.longBitsToDouble(NULL_BITS);
+		private static final double MOVED = Double.longBitsToDouble(MOVED_BITS);
+
+		private final double[] numbers;
+		private volatile Generic forwarded = null;
+
+		Numbers(int length) {
+			numbers = new double[length];
+			Arrays.fill(numbers, NULL_NUMBER);
+		}
+
+		static boolean isStorable(double n) {
+			long bits = Double.doubleToRawLongBits(n);
+			return bits != NULL_BITS && bits != MOVED_BITS;
+		}
+
+		private Value toValue(double n) {
+			return (Double.doubleToRawLongBits(n) == NULL_BITS) ? NULL : NumberValues.make(n);
+		}
+
+		int length() {
+			return numbers.length;
+		}
+
+		Value get(int i) {
+			double n = numbers[i];
+			if (n != n) {
+				long bits = Double.doubleToRawLongBits(n);
+				if (bits == NULL_BITS) {
+					return NULL;
+				} else if (bits == MOVED_BITS) {
+					return forwarded().get(i);
+				}
+			}
+			return NumberValues.make(n);
+		}
+
+		ArrayStorage set(int i, Value v) {
+			if (NumberValues.isNumber(v)) {
+				double n = NumberValues.getNumber(v);
+				if (isStorable(n)) {
+					numbers[i] = n;
+					return this;
+				}
+			} else if (v == NULL) {
+				numbers[i] = NULL_NUMBER;
+				return this;
+			}
+			checkIndex(i, numbers.length);
+			return generalize().set(i, v);
+		}
+
+		ArrayStorage fill(Value v) {
+			if (NumberValues.isNumber(v) && isStorable(NumberValues.getNumber(v))) {
+				Arrays.fill(numbers, NumberValues.getNumber(v));
+				return this;
+			}
+			return filled(numbers.length, v);
+		}
+
+		ArrayStorage copyOf(int from, int to, int newLength) {
+			checkRange(from, to, numbers.length);
+			Numbers copy = new Numbers(newLength);
+			System.arraycopy(numbers, from, copy.numbers, 0, Math.min(to - from, newLength));
+			return copy;
+		}
+
+		/**
+		 * Moves the elements to Generic storage, marking each one as moved
+		 * with an atomic exchange, so that an atomic operation either
+		 * completes before its element is moved or finds it moved and is
+		 * forwarded. This storage must not be used afterwards.
+		 */
+		@Override
+		synchronized Generic generalize() {
+			if (forwarded == null) {
+				Value[] values = new Value[numbers.length];
+				for (int i = 0; i < values.length; i++) {
+					values[i] = toValue((double) DOUBLES.getAndSet(numbers, i, MOVED));
+				}
+				forwarded = new Generic(values);
+			}
+			return forwarded;
+		}
+
+		private Generic forwarded() {
+			Generic f = forwarded;
+			if (f == null) {
+				// Waits for the generalize that is moving the elements.
+				synchronized (this) {
+					f = forwarded;
+				}
+			}
+			return f;
+		}
+
+		@Override
+		ArrayStorage live() {
+			Generic f = forwarded;
+			return (f == null) ? this : f;
+		}
+
+		boolean holdsAtomically(Value v) {
+			return v == NULL || (NumberValues.isNumber(v) && isStorable(NumberValues.getNumber(v)));
+		}
+
+		Value getVolatile(int i) {
+			double n = (double) DOUBLES.getVolatile(numbers, i);
+			if (Double.doubleToRawLongBits(n) == MOVED_BITS) {
+				return forwarded().getVolatile(i);
+			}
+			return toValue(n);
+		}
+
+		void setRelease(int i, Value v) {
+			double update = (v == NULL) ? NULL_NUMBER : NumberValues.getNumber(v);
+			while (true) {
+				// Not a plain release store, which could overwrite a moved mark.
+				double n = (double) DOUBLES.getVolatile(numbers, i);
+				if (Double.doubleToRawLongBits(n) == MOVED_BITS) {
+					forwarded().setRelease(i, v);
+					return;
+				}
+				if (DOUBLES.weakCompareAndSetRelease(numbers, i, n, update)) {
+					return;
+				}
+			}
+		}
+
+		boolean compareAndSet(int i, Value expected, Value update) {
+			double u = (update == NULL) ? NULL_NUMBER : NumberValues.getNumber(update);
+			while (true) {
+				double n = (double) DOUBLES.getVolatile(numbers, i);
+				long bits = Double.doubleToRawLongBits(n);
+				if (bits == MOVED_BITS) {
+					return forwarded().compareAndSet(i, expected, update);
+				}
+				boolean equal = (bits == NULL_BITS)
+						? expected == NULL
+						: NumberValues.isNumber(expected) && Double.compare(n, NumberValues.getNumber(expected)) == 0;
+				if (!equal) {
+					return false;
+				}
+				if (DOUBLES.compareAndSet(numbers, i, n, u)) {
+					return true;
+				}
+			}
+		}
+
+		Value getAndAdd(int i, double delta) {
+			while (true) {
+				double n = (double) DOUBLES.getVolatile(numbers, i);
+				long bits = Double.doubleToRawLongBits(n);
+				if (bits == MOVED_BITS) {
+					return forwarded().getAndAdd(i, delta);
+				} else if (bits == NULL_BITS) {
+					throw new Interpreter.CastException("number", "null");
+				}
+				if (DOUBLES.compareAndSet(numbers, i, n, n + delta)) {
+					return NumberValues.make(n);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Booleans packed 64 to a long, with a second bit set marking nulls.
+	 */
+	static final class Booleans extends ArrayStorage {
+
+		private final int length;
+		private final long[] bits;
+		private final long[] nulls;
+
+		Booleans(int length) {
+			this.length = length;
+			int words = (length + 63) >>> 6;
+			bits = new long[words];
+			nulls = new long[words];
+			Arrays.fill(nulls, -1L);
+		}
+
+		int length() {
+			return length;
+		}
+
+		Value get(int i) {
+			checkIndex(i, length);
+			long mask = 1L << i;
+			if ((nulls[i >>> 6] & mask) != 0) {
+				return NULL;
+			}
+			return ((bits[i >>> 6] & mask) != 0) ? TRUE : FALSE;
+		}
+
+		ArrayStorage set(int i, Value v) {
+			checkIndex(i, length);
+			int word = i >>> 6;
+			long mask = 1L << i;
+			if (v == TRUE) {
+				bits[word] |= mask;
+				nulls[word] &= ~mask;
+				return this;
+			} else if (v == FALSE) {
+				bits[word] &= ~mask;
+				nulls[word] &= ~mask;
+				return this;
+			} else if (v == NULL) {
+				nulls[word] |= mask;
+				return this;
+			}
+			return generalize().set(i, v);
+		}
+
+		ArrayStorage fill(Value v) {
+			if (v == TRUE || v == FALSE) {
+				Arrays.fill(bits, (v == TRUE) ? -1L : 0L);
+				Arrays.fill(nulls, 0L);
+				return this;
+			}
+			return filled(length, v);
+		}
+
+		ArrayStorage copyOf(int from, int to, int newLength) {
+			checkRange(from, to, length);
+			ArrayStorage copy = new Booleans(newLength);
+			int n = Math.min(to - from, newLength);
+			for (int i = 0; i < n; i++) {
+				copy = copy.set(i, get(from + i));
+			}
+			return copy;
+		}
+
+		/**
+		 * An element is spread over two words, which cannot be updated
+		 * together atomically, so atomic stores generalize the storage.
+		 */
+		boolean holdsAtomically(Value v) {
+			return false;
+		}
+
+		Value getVolatile(int i) {
+			checkIndex(i, length);
+			long mask = 1L << i;
+			if (((long) LONGS.getVolatile(nulls, i >>> 6) & mask) != 0) {
+				return NULL;
+			}
+			return (((long) LONGS.getVolatile(bits, i >>> 6) & mask) != 0) ? TRUE : FALSE;
+		}
+
+	}
+
+	static final class Generic extends Atomic {
+
+		private final Value[] values;
+
+		Generic(Value[] values) {
+			this.values = values;
+		}
+
+		int length() {
+			return values.length;
+		}
+
+		Value get(int i) {
+			return values[i];
+		}
+
+		ArrayStorage set(int i, Value v) {
+			values[i] = v;
+			return this;
+		}
+
+		ArrayStorage fill(Value v) {
+			Arrays.fill(values, v);
+			return this;
+		}
+
+		ArrayStorage copyOf(int from, int to, int newLength) {
+			checkRange(from, to, values.length);
+			Value[] copy = new Value[newLength];
+			int n = Math.min(to - from, newLength);
+			System.arraycopy(values, from, copy, 0, n);
+			Arrays.fill(copy, n, newLength, NULL);
+			return new Generic(copy);
+		}
+
+		@Override
+		Generic generalize() {
+			return this;
+		}
+
+		boolean holdsAtomically(Value v) {
+			return true;
+		}
+
+		Value getVolatile(int i) {
+			return (Value) VALUES.getVolatile(values, i);
+		}
+
+		void setRelease(int i, Value v) {
+			VALUES.setRelease(values, i, v);
+		}
+
+		boolean compareAndSet(int i, Value expected, Value update) {
+			while (true) {
+				Value current = (Value) VALUES.getVolatile(values, i);
+				if (!current.equals(expected)) {
+					return false;
+				}
+				if (VALUES.compareAndSet(values, i, current, update)) {
+					return true;
+				}
+			}
+		}
+
+		Value getAndAdd(int i, double delta) {
+			while (true) {
+				Value current = (Value) VALUES.getVolatile(values, i);
+				Value update = NumberValues.make(Interpreter.castToNumber(current) + delta);
+				if (VALUES.compareAndSet(values, i, current, update)) {
+					return current;
+				}
+			}
+		}
+
+	}
+
+}
@@ -1,29 +1,113 @@
 package se.raek.ahsa.interpreter;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 
 
 public final class Box {
 
 	public final int id;
-	private final AtomicReference<Value> ref;
-	
+	/** Accessed through VALUE when atomic, and as a plain field otherwise. */
+	private Value value;
+	private final boolean atomic;
+
 	private static AtomicInteger nextId = new AtomicInteger(0);
-	
+
+	private static final VarHandle VALUE;
+
+	static {
+		try {
+			VALUE = MethodHandles.lookup().findVarHandle(Box.class, "value", Value.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
 	public Box(Value init) {
-		id = nextId.getAndIncrement();
-		ref = new AtomicReference<Value>(init);
+		this(init, ExecutionMode.CONCURRENT);
 	}
-	
+
+	public Box(Value init, ExecutionMode mode) {
+		id = mode.nextId(nextId);
+		atomic = mode.isConcurrent();
+		if (atomic) {
+			VALUE.setVolatile(this, init);
+		} else {
+			value = init;
+		}
+	}
+
 	public Value deref() {
-		return ref.get();
+		return atomic ? (Value) VALUE.getVolatile(this) : value;
 	}
-	
+
 	public void assign(Value v) {
-		ref.set(v);
+		if (atomic) {
+			VALUE.setVolatile(this, v);
+		} else {
+			value = v;
+		}
 	}
-	
+
+	/**
+	 * Sets the box to update if it holds a value equal to expected, and
+	 * returns whether it did. Values are compared with Value.equals, as by
+	 * ==, and not by identity: numbers are equal when Double.compare finds
+	 * them equal, so NaN equals NaN but 0 does not equal -0, and boxes,
+	 * arrays and the like are equal only to themselves.
+	 */
+	public boolean compareAndSet(Value expected, Value update) {
+		while (true) {
+			Value current = deref();
+			if (!current.equals(expected)) {
+				return false;
+			}
+			// Retried if another thread just stored an equal value.
+			if (replace(current, update)) {
+				return true;
+			}
+		}
+	}
+
+	public Value getAndSet(Value v) {
+		if (atomic) {
+			return (Value) VALUE.getAndSet(this, v);
+		}
+		Value old = value;
+		value = v;
+		return old;
+	}
+
+	/**
+	 * Sets the box to fn applied to its value and returns the new value.
+	 * If another thread changes the box meanwhile, fn is applied again to
+	 * the new value, so it should not have side effects.
+	 */
+	public Value swap(Function fn) {
+		while (true) {
+			Value current = deref();
+			Value update = fn.apply1(current);
+			if (replace(current, update)) {
+				return update;
+			}
+		}
+	}
+
+	/**
+	 * Sets the box to update if it still holds current itself.
+	 */
+	private boolean replace(Value current, Value update) {
+		if (atomic) {
+			return VALUE.compareAndSet(this, current, update);
+		}
+		if (value != current) {
+			return false;
+		}
+		value = update;
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		return "box" + id;
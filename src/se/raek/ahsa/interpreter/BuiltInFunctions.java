@@ -2,7 +2,18 @@ package se.raek.ahsa.interpreter;
 
 import static se.raek.ahsa.interpreter.Interpreter.castToArray;
 import static se.raek.ahsa.interpreter.Interpreter.castToBox;
+import static se.raek.ahsa.interpreter.Interpreter.castToChannel;
+import static se.raek.ahsa.interpreter.Interpreter.castToCounter;
+import static se.raek.ahsa.interpreter.Interpreter.castToFunction;
 import static se.raek.ahsa.interpreter.Interpreter.castToInt;
+import static se.raek.ahsa.interpreter.Interpreter.castToNumber;
+import static se.raek.ahsa.interpreter.Interpreter.castToPVec;
+import static se.raek.ahsa.interpreter.Interpreter.castToTable;
+import static se.raek.ahsa.interpreter.Interpreter.castToTask;
+import static se.raek.ahsa.interpreter.Interpreter.castToVec;
+
+import java.io.PrintWriter;
+import java.util.List;
 
 public class BuiltInFunctions {
 	
@@ -17,19 +28,45 @@ public class BuiltInFunctions {
 		}
 	};
 	
-	public static final Function id = new AbstractFunctions.Function0() {
-		@Override
-		protected Value invoke() {
-			return Value.makeId(new Id());
-		}
-	};
+	/**
+	 * Returns a print function that writes to out instead of System.out.
+	 */
+	public static Function print(final PrintWriter out) {
+		return new AbstractFunctions.Function1() {
+			@Override
+			protected Value invoke(Value v0) {
+				out.println(Printer.toString(v0));
+				return Value.makeNull();
+			}
+		};
+	}
 	
-	public static final Function box = new AbstractFunctions.Function1() {
-		@Override
-		protected Value invoke(Value v0) {
-			return Value.makeBox(new Box(v0));
-		}
-	};
+	/*
+	 * The functions that create values are also made by methods of the
+	 * same name, which take the execution mode to create them for.
+	 */
+	
+	public static final Function id = id(ExecutionMode.CONCURRENT);
+	
+	public static Function id(final ExecutionMode mode) {
+		return new AbstractFunctions.Function0() {
+			@Override
+			protected Value invoke() {
+				return Value.makeId(new Id(mode));
+			}
+		};
+	}
+	
+	public static final Function box = box(ExecutionMode.CONCURRENT);
+	
+	public static Function box(final ExecutionMode mode) {
+		return new AbstractFunctions.Function1() {
+			@Override
+			protected Value invoke(Value v0) {
+				return Value.makeBox(new Box(v0, mode));
+			}
+		};
+	}
 	
 	public static final Function boxGet = new AbstractFunctions.Function1() {
 		@Override
@@ -46,13 +83,46 @@ public class BuiltInFunctions {
 		}
 	};
 
-	public static final Function array = new AbstractFunctions.Function1() {
+	/**
+	 * box_cas(b, expected, v) sets b to v if it holds a value == expected,
+	 * and returns whether it did.
+	 */
+	public static final Function boxCas = new AbstractFunctions.Function3() {
 		@Override
-		protected Value invoke(Value v0) {
-			return Value.makeArray(new Array(castToInt(v0)));
+		protected Value invoke(Value v0, Value v1, Value v2) {
+			return Value.makeBoolean(castToBox(v0).compareAndSet(v1, v2));
+		}
+	};
+
+	/**
+	 * box_swap(b, f) atomically sets b to f(old value) and returns the new
+	 * value. f may be called more than once.
+	 */
+	public static final Function boxSwap = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			return castToBox(v0).swap(castToFunction(v1));
 		}
 	};
 
+	public static final Function boxGetAndSet = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			return castToBox(v0).getAndSet(v1);
+		}
+	};
+
+	public static final Function array = array(ExecutionMode.CONCURRENT);
+
+	public static Function array(final ExecutionMode mode) {
+		return new AbstractFunctions.Function1() {
+			@Override
+			protected Value invoke(Value v0) {
+				return Value.makeArray(new Array(castToInt(v0), mode));
+			}
+		};
+	}
+
 	public static final Function arrayGet = new AbstractFunctions.Function2() {
 		@Override
 		protected Value invoke(Value v0, Value v1) {
@@ -71,7 +141,435 @@ public class BuiltInFunctions {
 	public static final Function arrayLength = new AbstractFunctions.Function1() {
 		@Override
 		protected Value invoke(Value v0) {
-			return Value.makeNumber(castToArray(v0).getLength());
+			return NumberValues.make(castToArray(v0).getLength());
+		}
+	};
+
+	public static final Function arrayFill = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			castToArray(v0).fill(v1);
+			return Value.makeNull();
+		}
+	};
+
+	public static final Function arrayCopy = new AbstractFunctions.FunctionN() {
+		public Value apply(List<Value> parameters) {
+			int n = parameters.size();
+			if (n != 5) throw new Function.ArityException(5, n);
+			Array.copy(castToArray(parameters.get(0)), castToInt(parameters.get(1)),
+					castToArray(parameters.get(2)), castToInt(parameters.get(3)),
+					castToInt(parameters.get(4)));
+			return Value.makeNull();
+		}
+	};
+
+	/**
+	 * array_cas(a, i, expected, v) sets element i of a to v if it is ==
+	 * expected, and returns whether it did.
+	 */
+	public static final Function arrayCas = new AbstractFunctions.FunctionN() {
+		public Value apply(List<Value> parameters) {
+			int n = parameters.size();
+			if (n != 4) throw new Function.ArityException(4, n);
+			return Value.makeBoolean(castToArray(parameters.get(0)).compareAndSet(
+					castToInt(parameters.get(1)), parameters.get(2), parameters.get(3)));
+		}
+	};
+
+	/**
+	 * array_get_and_add(a, i, n) atomically adds n to element i of a and
+	 * returns the old element.
+	 */
+	public static final Function arrayGetAndAdd = new AbstractFunctions.Function3() {
+		@Override
+		protected Value invoke(Value v0, Value v1, Value v2) {
+			return castToArray(v0).getAndAdd(castToInt(v1), castToNumber(v2));
+		}
+	};
+
+	public static final Function arrayGetVolatile = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			return castToArray(v0).getVolatile(castToInt(v1));
+		}
+	};
+
+	public static final Function arraySetRelease = new AbstractFunctions.Function3() {
+		@Override
+		protected Value invoke(Value v0, Value v1, Value v2) {
+			castToArray(v0).setRelease(castToInt(v1), v2);
+			return Value.makeNull();
+		}
+	};
+
+	public static final Function arraySlice = new AbstractFunctions.Function3() {
+		@Override
+		protected Value invoke(Value v0, Value v1, Value v2) {
+			return Value.makeArray(castToArray(v0).slice(castToInt(v1), castToInt(v2)));
+		}
+	};
+
+	public static final Function arrayResize = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			return Value.makeArray(castToArray(v0).resize(castToInt(v1)));
+		}
+	};
+
+	/**
+	 * vec() or vec(capacity).
+	 */
+	public static final Function vec = vec(ExecutionMode.CONCURRENT);
+
+	public static Function vec(final ExecutionMode mode) {
+		return new AbstractFunctions.FunctionN() {
+			@Override
+			public Value apply0() {
+				return Value.makeVec(new Vec(mode));
+			}
+			@Override
+			public Value apply1(Value v0) {
+				return Value.makeVec(new Vec(castToInt(v0), mode));
+			}
+			public Value apply(List<Value> parameters) {
+				switch (parameters.size()) {
+				case 0:
+					return apply0();
+				case 1:
+					return apply1(parameters.get(0));
+				default:
+					throw new Function.ArityException(1, parameters.size());
+				}
+			}
+		};
+	}
+
+	public static final Function vecPush = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			castToVec(v0).push(v1);
+			return Value.makeNull();
+		}
+	};
+
+	public static final Function vecPop = new AbstractFunctions.Function1() {
+		@Override
+		protected Value invoke(Value v0) {
+			return castToVec(v0).pop();
+		}
+	};
+
+	public static final Function vecGet = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			return castToVec(v0).get(castToInt(v1));
+		}
+	};
+
+	public static final Function vecSet = new AbstractFunctions.Function3() {
+		@Override
+		protected Value invoke(Value v0, Value v1, Value v2) {
+			castToVec(v0).set(castToInt(v1), v2);
+			return Value.makeNull();
+		}
+	};
+
+	public static final Function vecLength = new AbstractFunctions.Function1() {
+		@Override
+		protected Value invoke(Value v0) {
+			return NumberValues.make(castToVec(v0).getLength());
+		}
+	};
+
+	public static final Function map = map(ExecutionMode.CONCURRENT);
+
+	public static Function map(final ExecutionMode mode) {
+		return new AbstractFunctions.Function0() {
+			@Override
+			protected Value invoke() {
+				return Value.makeTable(new Table(mode));
+			}
+		};
+	}
+
+	/**
+	 * map_get(m, key) returns null if there is no entry for key.
+	 */
+	public static final Function mapGet = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			Value v = castToTable(v0).get(v1);
+			return (v == null) ? Value.makeNull() : v;
+		}
+	};
+
+	public static final Function mapPut = new AbstractFunctions.Function3() {
+		@Override
+		protected Value invoke(Value v0, Value v1, Value v2) {
+			castToTable(v0).put(v1, v2);
+			return Value.makeNull();
+		}
+	};
+
+	/**
+	 * map_remove(m, key) returns the removed value, or null.
+	 */
+	public static final Function mapRemove = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			Value v = castToTable(v0).remove(v1);
+			return (v == null) ? Value.makeNull() : v;
+		}
+	};
+
+	public static final Function mapSize = new AbstractFunctions.Function1() {
+		@Override
+		protected Value invoke(Value v0) {
+			return NumberValues.make(castToTable(v0).size());
+		}
+	};
+
+	/**
+	 * map_keys(m) returns a vec of the keys.
+	 */
+	public static final Function mapKeys = mapKeys(ExecutionMode.CONCURRENT);
+
+	public static Function mapKeys(final ExecutionMode mode) {
+		return new AbstractFunctions.Function1() {
+			@Override
+			protected Value invoke(Value v0) {
+				Table table = castToTable(v0);
+				final Vec keys = new Vec(table.size(), mode);
+				table.forEach(new Table.EntryVisitor() {
+					public void visit(Value key, Value value) {
+						keys.push(key);
+					}
+				});
+				return Value.makeVec(keys);
+			}
+		};
+	}
+
+	/**
+	 * map_each(m, f) calls f(key, value) for each entry.
+	 */
+	public static final Function mapEach = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			final Function fn = castToFunction(v1);
+			castToTable(v0).forEach(new Table.EntryVisitor() {
+				public void visit(Value key, Value value) {
+					fn.apply2(key, value);
+				}
+			});
+			return Value.makeNull();
+		}
+	};
+
+	/**
+	 * pvec(v...) returns a pvec of its parameters.
+	 */
+	public static final Function pvec = pvec(ExecutionMode.CONCURRENT);
+
+	public static Function pvec(final ExecutionMode mode) {
+		return new AbstractFunctions.FunctionN() {
+			public Value apply(List<Value> parameters) {
+				PVec.Transient t = new PVec(mode).asTransient();
+				for (Value v : parameters) {
+					t.conj(v);
+				}
+				return Value.makePVec(t.persistent());
+			}
+		};
+	}
+
+	public static final Function pvecGet = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			return castToPVec(v0).get(castToInt(v1));
+		}
+	};
+
+	public static final Function pvecAssoc = new AbstractFunctions.Function3() {
+		@Override
+		protected Value invoke(Value v0, Value v1, Value v2) {
+			return Value.makePVec(castToPVec(v0).assoc(castToInt(v1), v2));
+		}
+	};
+
+	public static final Function pvecConj = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			return Value.makePVec(castToPVec(v0).conj(v1));
+		}
+	};
+
+	public static final Function pvecPop = new AbstractFunctions.Function1() {
+		@Override
+		protected Value invoke(Value v0) {
+			return Value.makePVec(castToPVec(v0).pop());
+		}
+	};
+
+	public static final Function pvecLength = new AbstractFunctions.Function1() {
+		@Override
+		protected Value invoke(Value v0) {
+			return NumberValues.make(castToPVec(v0).getLength());
+		}
+	};
+
+	/**
+	 * pvec_into(p, v) returns p with the elements of the vec v added at the
+	 * end. It is built as a transient, so p is copied at most once.
+	 */
+	public static final Function pvecInto = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			PVec.Transient t = castToPVec(v0).asTransient();
+			Vec vec = castToVec(v1);
+			for (int i = 0; i < vec.getLength(); i++) {
+				t.conj(vec.get(i));
+			}
+			return Value.makePVec(t.persistent());
+		}
+	};
+
+	/**
+	 * parallel_map(a, f) returns a new array of f applied to each element
+	 * of a, with the calls spread over several threads.
+	 */
+	public static final Function parallelMap = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			return Value.makeArray(Parallel.map(castToArray(v0), castToFunction(v1)));
+		}
+	};
+
+	/**
+	 * parallel_reduce(a, init, f) combines the elements of a with f, which
+	 * must be associative and have init as its identity.
+	 */
+	public static final Function parallelReduce = new AbstractFunctions.Function3() {
+		@Override
+		protected Value invoke(Value v0, Value v1, Value v2) {
+			return Parallel.reduce(castToArray(v0), v1, castToFunction(v2));
+		}
+	};
+
+	/**
+	 * parallel_for(n, f) calls f(i) for each i from 0 up to n, spread over
+	 * several threads.
+	 */
+	public static final Function parallelFor = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			Parallel.forEach(castToInt(v0), castToFunction(v1));
+			return Value.makeNull();
+		}
+	};
+
+	/**
+	 * spawn(f) starts calling f() in a new thread and returns a task.
+	 */
+	public static final Function spawn = spawn(ExecutionMode.CONCURRENT);
+
+	public static Function spawn(final ExecutionMode mode) {
+		return new AbstractFunctions.Function1() {
+			@Override
+			protected Value invoke(Value v0) {
+				return Value.makeTask(Task.spawn(castToFunction(v0), mode));
+			}
+		};
+	}
+
+	/**
+	 * join(t) waits for the task t and returns the value of its call.
+	 */
+	public static final Function join = new AbstractFunctions.Function1() {
+		@Override
+		protected Value invoke(Value v0) {
+			return castToTask(v0).join();
+		}
+	};
+
+	/**
+	 * chan(n) returns a channel with room for n values.
+	 */
+	public static final Function chan = chan(ExecutionMode.CONCURRENT);
+
+	public static Function chan(final ExecutionMode mode) {
+		return new AbstractFunctions.Function1() {
+			@Override
+			protected Value invoke(Value v0) {
+				return Value.makeChannel(new Channel(castToInt(v0), mode));
+			}
+		};
+	}
+
+	/**
+	 * send(c, v) waits until there is room in c and adds v to it.
+	 */
+	public static final Function send = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			castToChannel(v0).send(v1);
+			return Value.makeNull();
+		}
+	};
+
+	/**
+	 * recv(c) waits for a value in c and returns it, or returns null once c
+	 * is closed and empty.
+	 */
+	public static final Function recv = new AbstractFunctions.Function1() {
+		@Override
+		protected Value invoke(Value v0) {
+			return castToChannel(v0).recv();
+		}
+	};
+
+	/**
+	 * try_recv(c) returns the next value in c, or null if there is none.
+	 */
+	public static final Function tryRecv = new AbstractFunctions.Function1() {
+		@Override
+		protected Value invoke(Value v0) {
+			return castToChannel(v0).tryRecv();
+		}
+	};
+
+	public static final Function close = new AbstractFunctions.Function1() {
+		@Override
+		protected Value invoke(Value v0) {
+			castToChannel(v0).close();
+			return Value.makeNull();
+		}
+	};
+
+	public static final Function counter = counter(ExecutionMode.CONCURRENT);
+
+	public static Function counter(final ExecutionMode mode) {
+		return new AbstractFunctions.Function0() {
+			@Override
+			protected Value invoke() {
+				return Value.makeCounter(new Counter(mode));
+			}
+		};
+	}
+
+	public static final Function counterAdd = new AbstractFunctions.Function2() {
+		@Override
+		protected Value invoke(Value v0, Value v1) {
+			castToCounter(v0).add(castToNumber(v1));
+			return Value.makeNull();
+		}
+	};
+
+	public static final Function counterSum = new AbstractFunctions.Function1() {
+		@Override
+		protected Value invoke(Value v0) {
+			return NumberValues.make(castToCounter(v0).sum());
 		}
 	};
 
@@ -0,0 +1,180 @@
+package se.raek.ahsa.interpreter;
+
+import java.util.List;
+
+import se.raek.ahsa.ast.ArithmeticOperator;
+import se.raek.ahsa.ast.CallSite;
+import se.raek.ahsa.ast.ConstantCache;
+import se.raek.ahsa.ast.EqualityOperator;
+import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.Frame;
+import se.raek.ahsa.ast.Literal;
+import se.raek.ahsa.ast.RelationalOperator;
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.ast.ValueLocation;
+import se.raek.ahsa.ast.VariableLocation;
+
+/**
+ * What the Interpreter remembers about a call site: the code of the
+ * compound function that was called there last time, and, if it is small,
+ * the expression that it returns, so that the call can be inlined.
+ *
+ * The code is the frame of the function, which all closures of one
+ * function abstraction share, so a site keeps hitting when it is handed a
+ * new closure of the same function, as when a program is run again. The
+ * closure itself is not remembered, so the entry does not keep its store
+ * alive; each call uses the closure it is given. Calls of other functions
+ * all have the same entry, with no frame.
+ *
+ * Entries are immutable apart from their hit count, so that a site can be
+ * read and replaced without locking. A site that has seen too many
+ * different functions without settling on one is marked as megamorphic and
+ * is not cached any more; misses are forgotten once an entry has had
+ * STABLE_HITS hits.
+ */
+final class CallSiteCache {
+
+	/** The number of different functions a site may see before it gives up. */
+	static final int MAX_MISSES = 4;
+
+	/** The number of hits after which an entry is taken to be stable. */
+	static final int STABLE_HITS = 64;
+
+	/** The largest expression, in nodes, that is inlined. */
+	static final int MAX_INLINE_SIZE = 16;
+
+	static final CallSiteCache MEGAMORPHIC = new CallSiteCache(null, null, MAX_MISSES);
+
+	final Frame frame;
+	final Expression inlineExpr;
+	final int misses;
+	/** Only approximate when the site is run concurrently. */
+	private int hits = 0;
+
+	private CallSiteCache(Frame frame, Expression inlineExpr, int misses) {
+		this.frame = frame;
+		this.inlineExpr = inlineExpr;
+		this.misses = misses;
+	}
+
+	private static Frame frameOf(Function fn) {
+		return (fn instanceof CompoundFunction) ? ((CompoundFunction) fn).frame : null;
+	}
+
+	/**
+	 * Whether the entry is for calls of fn, and if so counts a hit.
+	 */
+	boolean hit(Function fn) {
+		if (this == MEGAMORPHIC) {
+			return true;
+		}
+		if (frame != frameOf(fn)) {
+			return false;
+		}
+		if (hits < STABLE_HITS) {
+			hits++;
+		}
+		return true;
+	}
+
+	/**
+	 * Records that the site now calls fn, and returns the new entry.
+	 */
+	static CallSiteCache update(CallSite site, Function fn) {
+		CallSiteCache old = (CallSiteCache) site.getCache();
+		int misses;
+		if (old == null || old.hits >= STABLE_HITS) {
+			misses = 0;
+		} else {
+			misses = old.misses + 1;
+		}
+		CallSiteCache entry;
+		if (misses >= MAX_MISSES) {
+			entry = MEGAMORPHIC;
+		} else {
+			entry = new CallSiteCache(frameOf(fn), inlineExpression(fn), misses);
+		}
+		site.setCache(entry);
+		return entry;
+	}
+
+	/**
+	 * Returns the expression to evaluate in place of calling fn, or null if
+	 * fn is not a compound function whose body is a single small return.
+	 * Function abstractions are not inlined, since closures should capture
+	 * the store of a real call.
+	 */
+	private static Expression inlineExpression(Function fn) {
+		if (!(fn instanceof CompoundFunction)) {
+			return null;
+		}
+		List<Statement> body = ((CompoundFunction) fn).body;
+		if (body.size() != 1) {
+			return null;
+		}
+		Expression expr = body.get(0).matchStatement(returnedExpression);
+		if (expr == null) {
+			return null;
+		}
+		int size = expr.matchExpression(new SizeCounter());
+		return (size <= MAX_INLINE_SIZE) ? expr : null;
+	}
+
+	private static final Statement.Matcher<Expression> returnedExpression = new Statement.AbstractMatcher<Expression>() {
+		@Override
+		public Expression caseReturn(Expression expr) {
+			return expr;
+		}
+		@Override
+		public Expression otherwise() {
+			return null;
+		}
+	};
+
+	/**
+	 * Counts the nodes of an expression. Anything that is not inlined counts
+	 * as larger than MAX_INLINE_SIZE.
+	 */
+	private static final class SizeCounter implements Expression.Matcher<Integer> {
+
+		private static final int TOO_LARGE = MAX_INLINE_SIZE + 1;
+
+		public Integer caseConstant(Literal l, ConstantCache cache) {
+			return 1;
+		}
+
+		public Integer caseValueLookup(ValueLocation val) {
+			return 1;
+		}
+
+		public Integer caseVariableLookup(VariableLocation var) {
+			return 1;
+		}
+
+		public Integer caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
+			return 1 + left.matchExpression(this) + right.matchExpression(this);
+		}
+
+		public Integer caseEqualityOperation(EqualityOperator op, Expression left, Expression right) {
+			return 1 + left.matchExpression(this) + right.matchExpression(this);
+		}
+
+		public Integer caseRelationalOperation(RelationalOperator op, Expression left, Expression right) {
+			return 1 + left.matchExpression(this) + right.matchExpression(this);
+		}
+
+		public Integer caseFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body, Frame frame) {
+			return TOO_LARGE;
+		}
+
+		public Integer caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
+			int size = 1 + function.matchExpression(this);
+			for (Expression param : parameters) {
+				size += param.matchExpression(this);
+			}
+			return size;
+		}
+
+	}
+
+}
@@ -0,0 +1,179 @@
+package se.raek.ahsa.interpreter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A bounded first-in first-out queue of values for passing messages
+ * between tasks. send waits while the channel is full and recv while it is
+ * empty, so a fast producer is held back by a slow consumer.
+ *
+ * Waiting is done on a ReentrantLock rather than with synchronized, since
+ * a virtual thread waiting on a lock condition gives up its carrier thread.
+ *
+ * Null cannot be sent: recv returns it to tell that the channel has been
+ * closed and emptied.
+ */
+public final class Channel {
+
+	private static final Value NULL = Value.makeNull();
+
+	public final int id;
+	private final Value[] buffer;
+	private int head = 0;
+	private int count = 0;
+	private boolean closed = false;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private static AtomicInteger nextId = new AtomicInteger(0);
+
+	public Channel(int capacity) {
+		this(capacity, ExecutionMode.CONCURRENT);
+	}
+
+	public Channel(int capacity, ExecutionMode mode) {
+		if (capacity < 1) throw new IllegalArgumentException("channel capacity must be positive: " + capacity);
+		id = mode.nextId(nextId);
+		buffer = new Value[capacity];
+	}
+
+	public static class ClosedException extends RuntimeException {
+
+		private static final long serialVersionUID = -8032712380571245542L;
+
+		public ClosedException(Channel channel) {
+			super("send on closed channel " + channel);
+		}
+
+	}
+
+	public static class NullMessageException extends RuntimeException {
+
+		private static final long serialVersionUID = 4931880150842337316L;
+
+		public NullMessageException(Channel channel) {
+			super("null sent on channel " + channel);
+		}
+
+	}
+
+	public static class InterruptedWaitException extends RuntimeException {
+
+		private static final long serialVersionUID = -1347305226711927650L;
+
+		public InterruptedWaitException(Channel channel) {
+			super("interrupted while waiting on channel " + channel);
+		}
+
+	}
+
+	public int getCapacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * Adds v to the end of the channel, waiting until there is room.
+	 */
+	public void send(Value v) {
+		if (v == NULL) throw new NullMessageException(this);
+		lock.lock();
+		try {
+			while (count == buffer.length && !closed) {
+				await(notFull);
+			}
+			if (closed) {
+				throw new ClosedException(this);
+			}
+			buffer[(head + count) % buffer.length] = v;
+			count++;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes and returns the first value of the channel, waiting until
+	 * there is one. Returns null if the channel is closed and empty.
+	 */
+	public Value recv() {
+		lock.lock();
+		try {
+			while (count == 0 && !closed) {
+				await(notEmpty);
+			}
+			return take();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes and returns the first value of the channel, or returns null
+	 * if it is empty.
+	 */
+	public Value tryRecv() {
+		lock.lock();
+		try {
+			return take();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the channel. Values already sent can still be received, but
+	 * no more can be sent. Closing a closed channel does nothing.
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isClosed() {
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Value take() {
+		if (count == 0) {
+			return NULL;
+		}
+		Value v = buffer[head];
+		buffer[head] = null;
+		head = (head + 1) % buffer.length;
+		count--;
+		notFull.signal();
+		return v;
+	}
+
+	private void await(Condition condition) {
+		try {
+			condition.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedWaitException(this);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "chan" + id;
+	}
+
+}
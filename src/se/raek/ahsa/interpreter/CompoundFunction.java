@@ -1,53 +1,146 @@
 package se.raek.ahsa.interpreter;
 
-import java.util.Iterator;
 import java.util.List;
 
-import se.raek.ahsa.ast.LoopLabel;
+import se.raek.ahsa.ast.Frame;
 import se.raek.ahsa.ast.Statement;
 import se.raek.ahsa.ast.ValueLocation;
-import se.raek.ahsa.interpreter.ControlAction.Matcher;
+import se.raek.ahsa.jit.Jit;
 
+/**
+ * A function defined in the language. It may be called from several
+ * threads at once: each call gets its own activation store, and the
+ * store the function closes over is only read.
+ */
 public class CompoundFunction implements Function {
 	
 	public final ValueLocation self;
 	public final List<ValueLocation> formalParameters;
 	public final List<Statement> body;
+	public final Frame frame;
 	public final Store sto;
 	
 	public CompoundFunction(ValueLocation self, List<ValueLocation> formalParameters, List<Statement> body, Store sto) {
-		if (formalParameters == null || body == null || sto == null) throw new NullPointerException();
+		this(self, formalParameters, body, new Frame(), sto);
+	}
+	
+	public CompoundFunction(ValueLocation self, List<ValueLocation> formalParameters, List<Statement> body, Frame frame, Store sto) {
+		if (formalParameters == null || body == null || frame == null || sto == null) throw new NullPointerException();
 		this.self = self;
 		this.formalParameters = formalParameters;
 		this.body = body;
+		this.frame = frame;
 		this.sto = sto;
 	}
 
+	// Volatile, since the compiled code may be created by another thread.
+	private volatile Function compiled = null;
+	private volatile boolean interpretOnly = false;
+
+	/**
+	 * Returns the compiled code to run instead of interpreting the body,
+	 * compiling it first if it has become hot, or null.
+	 */
+	private Function compiledCode() {
+		Function code = compiled;
+		if (code == null && !interpretOnly && Jit.shouldCompile(frame)) {
+			code = Jit.compile(this);
+			if (code == null) {
+				interpretOnly = true;
+			}
+			compiled = code;
+		}
+		return code;
+	}
+
+	public Value apply0() {
+		Function code = compiledCode();
+		if (code != null) {
+			return code.apply0();
+		}
+		return Interpreter.executeFunctionBody(this, newActivation(0, null, null, null));
+	}
+
+	public Value apply1(Value v0) {
+		Function code = compiledCode();
+		if (code != null) {
+			return code.apply1(v0);
+		}
+		return Interpreter.executeFunctionBody(this, newActivation(1, v0, null, null));
+	}
+
+	public Value apply2(Value v0, Value v1) {
+		Function code = compiledCode();
+		if (code != null) {
+			return code.apply2(v0, v1);
+		}
+		return Interpreter.executeFunctionBody(this, newActivation(2, v0, v1, null));
+	}
+
+	public Value apply3(Value v0, Value v1, Value v2) {
+		Function code = compiledCode();
+		if (code != null) {
+			return code.apply3(v0, v1, v2);
+		}
+		return Interpreter.executeFunctionBody(this, newActivation(3, v0, v1, v2));
+	}
+
 	public Value apply(List<Value> actualParameters) {
-		Store newStore = new Store(sto);
+		Function code = compiledCode();
+		if (code != null) {
+			return code.apply(actualParameters);
+		}
+		return Interpreter.executeFunctionBody(this, newActivation(actualParameters));
+	}
+
+	public void share() {
+		sto.share();
+	}
+	
+	/**
+	 * Creates the store for a call with parameterCount actual parameters,
+	 * with the function itself defined in it. The caller defines the
+	 * parameters.
+	 */
+	public Store newActivation(int parameterCount) {
+		if (parameterCount != formalParameters.size()) {
+			throw new Function.ArityException(formalParameters.size(), parameterCount);
+		}
+		Store newStore = new Store(sto, frame);
 		if (self != null) {
 			newStore.defineValue(self, Value.makeFunction(this));
 		}
-		Iterator<ValueLocation> formals = formalParameters.iterator();
-		Iterator<Value> actuals = actualParameters.iterator();
-		while(formals.hasNext() && actuals.hasNext()) {
-			newStore.defineValue(formals.next(), actuals.next());
+		return newStore;
+	}
+	
+	/**
+	 * Creates the store for a call with the first parameterCount of v0, v1
+	 * and v2 as actual parameters.
+	 */
+	Store newActivation(int parameterCount, Value v0, Value v1, Value v2) {
+		Store newStore = newActivation(parameterCount);
+		if (parameterCount > 0) {
+			newStore.defineValue(formalParameters.get(0), v0);
 		}
-		if (formals.hasNext() || actuals.hasNext()) {
-			throw new Function.ArityException(formalParameters.size(), actualParameters.size());
+		if (parameterCount > 1) {
+			newStore.defineValue(formalParameters.get(1), v1);
 		}
-		ControlAction action = Interpreter.execute(body, newStore);
-		return action.matchControlAction(new Matcher<Value>() {
-			public Value caseNext() {
-				return Value.makeNull();
-			}
-			public Value caseBreak(LoopLabel loop) {
-				throw new AssertionError("Tried to break from loop, reached function top level. Loop label: " + loop);
-			}
-			public Value caseReturn(Value v) {
-				return v;
-			}
-		});
+		if (parameterCount > 2) {
+			newStore.defineValue(formalParameters.get(2), v2);
+		}
+		return newStore;
+	}
+	
+	/**
+	 * Creates the store for one call, with the function itself and the
+	 * actual parameters defined in it.
+	 */
+	public Store newActivation(List<Value> actualParameters) {
+		Store newStore = newActivation(actualParameters.size());
+		for (int i = 0; i < actualParameters.size(); i++) {
+			newStore.defineValue(formalParameters.get(i), actualParameters.get(i));
+		}
+		return newStore;
 	}
 
 }
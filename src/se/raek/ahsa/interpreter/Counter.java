@@ -0,0 +1,46 @@
+package se.raek.ahsa.interpreter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+
+
+/**
+ * A number that many threads can add to at once without contending with
+ * each other. Additions go to one of several cells, chosen by thread, and
+ * are only summed when the total is read; adding neither waits nor
+ * allocates.
+ *
+ * The sum read while additions are going on may miss some of them. Since
+ * the cells are summed in no particular order, a sum of numbers that are
+ * not all integers may differ in its last bits from adding them up in
+ * sequence.
+ */
+public final class Counter {
+
+	public final int id;
+	private final DoubleAdder adder = new DoubleAdder();
+
+	private static AtomicInteger nextId = new AtomicInteger(0);
+
+	public Counter() {
+		this(ExecutionMode.CONCURRENT);
+	}
+
+	public Counter(ExecutionMode mode) {
+		id = mode.nextId(nextId);
+	}
+
+	public void add(double n) {
+		adder.add(n);
+	}
+
+	public double sum() {
+		return adder.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "counter" + id;
+	}
+
+}
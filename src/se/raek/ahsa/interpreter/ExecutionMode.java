@@ -0,0 +1,86 @@
+package se.raek.ahsa.interpreter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Whether a program may run code in several threads, and where the ids of
+ * the values it creates come from. It is chosen when the built-in
+ * functions are installed, and the functions that create values create
+ * them for it.
+ *
+ * In the CONCURRENT mode ids are drawn from atomic counters shared by all
+ * programs, one for each kind of value. A mode made by concurrent() has
+ * one atomic counter of its own instead, so that programs in different
+ * contexts neither contend on the counters nor see each other's
+ * numbering. In both, boxes are read and written atomically.
+ *
+ * A single threaded mode has one counter of its own, incremented without
+ * synchronization, and its boxes are plain fields. A program that runs in
+ * one thread behaves the same in all modes, except for the numbering of
+ * its values; spawn and the parallel builtins are not available in a
+ * single threaded mode.
+ */
+public abstract class ExecutionMode {
+
+	public static final ExecutionMode CONCURRENT = new Concurrent(null);
+
+	private ExecutionMode() {
+	}
+
+	/**
+	 * Returns a new concurrent mode, with its own id counter.
+	 */
+	public static ExecutionMode concurrent() {
+		return new Concurrent(new AtomicInteger(0));
+	}
+
+	/**
+	 * Returns a new single threaded mode, with its own id counter.
+	 */
+	public static ExecutionMode singleThreaded() {
+		return new SingleThreaded();
+	}
+
+	public abstract boolean isConcurrent();
+
+	/**
+	 * Returns the id for a new value, whose kind has the shared counter
+	 * shared.
+	 */
+	public abstract int nextId(AtomicInteger shared);
+
+	private static final class Concurrent extends ExecutionMode {
+
+		/** The counter of this mode, or null to use the shared ones. */
+		private final AtomicInteger nextId;
+
+		Concurrent(AtomicInteger nextId) {
+			this.nextId = nextId;
+		}
+
+		public boolean isConcurrent() {
+			return true;
+		}
+
+		public int nextId(AtomicInteger shared) {
+			return (nextId != null ? nextId : shared).getAndIncrement();
+		}
+
+	}
+
+	private static final class SingleThreaded extends ExecutionMode {
+
+		private int nextId = 0;
+
+		public boolean isConcurrent() {
+			return false;
+		}
+
+		public int nextId(AtomicInteger shared) {
+			return nextId++;
+		}
+
+	}
+
+}
@@ -3,10 +3,31 @@ package se.raek.ahsa.interpreter;
 import java.util.List;
 
 
+/**
+ * Something that can be applied to parameters. Calls with up to three
+ * parameters go through apply0 to apply3, so that the caller does not have
+ * to build a list; apply takes any number of parameters. All entry points
+ * throw ArityException if the function takes another number.
+ */
 public interface Function {
 
+	Value apply0();
+	
+	Value apply1(Value v0);
+	
+	Value apply2(Value v0, Value v1);
+	
+	Value apply3(Value v0, Value v1, Value v2);
+	
 	Value apply(List<Value> parameters);
 	
+	/**
+	 * Prepares the function to be called from other threads, by spawn and
+	 * the parallel builtins, marking the stores it closes over as shared;
+	 * see Store.share.
+	 */
+	void share();
+	
 	public static class ArityException extends RuntimeException {
 
 		private static final long serialVersionUID = 72149012886064001L;
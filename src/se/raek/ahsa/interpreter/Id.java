@@ -9,7 +9,11 @@ public final class Id {
 	private static AtomicInteger nextId = new AtomicInteger(0);
 	
 	public Id() {
-		id = nextId.getAndIncrement();
+		this(ExecutionMode.CONCURRENT);
+	}
+	
+	public Id(ExecutionMode mode) {
+		id = mode.nextId(nextId);
 	}
 	
 	@Override
@@ -4,8 +4,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 import se.raek.ahsa.ast.ArithmeticOperator;
+import se.raek.ahsa.ast.CallSite;
+import se.raek.ahsa.ast.ConstantCache;
 import se.raek.ahsa.ast.EqualityOperator;
 import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.Frame;
 import se.raek.ahsa.ast.Literal;
 import se.raek.ahsa.ast.LoopLabel;
 import se.raek.ahsa.ast.RelationalOperator;
@@ -13,9 +16,27 @@ import se.raek.ahsa.ast.Statement;
 import se.raek.ahsa.ast.ValueLocation;
 import se.raek.ahsa.ast.VariableLocation;
 
-public class Interpreter implements Expression.Matcher<Value>, Statement.Matcher<ControlAction> {
+public class Interpreter implements Expression.Matcher<Value>, Statement.Matcher<Interpreter.Completion> {
 	
-	private final Store sto;
+	/**
+	 * How a statement completed. Break and Return carry their loop label or
+	 * value in breakLoop and returnValue, so that no ControlAction has to be
+	 * allocated until one leaves the interpreter. TailCall means that the
+	 * function returned a call to itself, and that sto now holds the
+	 * activation for that call.
+	 */
+	enum Completion {
+		NORMAL, BREAK, RETURN, TAIL_CALL
+	}
+	
+	/** Not final: inlined calls evaluate in the callee's activation. */
+	private Store sto;
+	private LoopLabel breakLoop = null;
+	private Value returnValue = null;
+	private NumberEvaluator numbers = null;
+	/** The function whose body is executed, or null at the top level. */
+	private CompoundFunction function = null;
+	private TailCalls tailCalls = null;
 	
 	private Interpreter(Store sto) {
 		this.sto = sto;
@@ -26,28 +47,59 @@ public class Interpreter implements Expression.Matcher<Value>, Statement.Matcher
 	}
 	
 	public static ControlAction execute(Statement stmt, Store sto) {
-		return stmt.matchStatement(new Interpreter(sto));
+		Interpreter interp = new Interpreter(sto);
+		return interp.toControlAction(stmt.matchStatement(interp));
 	}
 	
 	public static ControlAction execute(List<Statement> stmts, Store sto) {
 		Interpreter interp = new Interpreter(sto);
-		return interp.executeStatements(stmts);
+		return interp.toControlAction(interp.executeStatements(stmts));
 	}
 	
 	public static void executeTopLevel(List<Statement> stmts, Store sto) {
 		Interpreter interp = new Interpreter(sto);
-		ControlAction action = interp.executeStatements(stmts);
-		action.matchControlAction(new ControlAction.Matcher<Void>() {
-			public Void caseNext() {
-				return null;
-			}
-			public Void caseBreak(LoopLabel loop) {
-				throw new AssertionError("Tried to break from loop, reached program top level. Loop label: " + loop);
-			}
-			public Void caseReturn(Value v) {
-				throw new AssertionError("Tried to return from function, reached program top level. Return value: " + v);
+		switch (interp.executeStatements(stmts)) {
+		case BREAK:
+			throw new AssertionError("Tried to break from loop, reached program top level. Loop label: " + interp.breakLoop);
+		case RETURN:
+			throw new AssertionError("Tried to return from function, reached program top level. Return value: " + interp.returnValue);
+		default:
+			break;
+		}
+	}
+	
+	/**
+	 * Executes the body of fn in an activation of it and returns the value
+	 * it returns, or null if it runs to the end. A call of fn to itself in
+	 * a return statement runs the body again in this loop, so that it uses
+	 * neither Java stack nor a chain of stores.
+	 */
+	static Value executeFunctionBody(CompoundFunction fn, Store sto) {
+		Interpreter interp = new Interpreter(sto);
+		interp.function = fn;
+		while (true) {
+			switch (interp.executeStatements(fn.body)) {
+			case BREAK:
+				throw new AssertionError("Tried to break from loop, reached function top level. Loop label: " + interp.breakLoop);
+			case RETURN:
+				return interp.returnValue;
+			case TAIL_CALL:
+				continue;
+			default:
+				return Value.makeNull();
 			}
-		});
+		}
+	}
+	
+	private ControlAction toControlAction(Completion completion) {
+		switch (completion) {
+		case BREAK:
+			return ControlAction.makeBreak(breakLoop);
+		case RETURN:
+			return ControlAction.makeReturn(returnValue);
+		default:
+			return ControlAction.makeNext();
+		}
 	}
 	
 	public static class CastException extends RuntimeException {
@@ -83,19 +135,139 @@ public class Interpreter implements Expression.Matcher<Value>, Statement.Matcher
 			public String caseArray(Array array) {
 				return "array";
 			}
-		});
-	}
-	
-	public static double castToNumber(final Value v) {
-		return v.matchValue(new Value.AbstractMatcher<Double>() {
-			public Double caseNumber(double n) {
-				return n;
+			public String caseVec(Vec vec) {
+				return "vec";
+			}
+			public String caseTable(Table table) {
+				return "map";
+			}
+			public String casePVec(PVec pvec) {
+				return "pvec";
 			}
-			public Double otherwise() {
-				throw new CastException("number", typeName(v));
+			public String caseTask(Task task) {
+				return "task";
+			}
+			public String caseChannel(Channel channel) {
+				return "chan";
+			}
+			public String caseCounter(Counter counter) {
+				return "counter";
 			}
 		});
 	}
+	
+	// The matchers below are stateless, so that casting allocates nothing.
+	
+	private static final Value.Matcher<Function> functionCast = new Value.AbstractMatcher<Function>() {
+		public Function caseFunction(Function fn) {
+			return fn;
+		}
+		public Function otherwise() {
+			return null;
+		}
+	};
+	
+	private static final Value.Matcher<Box> boxCast = new Value.AbstractMatcher<Box>() {
+		public Box caseBox(Box box) {
+			return box;
+		}
+		public Box otherwise() {
+			return null;
+		}
+	};
+	
+	private static final Value.Matcher<Array> arrayCast = new Value.AbstractMatcher<Array>() {
+		public Array caseArray(Array array) {
+			return array;
+		}
+		public Array otherwise() {
+			return null;
+		}
+	};
+	
+	private static final Value.Matcher<Vec> vecCast = new Value.AbstractMatcher<Vec>() {
+		public Vec caseVec(Vec vec) {
+			return vec;
+		}
+		public Vec otherwise() {
+			return null;
+		}
+	};
+	
+	private static final Value.Matcher<Table> tableCast = new Value.AbstractMatcher<Table>() {
+		public Table caseTable(Table table) {
+			return table;
+		}
+		public Table otherwise() {
+			return null;
+		}
+	};
+	
+	private static final Value.Matcher<PVec> pvecCast = new Value.AbstractMatcher<PVec>() {
+		public PVec casePVec(PVec pvec) {
+			return pvec;
+		}
+		public PVec otherwise() {
+			return null;
+		}
+	};
+	
+	private static final Value.Matcher<Task> taskCast = new Value.AbstractMatcher<Task>() {
+		public Task caseTask(Task task) {
+			return task;
+		}
+		public Task otherwise() {
+			return null;
+		}
+	};
+	
+	private static final Value.Matcher<Channel> channelCast = new Value.AbstractMatcher<Channel>() {
+		public Channel caseChannel(Channel channel) {
+			return channel;
+		}
+		public Channel otherwise() {
+			return null;
+		}
+	};
+	
+	private static final Value.Matcher<Counter> counterCast = new Value.AbstractMatcher<Counter>() {
+		public Counter caseCounter(Counter counter) {
+			return counter;
+		}
+		public Counter otherwise() {
+			return null;
+		}
+	};
+	
+	private static final Value.Matcher<Boolean> truthiness = new Value.AbstractMatcher<Boolean>() {
+		public Boolean caseNull() {
+			return false;
+		}
+		public Boolean caseBoolean(boolean b) {
+			return b;
+		}
+		public Boolean otherwise() {
+			return true;
+		}
+	};
+	
+	private static final Literal.Matcher<Value> literalValue = new Literal.Matcher<Value>() {
+		public Value caseNull() {
+			return Value.makeNull();
+		}
+		public Value caseBoolean(boolean b) {
+			return Value.makeBoolean(b);
+		}
+		public Value caseNumber(double n) {
+			return NumberValues.make(n);
+		}
+	};
+	
+	public static double castToNumber(Value v) {
+		if (!NumberValues.isNumber(v)) throw new CastException("number", typeName(v));
+		return NumberValues.getNumber(v);
+	}
+	
 	public static int castToInt(Value v) {
 		double d = castToNumber(v);
 		long l = (long) d;
@@ -107,102 +279,85 @@ public class Interpreter implements Expression.Matcher<Value>, Statement.Matcher
 		return i;
 	}
 
-	public static Function castToFunction(final Value v) {
-		return v.matchValue(new Value.AbstractMatcher<Function>() {
-			public Function caseFunction(Function fn) {
-				return fn;
-			}
-			public Function otherwise() {
-				throw new CastException("function", typeName(v));
-			}
-		});
+	public static Function castToFunction(Value v) {
+		Function fn = v.matchValue(functionCast);
+		if (fn == null) throw new CastException("function", typeName(v));
+		return fn;
 	}
 	
-	public static Box castToBox(final Value v) {
-		return v.matchValue(new Value.AbstractMatcher<Box>() {
-			public Box caseBox(Box box) {
-				return box;
-			}
-			public Box otherwise() {
-				throw new CastException("box", typeName(v));
-			}
-		});
+	public static Box castToBox(Value v) {
+		Box box = v.matchValue(boxCast);
+		if (box == null) throw new CastException("box", typeName(v));
+		return box;
 	}
 
-	public static Array castToArray(final Value v) {
-		return v.matchValue(new Value.AbstractMatcher<Array>() {
-			public Array caseArray(Array array) {
-				return array;
-			}
-			public Array otherwise() {
-				throw new CastException("array", typeName(v));
-			}
-		});
+	public static Array castToArray(Value v) {
+		Array array = v.matchValue(arrayCast);
+		if (array == null) throw new CastException("array", typeName(v));
+		return array;
 	}
 
-	public static boolean isTruthy(final Value v) {
-		return v.matchValue(new Value.AbstractMatcher<Boolean>() {
-			public Boolean caseNull() {
-				return false;
-			}
-			public Boolean caseBoolean(boolean b) {
-				return b;
-			}
-			public Boolean otherwise() {
-				return true;
-			}
-		});
+	public static Counter castToCounter(Value v) {
+		Counter counter = v.matchValue(counterCast);
+		if (counter == null) throw new CastException("counter", typeName(v));
+		return counter;
 	}
 	
-	private boolean shouldExit(ControlAction action) {
-		return action.matchControlAction(new ControlAction.Matcher<Boolean>() {
-			public Boolean caseNext() {
-				return false;
-			}
-			public Boolean caseBreak(LoopLabel loop) {
-				return true;
-			}
-			public Boolean caseReturn(Value v) {
-				return true;
-			}
-		});
+	public static Channel castToChannel(Value v) {
+		Channel channel = v.matchValue(channelCast);
+		if (channel == null) throw new CastException("chan", typeName(v));
+		return channel;
 	}
 	
-	private LoopLabel getLoopLabel(ControlAction action) {
-		return action.matchControlAction(new ControlAction.AbstractMatcher<LoopLabel>() {
-			@Override
-			public LoopLabel caseBreak(LoopLabel loop) {
-				return loop;
-			}
-			@Override
-			public LoopLabel otherwise() {
-				return null;
-			}
-		});
+	public static Task castToTask(Value v) {
+		Task task = v.matchValue(taskCast);
+		if (task == null) throw new CastException("task", typeName(v));
+		return task;
+	}
+	
+	public static PVec castToPVec(Value v) {
+		PVec pvec = v.matchValue(pvecCast);
+		if (pvec == null) throw new CastException("pvec", typeName(v));
+		return pvec;
 	}
 	
-	private ControlAction executeStatements(List<Statement> stmts) {
-		for (Statement stmt : stmts) {
-			ControlAction action = stmt.matchStatement(this);
-			if (shouldExit(action)) {
-				return action;
+	public static Table castToTable(Value v) {
+		Table table = v.matchValue(tableCast);
+		if (table == null) throw new CastException("map", typeName(v));
+		return table;
+	}
+	
+	public static Vec castToVec(Value v) {
+		Vec vec = v.matchValue(vecCast);
+		if (vec == null) throw new CastException("vec", typeName(v));
+		return vec;
+	}
+	
+	public static boolean isTruthy(Value v) {
+		return v.matchValue(truthiness);
+	}
+	
+	private Completion executeStatements(List<Statement> stmts) {
+		for (int i = 0, n = stmts.size(); i < n; i++) {
+			Completion completion = stmts.get(i).matchStatement(this);
+			if (completion != Completion.NORMAL) {
+				return completion;
 			}
 		}
-		return ControlAction.makeNext();
+		return Completion.NORMAL;
 	}
 
-	public Value caseConstant(Literal l) {
-		return l.matchLiteral(new Literal.Matcher<Value>() {
-			public Value caseNull() {
-				return Value.makeNull();
-			}
-			public Value caseBoolean(boolean b) {
-				return Value.makeBoolean(b);
-			}
-			public Value caseNumber(double n) {
-				return Value.makeNumber(n);
-			}
-		});
+	/**
+	 * Makes the value of a constant the first time it is evaluated, and
+	 * keeps it in the cache of the constant for later evaluations.
+	 */
+	public Value caseConstant(Literal l, ConstantCache cache) {
+		Value v = (Value) cache.getValue();
+		if (v == null) {
+			v = l.matchLiteral(literalValue);
+			cache.setValue(v);
+		}
+		return v;
 	}
 
 	public Value caseValueLookup(ValueLocation val) {
@@ -213,96 +368,296 @@ public class Interpreter implements Expression.Matcher<Value>, Statement.Matcher
 		return sto.lookupVariable(var);
 	}
 
-	public Value caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
-		Value leftValue = left.matchExpression(this);
-		Value rightValue = right.matchExpression(this);
-		final double leftNumber = castToNumber(leftValue);
-		final double rightNumber = castToNumber(rightValue);
-		return Value.makeNumber(op.matchArithmeticOperator(new ArithmeticOperator.Matcher<Double>() {
-			public Double caseAddition() {
-				return leftNumber + rightNumber;
-			}
-			public Double caseSubtraction() {
-				return leftNumber - rightNumber;
-			}
-			public Double caseMultiplication() {
-				return leftNumber * rightNumber;
+	/**
+	 * Evaluates expressions like the Interpreter does, except that numbers
+	 * computed by arithmetic, or read from variables that hold them unboxed,
+	 * are left in the number field. Null is returned for those instead of a
+	 * freshly allocated Value.
+	 */
+	private final class NumberEvaluator implements Expression.Matcher<Value> {
+		
+		double number;
+		double leftNumber;
+		double rightNumber;
+		
+		/**
+		 * Evaluates both operands and then casts them to numbers, left
+		 * first, leaving the results in leftNumber and rightNumber.
+		 */
+		void evalOperands(Expression left, Expression right) {
+			Value leftValue = left.matchExpression(this);
+			double l = number;
+			Value rightValue = right.matchExpression(this);
+			double r = number;
+			if (leftValue != null) l = castToNumber(leftValue);
+			if (rightValue != null) r = castToNumber(rightValue);
+			leftNumber = l;
+			rightNumber = r;
+		}
+
+		public Value caseConstant(Literal l, ConstantCache cache) {
+			return Interpreter.this.caseConstant(l, cache);
+		}
+
+		public Value caseValueLookup(ValueLocation val) {
+			return sto.lookupValue(val);
+		}
+
+		public Value caseVariableLookup(VariableLocation var) {
+			if (sto.holdsNumber(var)) {
+				number = sto.lookupVariableNumber(var);
+				return null;
 			}
-			public Double caseDivision() {
-				return leftNumber / rightNumber;
+			return sto.lookupVariable(var);
+		}
+
+		public Value caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
+			number = arithmetic(op, left, right);
+			return null;
+		}
+
+		public Value caseEqualityOperation(EqualityOperator op, Expression left, Expression right) {
+			return Interpreter.this.caseEqualityOperation(op, left, right);
+		}
+
+		public Value caseRelationalOperation(RelationalOperator op, Expression left, Expression right) {
+			return Interpreter.this.caseRelationalOperation(op, left, right);
+		}
+
+		public Value caseFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body, Frame frame) {
+			return Interpreter.this.caseFunctionAbstraction(self, parameters, body, frame);
+		}
+
+		public Value caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
+			return Interpreter.this.caseFunctionApplication(function, parameters, site);
+		}
+		
+	}
+	
+	/**
+	 * Recognizes a call of the current function to itself, by the value
+	 * that holds the function in its own activation. When it matches, the
+	 * parameters are evaluated and sto is replaced by the activation for
+	 * the call.
+	 */
+	private final class TailCalls extends Expression.AbstractMatcher<Boolean> {
+		
+		@Override
+		public Boolean caseFunctionApplication(Expression callee, List<Expression> parameters, CallSite site) {
+			if (callee.matchExpression(valueLookupLocation) != function.self) {
+				return false;
 			}
-		}));
+			int n = parameters.size();
+			Store activation;
+			if (n > 3) {
+				List<Value> evaledParams = new ArrayList<Value>(n);
+				for (Expression expr : parameters) {
+					evaledParams.add(expr.matchExpression(Interpreter.this));
+				}
+				activation = function.newActivation(evaledParams);
+			} else {
+				Value v0 = (n > 0) ? parameters.get(0).matchExpression(Interpreter.this) : null;
+				Value v1 = (n > 1) ? parameters.get(1).matchExpression(Interpreter.this) : null;
+				Value v2 = (n > 2) ? parameters.get(2).matchExpression(Interpreter.this) : null;
+				activation = function.newActivation(n, v0, v1, v2);
+			}
+			sto = activation;
+			return true;
+		}
+		
+		@Override
+		public Boolean otherwise() {
+			return false;
+		}
+		
+	}
+	
+	private static final Expression.Matcher<ValueLocation> valueLookupLocation = new Expression.AbstractMatcher<ValueLocation>() {
+		@Override
+		public ValueLocation caseValueLookup(ValueLocation val) {
+			return val;
+		}
+		@Override
+		public ValueLocation otherwise() {
+			return null;
+		}
+	};
+	
+	private NumberEvaluator numbers() {
+		if (numbers == null) {
+			numbers = new NumberEvaluator();
+		}
+		return numbers;
+	}
+	
+	public static boolean numberEquals(double n, Value v) {
+		return NumberValues.isNumber(v) && Double.compare(n, NumberValues.getNumber(v)) == 0;
+	}
+
+	private double arithmetic(ArithmeticOperator op, Expression left, Expression right) {
+		NumberEvaluator numbers = numbers();
+		numbers.evalOperands(left, right);
+		double leftNumber = numbers.leftNumber;
+		double rightNumber = numbers.rightNumber;
+		switch (op) {
+		case ADDITION:
+			return leftNumber + rightNumber;
+		case SUBTRACTION:
+			return leftNumber - rightNumber;
+		case MULTIPLICATION:
+			return leftNumber * rightNumber;
+		case DIVISION:
+			return leftNumber / rightNumber;
+		default:
+			throw new AssertionError(op);
+		}
+	}
+
+	public Value caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
+		return NumberValues.make(arithmetic(op, left, right));
 	}
 
 	public Value caseEqualityOperation(EqualityOperator op, Expression left, Expression right) {
-		final Value leftValue = left.matchExpression(this);
-		final Value rightValue = right.matchExpression(this);
-		return Value.makeBoolean(op.matchEqualityOperator(new EqualityOperator.Matcher<Boolean>() {
-			public Boolean caseEqual() {
-				return leftValue.equals(rightValue);
-			}
-			public Boolean caseUnequal() {
-				return !leftValue.equals(rightValue);
-			}
-		}));
+		NumberEvaluator numbers = numbers();
+		Value leftValue = left.matchExpression(numbers);
+		double leftNumber = numbers.number;
+		Value rightValue = right.matchExpression(numbers);
+		double rightNumber = numbers.number;
+		boolean equal;
+		if (leftValue == null) {
+			equal = (rightValue == null) ? Double.compare(leftNumber, rightNumber) == 0 : numberEquals(leftNumber, rightValue);
+		} else {
+			equal = (rightValue == null) ? numberEquals(rightNumber, leftValue) : leftValue.equals(rightValue);
+		}
+		switch (op) {
+		case EQUAL:
+			return Value.makeBoolean(equal);
+		case UNEQUAL:
+			return Value.makeBoolean(!equal);
+		default:
+			throw new AssertionError(op);
+		}
 	}
 
 	public Value caseRelationalOperation(RelationalOperator op,
 			Expression left, Expression right) {
-		Value leftValue = left.matchExpression(this);
-		Value rightValue = right.matchExpression(this);
-		final double leftNumber = castToNumber(leftValue);
-		final double rightNumber = castToNumber(rightValue);
-		return Value.makeBoolean(op.matchRelationalOperator(new RelationalOperator.Matcher<Boolean>() {
-			public Boolean caseGreater() {
-				return leftNumber > rightNumber;
-			}
-			public Boolean caseLess() {
-				return leftNumber < rightNumber;
-			}
-			public Boolean caseGreaterEqual() {
-				return leftNumber >= rightNumber;
-			}
-			public Boolean caseLessEqual() {
-				return leftNumber <= rightNumber;
-			}
-		}));
+		NumberEvaluator numbers = numbers();
+		numbers.evalOperands(left, right);
+		double leftNumber = numbers.leftNumber;
+		double rightNumber = numbers.rightNumber;
+		switch (op) {
+		case GREATER:
+			return Value.makeBoolean(leftNumber > rightNumber);
+		case LESS:
+			return Value.makeBoolean(leftNumber < rightNumber);
+		case GREATER_EQUAL:
+			return Value.makeBoolean(leftNumber >= rightNumber);
+		case LESS_EQUAL:
+			return Value.makeBoolean(leftNumber <= rightNumber);
+		default:
+			throw new AssertionError(op);
+		}
 	}
 
 	public Value caseFunctionApplication(Expression function,
-			List<Expression> parameters) {
-		Value evaledFunction = function.matchExpression(this);
-		Function fn = castToFunction(evaledFunction);
-		List<Value> evaledParams = new ArrayList<Value>();
-		for (Expression expr : parameters) {
-			evaledParams.add(expr.matchExpression(this));
+			List<Expression> parameters, CallSite site) {
+		Function fn = castToFunction(function.matchExpression(this));
+		CallSiteCache cache = (CallSiteCache) site.getCache();
+		if (cache == null || !cache.hit(fn)) {
+			cache = CallSiteCache.update(site, fn);
+		}
+		int n = parameters.size();
+		if (n > 3) {
+			List<Value> evaledParams = new ArrayList<Value>(n);
+			for (Expression expr : parameters) {
+				evaledParams.add(expr.matchExpression(this));
+			}
+			if (cache.inlineExpr != null) {
+				return inline(((CompoundFunction) fn).newActivation(evaledParams), cache.inlineExpr);
+			}
+			return fn.apply(evaledParams);
+		}
+		Value v0 = (n > 0) ? parameters.get(0).matchExpression(this) : null;
+		Value v1 = (n > 1) ? parameters.get(1).matchExpression(this) : null;
+		Value v2 = (n > 2) ? parameters.get(2).matchExpression(this) : null;
+		if (cache.inlineExpr != null) {
+			return inline(((CompoundFunction) fn).newActivation(n, v0, v1, v2), cache.inlineExpr);
+		}
+		// Separate calls, so that the JVM sees two less polymorphic sites.
+		if (fn instanceof CompoundFunction) {
+			return applyCompound((CompoundFunction) fn, n, v0, v1, v2);
+		}
+		return apply(fn, n, v0, v1, v2);
+	}
+	
+	private static Value applyCompound(CompoundFunction fn, int n, Value v0, Value v1, Value v2) {
+		switch (n) {
+		case 0:
+			return fn.apply0();
+		case 1:
+			return fn.apply1(v0);
+		case 2:
+			return fn.apply2(v0, v1);
+		default:
+			return fn.apply3(v0, v1, v2);
+		}
+	}
+	
+	private static Value apply(Function fn, int n, Value v0, Value v1, Value v2) {
+		switch (n) {
+		case 0:
+			return fn.apply0();
+		case 1:
+			return fn.apply1(v0);
+		case 2:
+			return fn.apply2(v0, v1);
+		default:
+			return fn.apply3(v0, v1, v2);
+		}
+	}
+	
+	/**
+	 * Evaluates the expression that a function returns in an activation of
+	 * it, without setting up a call.
+	 */
+	private Value inline(Store activation, Expression expr) {
+		Store saved = sto;
+		sto = activation;
+		try {
+			return expr.matchExpression(this);
+		} finally {
+			sto = saved;
 		}
-		return fn.apply(evaledParams);
 	}
 
 	public Value caseFunctionAbstraction(ValueLocation self,
-			List<ValueLocation> parameters, List<Statement> body) {
-		return Value.makeFunction(new CompoundFunction(self, parameters, body, sto));
+			List<ValueLocation> parameters, List<Statement> body, Frame frame) {
+		return Value.makeFunction(new CompoundFunction(self, parameters, body, frame, sto));
 	}
 
-	public ControlAction caseThrowawayExpression(Expression expr) {
+	public Completion caseThrowawayExpression(Expression expr) {
 		expr.matchExpression(this);
-		return ControlAction.makeNext();
+		return Completion.NORMAL;
 	}
 
-	public ControlAction caseValueDefinition(ValueLocation val, Expression expr) {
+	public Completion caseValueDefinition(ValueLocation val, Expression expr) {
 		Value result = expr.matchExpression(this);
 		sto.defineValue(val, result);
-		return ControlAction.makeNext();
+		return Completion.NORMAL;
 	}
 
-	public ControlAction caseVariableAssignment(VariableLocation var, Expression expr) {
-		Value result = expr.matchExpression(this);
-		sto.assignVariable(var, result);
-		return ControlAction.makeNext();
+	public Completion caseVariableAssignment(VariableLocation var, Expression expr) {
+		NumberEvaluator numbers = numbers();
+		Value result = expr.matchExpression(numbers);
+		if (result == null) {
+			sto.assignVariableNumber(var, numbers.number);
+		} else {
+			sto.assignVariable(var, result);
+		}
+		return Completion.NORMAL;
 	}
 
-	public ControlAction caseConditional(Expression cond, List<Statement> thenStmts,
+	public Completion caseConditional(Expression cond, List<Statement> thenStmts,
 			List<Statement> elseStmts) {
 		if (isTruthy(cond.matchExpression(this))) {
 			return executeStatements(thenStmts);
@@ -311,23 +666,33 @@ public class Interpreter implements Expression.Matcher<Value>, Statement.Matcher
 		}
 	}
 
-	public ControlAction caseLoop(LoopLabel thisLoop, List<Statement> body) {
+	public Completion caseLoop(LoopLabel thisLoop, List<Statement> body) {
 		while (true) {
-			ControlAction action = executeStatements(body);
-			LoopLabel thatLoop = getLoopLabel(action);
-			if (thatLoop != null && thatLoop.equals(thisLoop)) {
-				return ControlAction.makeNext();
-			} else if (shouldExit(action)) {
-				return action;
+			Completion completion = executeStatements(body);
+			if (completion == Completion.BREAK && breakLoop == thisLoop) {
+				breakLoop = null;
+				return Completion.NORMAL;
+			} else if (completion != Completion.NORMAL) {
+				return completion;
 			}
 		}
 	}
 
-	public ControlAction caseBreak(LoopLabel loop) {
-		return ControlAction.makeBreak(loop);
+	public Completion caseBreak(LoopLabel loop) {
+		breakLoop = loop;
+		return Completion.BREAK;
 	}
 
-	public ControlAction caseReturn(Expression expr) {
-		return ControlAction.makeReturn(expr.matchExpression(this));
+	public Completion caseReturn(Expression expr) {
+		if (function != null && function.self != null) {
+			if (tailCalls == null) {
+				tailCalls = new TailCalls();
+			}
+			if (expr.matchExpression(tailCalls)) {
+				return Completion.TAIL_CALL;
+			}
+		}
+		returnValue = expr.matchExpression(this);
+		return Completion.RETURN;
 	}
 }
@@ -0,0 +1,73 @@
+package se.raek.ahsa.interpreter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+
+/**
+ * Number values for the hot paths of the interpreter: reading them without
+ * a Matcher, and interning small integers so that counters and indices do
+ * not allocate.
+ *
+ * Value is generated from adt/Value.adt, so these live here rather than in
+ * it. The number is read from the generated Number class through a method
+ * handle, which relies only on the names in the ADT definition.
+ */
+public final class NumberValues {
+
+	private NumberValues() {
+	}
+
+	private static final Class<?> NUMBER = Value.makeNumber(0.5).getClass();
+
+	private static final MethodHandle GET_N;
+
+	static {
+		try {
+			GET_N = MethodHandles.privateLookupIn(NUMBER, MethodHandles.lookup())
+					.findGetter(NUMBER, "n", double.class)
+					.asType(MethodType.methodType(double.class, Value.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	// Negative zero is not interned, since it is a different Number.
+	private static final int SMALL_MIN = -1024;
+	private static final int SMALL_MAX = 1023;
+	private static final Value[] small = new Value[SMALL_MAX - SMALL_MIN + 1];
+
+	static {
+		for (int i = SMALL_MIN; i <= SMALL_MAX; i++) {
+			small[i - SMALL_MIN] = Value.makeNumber(i);
+		}
+	}
+
+	public static boolean isNumber(Value v) {
+		return v.getClass() == NUMBER;
+	}
+
+	public static double getNumber(Value v) {
+		if (v.getClass() != NUMBER) throw new IllegalStateException("not a number: " + v);
+		try {
+			return (double) GET_N.invokeExact(v);
+		} catch (Throwable e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Returns a Number equal to Value.makeNumber(n), which is shared if n
+	 * is a small integer.
+	 */
+	public static Value make(double n) {
+		int i = (int) n;
+		if (i == n && i >= SMALL_MIN && i <= SMALL_MAX
+				&& (i != 0 || Double.doubleToRawLongBits(n) == 0L)) {
+			return small[i - SMALL_MIN];
+		}
+		return Value.makeNumber(n);
+	}
+
+}
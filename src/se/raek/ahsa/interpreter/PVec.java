@@ -0,0 +1,325 @@
+package se.raek.ahsa.interpreter;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * An immutable sequence of values. Updating one returns a new version that
+ * shares all but O(log32 n) of its nodes with the old one.
+ *
+ * The elements are kept in a trie of 32-way nodes, with the last up to 32
+ * elements in a separate tail array, as in Clojure's PersistentVector. Most
+ * conj calls then only copy the tail.
+ *
+ * A Transient builds a new version by updating its nodes in place, for
+ * when many updates are made in a row and the versions in between are not
+ * needed.
+ */
+public final class PVec {
+
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+
+	/**
+	 * Marks the nodes that a Transient has created and may update in place.
+	 */
+	private static final class Edit {
+		boolean done = false;
+	}
+
+	private static final class Node {
+
+		final Edit edit;
+		final Object[] array;
+
+		Node(Edit edit, Object[] array) {
+			this.edit = edit;
+			this.array = array;
+		}
+
+		Node(Edit edit) {
+			this(edit, new Object[WIDTH]);
+		}
+
+	}
+
+	private static final Node EMPTY_NODE = new Node(null);
+	private static final Object[] EMPTY_TAIL = new Object[0];
+
+	public final int id;
+	/** The mode that new versions are created for. */
+	private final ExecutionMode mode;
+	private final int count;
+	private final int shift;
+	private final Node root;
+	private final Object[] tail;
+
+	private static AtomicInteger nextId = new AtomicInteger(0);
+
+	public PVec() {
+		this(ExecutionMode.CONCURRENT);
+	}
+
+	public PVec(ExecutionMode mode) {
+		this(mode, 0, BITS, EMPTY_NODE, EMPTY_TAIL);
+	}
+
+	private PVec(ExecutionMode mode, int count, int shift, Node root, Object[] tail) {
+		id = mode.nextId(nextId);
+		this.mode = mode;
+		this.count = count;
+		this.shift = shift;
+		this.root = root;
+		this.tail = tail;
+	}
+
+	public int getLength() {
+		return count;
+	}
+
+	public Value get(int i) {
+		ArrayStorage.checkIndex(i, count);
+		return (Value) arrayFor(count, shift, root, tail, i)[i & MASK];
+	}
+
+	/**
+	 * Returns a version with element i set to v.
+	 */
+	public PVec assoc(int i, Value v) {
+		ArrayStorage.checkIndex(i, count);
+		if (i >= tailOffset(count)) {
+			Object[] newTail = tail.clone();
+			newTail[i & MASK] = v;
+			return new PVec(mode, count, shift, root, newTail);
+		}
+		return new PVec(mode, count, shift, assoc(null, shift, root, i, v), tail);
+	}
+
+	/**
+	 * Returns a version with v added at the end.
+	 */
+	public PVec conj(Value v) {
+		if (count - tailOffset(count) < WIDTH) {
+			Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+			newTail[tail.length] = v;
+			return new PVec(mode, count + 1, shift, root, newTail);
+		}
+		Node tailNode = new Node(null, tail);
+		int newShift = shift;
+		Node newRoot;
+		if ((count >>> BITS) > (1 << shift)) {
+			newRoot = new Node(null);
+			newRoot.array[0] = root;
+			newRoot.array[1] = newPath(null, shift, tailNode);
+			newShift += BITS;
+		} else {
+			newRoot = pushTail(null, count, shift, root, tailNode);
+		}
+		return new PVec(mode, count + 1, newShift, newRoot, new Object[] { v });
+	}
+
+	/**
+	 * Returns a version without the last element.
+	 */
+	public PVec pop() {
+		ArrayStorage.checkIndex(count - 1, count);
+		if (count == 1) {
+			return new PVec(mode);
+		}
+		if (count - tailOffset(count) > 1) {
+			return new PVec(mode, count - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+		}
+		Object[] newTail = arrayFor(count, shift, root, tail, count - 2);
+		Node newRoot = popTail(count, shift, root);
+		int newShift = shift;
+		if (newRoot == null) {
+			newRoot = EMPTY_NODE;
+		}
+		if (shift > BITS && newRoot.array[1] == null) {
+			newRoot = (Node) newRoot.array[0];
+			newShift -= BITS;
+		}
+		return new PVec(mode, count - 1, newShift, newRoot, newTail);
+	}
+
+	public Transient asTransient() {
+		return new Transient(this);
+	}
+
+	/**
+	 * A PVec under construction, updated in place. Once persistent has
+	 * been called it can no longer be used. It is not safe for use by
+	 * several threads at once.
+	 */
+	public static final class Transient {
+
+		private final Edit edit = new Edit();
+		private final ExecutionMode mode;
+		private int count;
+		private int shift;
+		private Node root;
+		private Object[] tail;
+
+		private Transient(PVec v) {
+			mode = v.mode;
+			count = v.count;
+			shift = v.shift;
+			root = new Node(edit, v.root.array.clone());
+			tail = Arrays.copyOf(v.tail, WIDTH);
+		}
+
+		public int getLength() {
+			ensureEditable();
+			return count;
+		}
+
+		public Value get(int i) {
+			ensureEditable();
+			ArrayStorage.checkIndex(i, count);
+			return (Value) arrayFor(count, shift, root, tail, i)[i & MASK];
+		}
+
+		public Transient assoc(int i, Value v) {
+			ensureEditable();
+			ArrayStorage.checkIndex(i, count);
+			if (i >= tailOffset(count)) {
+				tail[i & MASK] = v;
+			} else {
+				root = PVec.assoc(edit, shift, root, i, v);
+			}
+			return this;
+		}
+
+		public Transient conj(Value v) {
+			ensureEditable();
+			if (count - tailOffset(count) < WIDTH) {
+				tail[count & MASK] = v;
+				count++;
+				return this;
+			}
+			Node tailNode = new Node(edit, tail);
+			tail = new Object[WIDTH];
+			tail[0] = v;
+			if ((count >>> BITS) > (1 << shift)) {
+				Node newRoot = new Node(edit);
+				newRoot.array[0] = root;
+				newRoot.array[1] = newPath(edit, shift, tailNode);
+				root = newRoot;
+				shift += BITS;
+			} else {
+				root = pushTail(edit, count, shift, root, tailNode);
+			}
+			count++;
+			return this;
+		}
+
+		/**
+		 * Returns the PVec built so far, and ends the use of this transient.
+		 */
+		public PVec persistent() {
+			ensureEditable();
+			edit.done = true;
+			return new PVec(mode, count, shift, root, Arrays.copyOf(tail, count - tailOffset(count)));
+		}
+
+		private void ensureEditable() {
+			if (edit.done) throw new IllegalStateException("transient used after persistent");
+		}
+
+	}
+
+	private static int tailOffset(int count) {
+		if (count < WIDTH) {
+			return 0;
+		}
+		return ((count - 1) >>> BITS) << BITS;
+	}
+
+	private static Object[] arrayFor(int count, int shift, Node root, Object[] tail, int i) {
+		if (i >= tailOffset(count)) {
+			return tail;
+		}
+		Node node = root;
+		for (int level = shift; level > 0; level -= BITS) {
+			node = (Node) node.array[(i >>> level) & MASK];
+		}
+		return node.array;
+	}
+
+	/**
+	 * Returns node itself if it belongs to edit, and otherwise a copy that
+	 * does. Without an edit, nodes are always copied.
+	 */
+	private static Node editable(Edit edit, Node node) {
+		if (edit != null && node.edit == edit) {
+			return node;
+		}
+		return new Node(edit, node.array.clone());
+	}
+
+	private static Node newPath(Edit edit, int level, Node node) {
+		if (level == 0) {
+			return node;
+		}
+		Node path = new Node(edit);
+		path.array[0] = newPath(edit, level - BITS, node);
+		return path;
+	}
+
+	private static Node pushTail(Edit edit, int count, int level, Node parent, Node tailNode) {
+		int i = ((count - 1) >>> level) & MASK;
+		Node result = editable(edit, parent);
+		Node insert;
+		if (level == BITS) {
+			insert = tailNode;
+		} else {
+			Node child = (Node) parent.array[i];
+			insert = (child != null)
+					? pushTail(edit, count, level - BITS, child, tailNode)
+					: newPath(edit, level - BITS, tailNode);
+		}
+		result.array[i] = insert;
+		return result;
+	}
+
+	private static Node assoc(Edit edit, int level, Node node, int i, Value v) {
+		Node result = editable(edit, node);
+		if (level == 0) {
+			result.array[i & MASK] = v;
+		} else {
+			int sub = (i >>> level) & MASK;
+			result.array[sub] = assoc(edit, level - BITS, (Node) node.array[sub], i, v);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a copy of node without the leaf holding element count - 2 and
+	 * onwards, or null if nothing would be left.
+	 */
+	private static Node popTail(int count, int level, Node node) {
+		int i = ((count - 2) >>> level) & MASK;
+		if (level > BITS) {
+			Node child = popTail(count, level - BITS, (Node) node.array[i]);
+			if (child == null && i == 0) {
+				return null;
+			}
+			Node result = editable(null, node);
+			result.array[i] = child;
+			return result;
+		} else if (i == 0) {
+			return null;
+		}
+		Node result = editable(null, node);
+		result.array[i] = null;
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "pvec" + id;
+	}
+
+}
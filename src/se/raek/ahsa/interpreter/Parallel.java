@@ -0,0 +1,185 @@
+package se.raek.ahsa.interpreter;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Calls functions on ranges of indices in parallel, in the common
+ * ForkJoinPool. A range is split in halves until it has at most threshold
+ * indices, and each such range is run as one task. The threshold is read
+ * from the system property ahsa.parallel.threshold; it should be larger
+ * the cheaper each call is.
+ *
+ * The functions are called concurrently, from several threads, so the
+ * stores they close over are shared as for a Task. Arrays, vecs and maps
+ * are not synchronized, so functions that update a shared one must see to
+ * that themselves.
+ */
+public final class Parallel {
+
+	public static final int DEFAULT_THRESHOLD = 256;
+
+	private static volatile int threshold = Math.max(1, Integer.getInteger("ahsa.parallel.threshold", DEFAULT_THRESHOLD));
+
+	private Parallel() {
+	}
+
+	public static int getThreshold() {
+		return threshold;
+	}
+
+	public static void setThreshold(int threshold) {
+		if (threshold < 1) throw new IllegalArgumentException("threshold must be positive: " + threshold);
+		Parallel.threshold = threshold;
+	}
+
+	/**
+	 * Returns a new array with fn applied to each element of array, for
+	 * the same mode as array.
+	 */
+	public static Array map(Array array, Function fn) {
+		fn.share();
+		int n = array.getLength();
+		Value[] elements = new Value[n];
+		for (int i = 0; i < n; i++) {
+			elements[i] = array.subscript(i);
+		}
+		Value[] results = new Value[n];
+		ForkJoinPool.commonPool().invoke(new Map(elements, results, fn, 0, n, threshold));
+		Array result = new Array(n, array.getMode());
+		for (int i = 0; i < n; i++) {
+			result.assignSubscript(i, results[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * Combines the elements of array with fn, starting from init. Each
+	 * task starts from init and the results of the tasks are combined with
+	 * fn, so fn must be associative and init an identity of it.
+	 */
+	public static Value reduce(Array array, Value init, Function fn) {
+		fn.share();
+		int n = array.getLength();
+		Value[] elements = new Value[n];
+		for (int i = 0; i < n; i++) {
+			elements[i] = array.subscript(i);
+		}
+		return ForkJoinPool.commonPool().invoke(new Reduce(elements, init, fn, 0, n, threshold));
+	}
+
+	/**
+	 * Calls fn with each index from 0 up to n.
+	 */
+	public static void forEach(int n, Function fn) {
+		if (n < 0) throw new IllegalArgumentException("negative count: " + n);
+		fn.share();
+		ForkJoinPool.commonPool().invoke(new For(fn, 0, n, threshold));
+	}
+
+	private static final class Map extends RecursiveAction {
+
+		private static final long serialVersionUID = 3619460214857193417L;
+
+		private final Value[] elements;
+		private final Value[] results;
+		private final Function fn;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		Map(Value[] elements, Value[] results, Function fn, int from, int to, int threshold) {
+			this.elements = elements;
+			this.results = results;
+			this.fn = fn;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= threshold) {
+				for (int i = from; i < to; i++) {
+					results[i] = fn.apply1(elements[i]);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Map(elements, results, fn, from, mid, threshold),
+					new Map(elements, results, fn, mid, to, threshold));
+		}
+
+	}
+
+	private static final class Reduce extends RecursiveTask<Value> {
+
+		private static final long serialVersionUID = -2470213596731885404L;
+
+		private final Value[] elements;
+		private final Value init;
+		private final Function fn;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		Reduce(Value[] elements, Value init, Function fn, int from, int to, int threshold) {
+			this.elements = elements;
+			this.init = init;
+			this.fn = fn;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected Value compute() {
+			if (to - from <= threshold) {
+				Value acc = init;
+				for (int i = from; i < to; i++) {
+					acc = fn.apply2(acc, elements[i]);
+				}
+				return acc;
+			}
+			int mid = (from + to) >>> 1;
+			Reduce left = new Reduce(elements, init, fn, from, mid, threshold);
+			left.fork();
+			Value right = new Reduce(elements, init, fn, mid, to, threshold).compute();
+			return fn.apply2(left.join(), right);
+		}
+
+	}
+
+	private static final class For extends RecursiveAction {
+
+		private static final long serialVersionUID = 7781958946208235350L;
+
+		private final Function fn;
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		For(Function fn, int from, int to, int threshold) {
+			this.fn = fn;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= threshold) {
+				for (int i = from; i < to; i++) {
+					fn.apply1(NumberValues.make(i));
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new For(fn, from, mid, threshold), new For(fn, mid, to, threshold));
+		}
+
+	}
+
+}
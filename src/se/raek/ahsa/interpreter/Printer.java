@@ -5,8 +5,11 @@ import java.io.StringWriter;
 import java.util.List;
 
 import se.raek.ahsa.ast.ArithmeticOperator;
+import se.raek.ahsa.ast.CallSite;
+import se.raek.ahsa.ast.ConstantCache;
 import se.raek.ahsa.ast.EqualityOperator;
 import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.Frame;
 import se.raek.ahsa.ast.Literal;
 import se.raek.ahsa.ast.LoopLabel;
 import se.raek.ahsa.ast.RelationalOperator;
@@ -114,7 +117,37 @@ public class Printer implements Literal.Matcher<Void>, Value.Matcher<Void>, Expr
 		return null;
 	}
 
-	public Void caseConstant(Literal l) {
+	public Void caseVec(Vec vec) {
+		writer.printf("#<vec%d>", vec.id);
+		return null;
+	}
+
+	public Void caseTable(Table table) {
+		writer.printf("#<map%d>", table.id);
+		return null;
+	}
+
+	public Void casePVec(PVec pvec) {
+		writer.printf("#<pvec%d>", pvec.id);
+		return null;
+	}
+
+	public Void caseTask(Task task) {
+		writer.printf("#<task%d>", task.id);
+		return null;
+	}
+
+	public Void caseChannel(Channel channel) {
+		writer.printf("#<chan%d>", channel.id);
+		return null;
+	}
+
+	public Void caseCounter(Counter counter) {
+		writer.printf("#<counter%d>", counter.id);
+		return null;
+	}
+
+	public Void caseConstant(Literal l, ConstantCache cache) {
 		l.matchLiteral(this);
 		return null;
 	}
@@ -201,13 +234,13 @@ public class Printer implements Literal.Matcher<Void>, Value.Matcher<Void>, Expr
 		return null;
 	}
 
-	public Void caseFunctionApplication(Expression function, List<Expression> parameters) {
+	public Void caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
 		writer.print("#<function application>");
 		return null;
 	}
 
 	public Void caseFunctionAbstraction(ValueLocation self,
-			List<ValueLocation> parameters, List<Statement> body) {
+			List<ValueLocation> parameters, List<Statement> body, Frame frame) {
 		writer.print("#<function abstraction>");
 		return null;
 	}
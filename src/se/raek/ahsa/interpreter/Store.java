@@ -1,32 +1,94 @@
 package se.raek.ahsa.interpreter;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 
+import se.raek.ahsa.ast.Frame;
 import se.raek.ahsa.ast.ValueLocation;
 import se.raek.ahsa.ast.VariableLocation;
 
 public final class Store {
 	
-	private final Map<ValueLocation, Value> vals;
-	private final Map<VariableLocation, Value> vars;
+	private static final Value[] NO_SLOTS = new Value[0];
+	private static final double[] NO_NUMBERS = new double[0];
+	
+	/**
+	 * Marks a variable slot whose number is kept unboxed in numbers.
+	 */
+	private static final Value UNBOXED = Value.makeFunction(new AbstractFunctions.FunctionN() {
+		public Value apply(List<Value> parameters) {
+			throw new AssertionError("unboxed number marker applied");
+		}
+	});
+	
+	private final Frame frame;
 	private final Store parent;
+	private final int level;
+	private Value[] vals;
+	private Value[] vars;
+	private double[] numbers = NO_NUMBERS;
+	/** The thread that created the store, or null if it is never shared. */
+	private final Thread creator;
+	/*
+	 * Only set by share, before the store is handed to other threads, so
+	 * they see it without it being volatile; the creator may see it late,
+	 * but may write the store anyway.
+	 */
+	private boolean shared = false;
 	
 	public Store() {
-		this.vals = new HashMap<ValueLocation, Value>();
-		this.vars = new HashMap<VariableLocation, Value>();
-		this.parent = null;
+		this(ExecutionMode.CONCURRENT);
+	}
+	
+	/**
+	 * Creates a top-level store for mode. The stores of a single threaded
+	 * mode are never shared, so they do not keep track of their creator.
+	 */
+	public Store(ExecutionMode mode) {
+		this(null, new Frame(), mode.isConcurrent());
 	}
 	
 	public Store(Store parent) {
-		this.vals = new HashMap<ValueLocation, Value>();
-		this.vars = new HashMap<VariableLocation, Value>();
+		this(parent, new Frame());
+	}
+	
+	/**
+	 * Creates a store with one slot for each value and variable of the
+	 * frame. Every location defined in the store must have been resolved
+	 * in the frame first, see Resolver; slots the frame gains after the
+	 * store is created are added when they are first defined. The store
+	 * is for the same mode as its parent, or for the concurrent one if it
+	 * has none.
+	 */
+	public Store(Store parent, Frame frame) {
+		this(parent, frame, parent == null || parent.creator != null);
+	}
+	
+	private Store(Store parent, Frame frame, boolean concurrent) {
+		if (frame == null) throw new NullPointerException();
+		this.frame = frame;
 		this.parent = parent;
+		this.level = (parent == null) ? 0 : parent.level + 1;
+		this.vals = makeSlots(frame.getValueCount());
+		this.vars = makeSlots(frame.getVariableCount());
+		this.creator = concurrent ? Thread.currentThread() : null;
+	}
+	
+	private static Value[] makeSlots(int n) {
+		return (n == 0) ? NO_SLOTS : new Value[n];
+	}
+	
+	public Frame getFrame() {
+		return frame;
+	}
+	
+	public int getLevel() {
+		return level;
 	}
 	
 	@Override
 	public String toString() {
-		return "Store(" + vals + ", " + vars + ", " + parent + ")";
+		return "Store(" + Arrays.toString(vals) + ", " + Arrays.toString(vars) + ", " + parent + ")";
 	}
 	
 	public static class ValueNotFoundException extends RuntimeException {
@@ -49,6 +111,17 @@ public final class Store {
 		
 	}
 	
+	public static class SharedStoreWriteException extends RuntimeException {
+		
+		private static final long serialVersionUID = 6410318265950137102L;
+
+		public SharedStoreWriteException(Thread creator) {
+			super("store shared with other threads written from " + Thread.currentThread().getName()
+					+ ", only " + creator.getName() + " may write it");
+		}
+		
+	}
+	
 	public static class VariableNotFoundException extends RuntimeException {
 		
 		private static final long serialVersionUID = -5315071488234846789L;
@@ -59,40 +132,118 @@ public final class Store {
 		
 	}
 	
+	/**
+	 * Marks this store and its ancestors as read by other threads, so that
+	 * from then on only the thread that created each of them may write it.
+	 * Functions running in other threads can then only read values, which
+	 * never change once defined, while writes to the variables and the
+	 * new values of a store stay with the thread executing its code.
+	 * Stores of a single threaded mode cannot be shared.
+	 */
+	public void share() {
+		for (Store sto = this; sto != null && !sto.shared; sto = sto.parent) {
+			if (sto.creator == null) {
+				throw new IllegalStateException("store of a single threaded mode shared");
+			}
+			sto.shared = true;
+		}
+	}
+	
+	private void checkWriter() {
+		if (Thread.currentThread() != creator) {
+			throw new SharedStoreWriteException(creator);
+		}
+	}
+	
 	public Value lookupValue(ValueLocation val) {
 		if (val == null) throw new NullPointerException();
+		if (!val.isResolved()) throw new ValueNotFoundException(val);
 		Store sto = this;
-		while (sto != null) {
-			if (sto.vals.containsKey(val)) {
-				return sto.vals.get(val);
-			} else {
-				sto = sto.parent;
-			}
+		for (int hops = level - val.getLevel(); hops > 0 && sto != null; hops--) {
+			sto = sto.parent;
+		}
+		int i = val.getIndex();
+		if (sto == null || sto.level != val.getLevel() || i >= sto.vals.length || sto.vals[i] == null) {
+			throw new ValueNotFoundException(val);
 		}
-		throw new ValueNotFoundException(val);
+		return sto.vals[i];
 	}
 	
 	public void defineValue(ValueLocation val, Value v) {
 		if (val == null || v == null) throw new NullPointerException();
-		if (vals.containsKey(val)) {
+		if (shared) checkWriter();
+		if (val.getLevel() != level) {
+			if (!val.isResolved()) throw new IllegalStateException("value not resolved: " + val);
+			throw new IllegalStateException("value " + val + " resolved for level " + val.getLevel() + ", defined at level " + level);
+		}
+		int i = val.getIndex();
+		if (i >= vals.length) {
+			vals = Arrays.copyOf(vals, Math.max(i + 1, frame.getValueCount()));
+		}
+		if (vals[i] != null) {
 			throw new ValueAlreadyDefinedException(val);
-		} else {
-			vals.put(val, v);
 		}
+		vals[i] = v;
 	}
 	
 	public Value lookupVariable(VariableLocation var) {
 		if (var == null) throw new NullPointerException();
-		if (vars.containsKey(var)) {
-			return vars.get(var);
-		} else {
+		int i = var.getIndex();
+		if (i < 0 || i >= vars.length || vars[i] == null) {
 			throw new VariableNotFoundException(var);
 		}
+		if (vars[i] == UNBOXED) {
+			// May race with readers in other threads, which then still see
+			// the number in numbers.
+			vars[i] = NumberValues.make(numbers[i]);
+		}
+		return vars[i];
+	}
+	
+	/**
+	 * Whether the variable holds a number that is kept unboxed, so that
+	 * lookupVariableNumber can read it without allocating a Value.
+	 */
+	public boolean holdsNumber(VariableLocation var) {
+		int i = var.getIndex();
+		return i >= 0 && i < vars.length && vars[i] == UNBOXED;
+	}
+	
+	public double lookupVariableNumber(VariableLocation var) {
+		if (!holdsNumber(var)) {
+			return Interpreter.castToNumber(lookupVariable(var));
+		}
+		return numbers[var.getIndex()];
 	}
 	
 	public void assignVariable(VariableLocation var, Value v) {
 		if (var == null || v == null) throw new NullPointerException();
-		vars.put(var, v);
+		if (shared) checkWriter();
+		int i = var.getIndex();
+		if (i < 0) throw new IllegalStateException("variable not resolved: " + var);
+		if (i >= vars.length) {
+			vars = Arrays.copyOf(vars, Math.max(i + 1, frame.getVariableCount()));
+		}
+		vars[i] = v;
+	}
+	
+	/**
+	 * Assigns a number to a variable without boxing it. The Value is only
+	 * created if the variable is later looked up with lookupVariable.
+	 */
+	public void assignVariableNumber(VariableLocation var, double n) {
+		if (var == null) throw new NullPointerException();
+		if (shared) checkWriter();
+		int i = var.getIndex();
+		if (i < 0) throw new IllegalStateException("variable not resolved: " + var);
+		if (i >= vars.length) {
+			vars = Arrays.copyOf(vars, Math.max(i + 1, frame.getVariableCount()));
+		}
+		if (i >= numbers.length) {
+			numbers = Arrays.copyOf(numbers, vars.length);
+		}
+		vars[i] = UNBOXED;
+		numbers[i] = n;
 	}
 
 }
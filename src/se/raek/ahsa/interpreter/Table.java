@@ -0,0 +1,259 @@
+package se.raek.ahsa.interpreter;
+
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A hash map from values to values, with the key semantics of
+ * Value.equals and Value.hashCode.
+ *
+ * Entries live in two open-addressing tables with linear probing: one for
+ * number keys, which are stored as the bits of the double so that they
+ * need no Value, and one for all other keys. A slot is free when its value
+ * is null. Removal shifts the following entries back instead of leaving
+ * tombstones, so lookups never get slower from removals.
+ */
+public final class Table {
+
+	private static final int MIN_CAPACITY = 8;
+
+	public final int id;
+
+	// Number keys, as Double.doubleToLongBits, which equates exactly the
+	// numbers that Value.equals does.
+	private long[] numberKeys = new long[MIN_CAPACITY];
+	private Value[] numberValues = new Value[MIN_CAPACITY];
+	private int numberCount = 0;
+
+	private Value[] keys = new Value[MIN_CAPACITY];
+	private Value[] values = new Value[MIN_CAPACITY];
+	private int count = 0;
+
+	private int modifications = 0;
+
+	private static AtomicInteger nextId = new AtomicInteger(0);
+
+	public Table() {
+		this(ExecutionMode.CONCURRENT);
+	}
+
+	public Table(ExecutionMode mode) {
+		id = mode.nextId(nextId);
+	}
+
+	public int size() {
+		return numberCount + count;
+	}
+
+	/**
+	 * Returns the value for key, or null if there is none.
+	 */
+	public Value get(Value key) {
+		if (NumberValues.isNumber(key)) {
+			return get(NumberValues.getNumber(key));
+		}
+		int i = find(keys, values, key);
+		return (i < 0) ? null : values[i];
+	}
+
+	public Value get(double key) {
+		int i = find(numberKeys, numberValues, Double.doubleToLongBits(key));
+		return (i < 0) ? null : numberValues[i];
+	}
+
+	public void put(Value key, Value value) {
+		if (value == null) throw new NullPointerException();
+		if (NumberValues.isNumber(key)) {
+			put(NumberValues.getNumber(key), value);
+			return;
+		}
+		int i = find(keys, values, key);
+		if (i >= 0) {
+			values[i] = value;
+			return;
+		}
+		if (2 * (count + 1) > keys.length) {
+			growKeys();
+		}
+		i = ~find(keys, values, key);
+		keys[i] = key;
+		values[i] = value;
+		count++;
+		modifications++;
+	}
+
+	public void put(double key, Value value) {
+		if (value == null) throw new NullPointerException();
+		long bits = Double.doubleToLongBits(key);
+		int i = find(numberKeys, numberValues, bits);
+		if (i >= 0) {
+			numberValues[i] = value;
+			return;
+		}
+		if (2 * (numberCount + 1) > numberKeys.length) {
+			growNumberKeys();
+		}
+		i = ~find(numberKeys, numberValues, bits);
+		numberKeys[i] = bits;
+		numberValues[i] = value;
+		numberCount++;
+		modifications++;
+	}
+
+	/**
+	 * Removes the entry for key, and returns its value or null if there
+	 * was none.
+	 */
+	public Value remove(Value key) {
+		if (NumberValues.isNumber(key)) {
+			return remove(NumberValues.getNumber(key));
+		}
+		int i = find(keys, values, key);
+		if (i < 0) {
+			return null;
+		}
+		Value old = values[i];
+		int mask = keys.length - 1;
+		// Shift back each following entry of the probe sequence that would
+		// not be found past the freed slot.
+		int free = i;
+		for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+			int home = slot(keys[j].hashCode(), mask);
+			if (((j - home) & mask) >= ((j - free) & mask)) {
+				keys[free] = keys[j];
+				values[free] = values[j];
+				free = j;
+			}
+		}
+		keys[free] = null;
+		values[free] = null;
+		count--;
+		modifications++;
+		return old;
+	}
+
+	public Value remove(double key) {
+		int i = find(numberKeys, numberValues, Double.doubleToLongBits(key));
+		if (i < 0) {
+			return null;
+		}
+		Value old = numberValues[i];
+		int mask = numberKeys.length - 1;
+		int free = i;
+		for (int j = (i + 1) & mask; numberValues[j] != null; j = (j + 1) & mask) {
+			int home = slot(hash(numberKeys[j]), mask);
+			if (((j - home) & mask) >= ((j - free) & mask)) {
+				numberKeys[free] = numberKeys[j];
+				numberValues[free] = numberValues[j];
+				free = j;
+			}
+		}
+		numberValues[free] = null;
+		numberCount--;
+		modifications++;
+		return old;
+	}
+
+	/**
+	 * Something that is called with each entry of a Table.
+	 */
+	public interface EntryVisitor {
+		void visit(Value key, Value value);
+	}
+
+	/**
+	 * Calls visitor with each entry, in no particular order. The table must
+	 * not have entries added or removed meanwhile.
+	 */
+	public void forEach(EntryVisitor visitor) {
+		int expected = modifications;
+		for (int i = 0; i < numberKeys.length; i++) {
+			if (numberValues[i] != null) {
+				visitor.visit(NumberValues.make(Double.longBitsToDouble(numberKeys[i])), numberValues[i]);
+				if (modifications != expected) throw new ConcurrentModificationException();
+			}
+		}
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != null) {
+				visitor.visit(keys[i], values[i]);
+				if (modifications != expected) throw new ConcurrentModificationException();
+			}
+		}
+	}
+
+	private static int hash(long bits) {
+		bits ^= bits >>> 33;
+		bits *= 0xff51afd7ed558ccdL;
+		bits ^= bits >>> 33;
+		return (int) bits;
+	}
+
+	private static int slot(int hash, int mask) {
+		// Spreads the bits, since many hash codes differ only in a few.
+		int h = hash * 0x9e3779b9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Returns the slot holding key, or the complement of the free slot
+	 * where it would go.
+	 */
+	private static int find(Value[] keys, Value[] values, Value key) {
+		int mask = keys.length - 1;
+		for (int i = slot(key.hashCode(), mask); ; i = (i + 1) & mask) {
+			if (values[i] == null) {
+				return ~i;
+			}
+			if (keys[i].equals(key)) {
+				return i;
+			}
+		}
+	}
+
+	private static int find(long[] keys, Value[] values, long key) {
+		int mask = keys.length - 1;
+		for (int i = slot(hash(key), mask); ; i = (i + 1) & mask) {
+			if (values[i] == null) {
+				return ~i;
+			}
+			if (keys[i] == key) {
+				return i;
+			}
+		}
+	}
+
+	private void growKeys() {
+		Value[] oldKeys = keys;
+		Value[] oldValues = values;
+		keys = new Value[oldKeys.length * 2];
+		values = new Value[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int j = ~find(keys, values, oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	private void growNumberKeys() {
+		long[] oldKeys = numberKeys;
+		Value[] oldValues = numberValues;
+		numberKeys = new long[oldKeys.length * 2];
+		numberValues = new Value[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int j = ~find(numberKeys, numberValues, oldKeys[i]);
+				numberKeys[j] = oldKeys[i];
+				numberValues[j] = oldValues[i];
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "map" + id;
+	}
+
+}
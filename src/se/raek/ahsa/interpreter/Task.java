@@ -0,0 +1,118 @@
+package se.raek.ahsa.interpreter;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A function call running in a thread of its own. Tasks run on virtual
+ * threads when the JDK has them (Java 21 and later), so that there can be
+ * many thousands of them, and otherwise on a pool of daemon threads.
+ *
+ * The function may read the values of the stores it closes over, but a
+ * store that has been shared with a task may only be written by the thread
+ * that created it; see Store.share.
+ */
+public final class Task {
+
+	private static final ExecutorService executor = newExecutor();
+
+	public final int id;
+	private final Future<Value> future;
+
+	private static AtomicInteger nextId = new AtomicInteger(0);
+
+	private Task(Future<Value> future, ExecutionMode mode) {
+		id = mode.nextId(nextId);
+		this.future = future;
+	}
+
+	public static class JoinInterruptedException extends RuntimeException {
+
+		private static final long serialVersionUID = 2270734518896204963L;
+
+		public JoinInterruptedException(Task task) {
+			super("interrupted while joining " + task);
+		}
+
+	}
+
+	/**
+	 * Starts calling fn with no parameters in a new thread.
+	 */
+	public static Task spawn(Function fn) {
+		return spawn(fn, ExecutionMode.CONCURRENT);
+	}
+
+	/**
+	 * Starts calling fn with no parameters in a new thread, and takes the
+	 * id of the task from mode.
+	 */
+	public static Task spawn(final Function fn, ExecutionMode mode) {
+		fn.share();
+		return new Task(executor.submit(new Callable<Value>() {
+			public Value call() {
+				return fn.apply0();
+			}
+		}), mode);
+	}
+
+	/**
+	 * Waits for the call to finish and returns its value, or throws what
+	 * it threw.
+	 */
+	public Value join() {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JoinInterruptedException(this);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new AssertionError(cause);
+		}
+	}
+
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	private static ExecutorService newExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (NoSuchMethodException e) {
+			// Before Java 21
+		} catch (IllegalAccessException e) {
+			// Falls back to platform threads
+		} catch (InvocationTargetException e) {
+			// Falls back to platform threads
+		}
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		return Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ahsa-task-" + threadCount.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	@Override
+	public String toString() {
+		return "task" + id;
+	}
+
+}
@@ -16,6 +16,12 @@ public abstract class Value {
 		T caseId(se.raek.ahsa.interpreter.Id id);
 		T caseBox(se.raek.ahsa.interpreter.Box box);
 		T caseArray(se.raek.ahsa.interpreter.Array array);
+		T caseVec(se.raek.ahsa.interpreter.Vec vec);
+		T caseTable(se.raek.ahsa.interpreter.Table table);
+		T casePVec(se.raek.ahsa.interpreter.PVec pvec);
+		T caseTask(se.raek.ahsa.interpreter.Task task);
+		T caseChannel(se.raek.ahsa.interpreter.Channel channel);
+		T caseCounter(se.raek.ahsa.interpreter.Counter counter);
 	}
 
 	public static abstract class AbstractMatcher<T> implements Matcher<T> {
@@ -50,6 +56,30 @@ public abstract class Value {
 			return otherwise();
 		}
 
+		public T caseVec(se.raek.ahsa.interpreter.Vec vec) {
+			return otherwise();
+		}
+
+		public T caseTable(se.raek.ahsa.interpreter.Table table) {
+			return otherwise();
+		}
+
+		public T casePVec(se.raek.ahsa.interpreter.PVec pvec) {
+			return otherwise();
+		}
+
+		public T caseTask(se.raek.ahsa.interpreter.Task task) {
+			return otherwise();
+		}
+
+		public T caseChannel(se.raek.ahsa.interpreter.Channel channel) {
+			return otherwise();
+		}
+
+		public T caseCounter(se.raek.ahsa.interpreter.Counter counter) {
+			return otherwise();
+		}
+
 	}
 
 	private static final Null singletonNull = new Null();
@@ -86,6 +116,30 @@ public abstract class Value {
 		return new Array(array);
 	}
 
+	public static Value makeVec(se.raek.ahsa.interpreter.Vec vec) {
+		return new Vec(vec);
+	}
+
+	public static Value makeTable(se.raek.ahsa.interpreter.Table table) {
+		return new Table(table);
+	}
+
+	public static Value makePVec(se.raek.ahsa.interpreter.PVec pvec) {
+		return new PVec(pvec);
+	}
+
+	public static Value makeTask(se.raek.ahsa.interpreter.Task task) {
+		return new Task(task);
+	}
+
+	public static Value makeChannel(se.raek.ahsa.interpreter.Channel channel) {
+		return new Channel(channel);
+	}
+
+	public static Value makeCounter(se.raek.ahsa.interpreter.Counter counter) {
+		return new Counter(counter);
+	}
+
 	private static final class Null extends Value {
 
 		public Null() {
@@ -300,4 +354,208 @@ public abstract class Value {
 
 	}
 
+	private static final class Vec extends Value {
+
+		private final se.raek.ahsa.interpreter.Vec vec;
+
+		public Vec(se.raek.ahsa.interpreter.Vec vec) {
+			if (vec == null) throw new NullPointerException();
+			this.vec = vec;
+		}
+
+		@Override
+		public <T> T matchValue(Matcher<T> m) {
+			return m.caseVec(vec);
+		}
+
+		@Override
+		public boolean equals(Object otherObject) {
+			if (this == otherObject) return true;
+			if (!(otherObject instanceof Vec)) return false;
+			Vec other = (Vec) otherObject;
+			return (vec.equals(other.vec));
+		}
+
+		@Override
+		public int hashCode() {
+			return vec.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "Vec(" + vec + ")";
+		}
+
+	}
+
+	private static final class Table extends Value {
+
+		private final se.raek.ahsa.interpreter.Table table;
+
+		public Table(se.raek.ahsa.interpreter.Table table) {
+			if (table == null) throw new NullPointerException();
+			this.table = table;
+		}
+
+		@Override
+		public <T> T matchValue(Matcher<T> m) {
+			return m.caseTable(table);
+		}
+
+		@Override
+		public boolean equals(Object otherObject) {
+			if (this == otherObject) return true;
+			if (!(otherObject instanceof Table)) return false;
+			Table other = (Table) otherObject;
+			return (table.equals(other.table));
+		}
+
+		@Override
+		public int hashCode() {
+			return table.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "Table(" + table + ")";
+		}
+
+	}
+
+	private static final class PVec extends Value {
+
+		private final se.raek.ahsa.interpreter.PVec pvec;
+
+		public PVec(se.raek.ahsa.interpreter.PVec pvec) {
+			if (pvec == null) throw new NullPointerException();
+			this.pvec = pvec;
+		}
+
+		@Override
+		public <T> T matchValue(Matcher<T> m) {
+			return m.casePVec(pvec);
+		}
+
+		@Override
+		public boolean equals(Object otherObject) {
+			if (this == otherObject) return true;
+			if (!(otherObject instanceof PVec)) return false;
+			PVec other = (PVec) otherObject;
+			return (pvec.equals(other.pvec));
+		}
+
+		@Override
+		public int hashCode() {
+			return pvec.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "PVec(" + pvec + ")";
+		}
+
+	}
+
+	private static final class Task extends Value {
+
+		private final se.raek.ahsa.interpreter.Task task;
+
+		public Task(se.raek.ahsa.interpreter.Task task) {
+			if (task == null) throw new NullPointerException();
+			this.task = task;
+		}
+
+		@Override
+		public <T> T matchValue(Matcher<T> m) {
+			return m.caseTask(task);
+		}
+
+		@Override
+		public boolean equals(Object otherObject) {
+			if (this == otherObject) return true;
+			if (!(otherObject instanceof Task)) return false;
+			Task other = (Task) otherObject;
+			return (task.equals(other.task));
+		}
+
+		@Override
+		public int hashCode() {
+			return task.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "Task(" + task + ")";
+		}
+
+	}
+
+	private static final class Channel extends Value {
+
+		private final se.raek.ahsa.interpreter.Channel channel;
+
+		public Channel(se.raek.ahsa.interpreter.Channel channel) {
+			if (channel == null) throw new NullPointerException();
+			this.channel = channel;
+		}
+
+		@Override
+		public <T> T matchValue(Matcher<T> m) {
+			return m.caseChannel(channel);
+		}
+
+		@Override
+		public boolean equals(Object otherObject) {
+			if (this == otherObject) return true;
+			if (!(otherObject instanceof Channel)) return false;
+			Channel other = (Channel) otherObject;
+			return (channel.equals(other.channel));
+		}
+
+		@Override
+		public int hashCode() {
+			return channel.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "Channel(" + channel + ")";
+		}
+
+	}
+
+	private static final class Counter extends Value {
+
+		private final se.raek.ahsa.interpreter.Counter counter;
+
+		public Counter(se.raek.ahsa.interpreter.Counter counter) {
+			if (counter == null) throw new NullPointerException();
+			this.counter = counter;
+		}
+
+		@Override
+		public <T> T matchValue(Matcher<T> m) {
+			return m.caseCounter(counter);
+		}
+
+		@Override
+		public boolean equals(Object otherObject) {
+			if (this == otherObject) return true;
+			if (!(otherObject instanceof Counter)) return false;
+			Counter other = (Counter) otherObject;
+			return (counter.equals(other.counter));
+		}
+
+		@Override
+		public int hashCode() {
+			return counter.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "Counter(" + counter + ")";
+		}
+
+	}
+
 }
@@ -0,0 +1,90 @@
+package se.raek.ahsa.interpreter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A growable sequence of values. The elements are kept in ArrayStorage,
+ * like those of an Array, with room for more at the end; when it is full
+ * the capacity is doubled, so that pushing is amortized O(1).
+ */
+public final class Vec {
+
+	private static final int MIN_CAPACITY = 8;
+
+	public final int id;
+	private ArrayStorage storage;
+	private int length = 0;
+
+	private static AtomicInteger nextId = new AtomicInteger(0);
+
+	public Vec() {
+		this(MIN_CAPACITY);
+	}
+
+	public Vec(ExecutionMode mode) {
+		this(MIN_CAPACITY, mode);
+	}
+
+	/**
+	 * Creates an empty vec with room for capacity elements before it has
+	 * to grow.
+	 */
+	public Vec(int capacity) {
+		this(capacity, ExecutionMode.CONCURRENT);
+	}
+
+	public Vec(int capacity, ExecutionMode mode) {
+		if (capacity < 0) throw new IllegalArgumentException("negative capacity: " + capacity);
+		id = mode.nextId(nextId);
+		storage = new ArrayStorage.Nulls(capacity);
+	}
+
+	public Value get(int i) {
+		checkIndex(i);
+		return storage.get(i);
+	}
+
+	public void set(int i, Value v) {
+		checkIndex(i);
+		storage = storage.set(i, v);
+	}
+
+	public void push(Value v) {
+		int capacity = storage.length();
+		if (length == capacity) {
+			storage = storage.copyOf(0, length, Math.max(MIN_CAPACITY, capacity * 2));
+		}
+		storage = storage.set(length++, v);
+	}
+
+	/**
+	 * Removes and returns the last element.
+	 */
+	public Value pop() {
+		checkIndex(length - 1);
+		Value v = storage.get(length - 1);
+		// Clears the slot, so that the vec does not keep the value alive.
+		storage = storage.set(length - 1, Value.makeNull());
+		length--;
+		return v;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	int getCapacity() {
+		return storage.length();
+	}
+
+	private void checkIndex(int i) {
+		ArrayStorage.checkIndex(i, length);
+	}
+
+	@Override
+	public String toString() {
+		return "vec" + id;
+	}
+
+}
@@ -0,0 +1,123 @@
+package se.raek.ahsa.jit;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import org.objectweb.asm.ClassTooLargeException;
+import org.objectweb.asm.MethodTooLargeException;
+
+import se.raek.ahsa.ast.Frame;
+import se.raek.ahsa.interpreter.CompoundFunction;
+import se.raek.ahsa.interpreter.Function;
+
+/**
+ * Compiles the bodies of hot compound functions into JVM classes, so that
+ * the JVM's own compiler can optimize them. A function is compiled when it
+ * has been activated threshold times, counting all closures of the same
+ * function abstraction. The threshold is read from the system property
+ * ahsa.jit.threshold; zero or less turns the JIT off.
+ * 
+ * Bodies that cannot be compiled, or that are too large for a JVM method
+ * or class, keep running in the Interpreter. Any other error in compiling
+ * one is a bug in JitCompiler, and is thrown.
+ */
+public final class Jit {
+	
+	public static final int DEFAULT_THRESHOLD = 1000;
+	
+	private static volatile int threshold = Integer.getInteger("ahsa.jit.threshold", DEFAULT_THRESHOLD);
+	
+	private static final Object NOT_COMPILABLE = new Object();
+	
+	private Jit() {
+	}
+	
+	public static int getThreshold() {
+		return threshold;
+	}
+	
+	public static void setThreshold(int threshold) {
+		Jit.threshold = threshold;
+	}
+	
+	public static boolean shouldCompile(Frame frame) {
+		int t = threshold;
+		return t > 0 && frame.countActivation() >= t;
+	}
+	
+	/**
+	 * The class generated for a function body and the constants it refers
+	 * to. Each closure of the function gets its own instance.
+	 */
+	private static final class CompiledBody {
+		
+		final MethodHandle constructor;
+		final Object[] constants;
+		
+		CompiledBody(MethodHandle constructor, Object[] constants) {
+			this.constructor = constructor;
+			this.constants = constants;
+		}
+		
+	}
+	
+	/**
+	 * Returns a Function that runs the body of fn as JVM code, or null if
+	 * the body cannot be compiled.
+	 */
+	public static Function compile(CompoundFunction fn) {
+		Object code = compiledBody(fn);
+		if (code == NOT_COMPILABLE) {
+			return null;
+		}
+		CompiledBody body = (CompiledBody) code;
+		try {
+			return (Function) body.constructor.invoke(fn, body.constants);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new AssertionError(t);
+		}
+	}
+	
+	private static Object compiledBody(CompoundFunction fn) {
+		Frame frame = fn.frame;
+		Object code = frame.getCompiledCode();
+		if (code != null) {
+			return code;
+		}
+		synchronized (frame) {
+			code = frame.getCompiledCode();
+			if (code == null) {
+				code = generate(fn);
+				frame.setCompiledCode(code);
+			}
+			return code;
+		}
+	}
+	
+	private static Object generate(CompoundFunction fn) {
+		try {
+			JitCompiler.Result result = JitCompiler.compile(fn);
+			if (result == null) {
+				return NOT_COMPILABLE;
+			}
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(result.classFile, true);
+			MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(),
+					MethodType.methodType(void.class, CompoundFunction.class, Object[].class));
+			return new CompiledBody(constructor, result.constants);
+		} catch (MethodTooLargeException e) {
+			return NOT_COMPILABLE;
+		} catch (ClassTooLargeException e) {
+			return NOT_COMPILABLE;
+		} catch (IllegalAccessException e) {
+			throw new AssertionError(e);
+		} catch (NoSuchMethodException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+}
@@ -0,0 +1,881 @@
+package se.raek.ahsa.jit;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import se.raek.ahsa.ast.ArithmeticOperator;
+import se.raek.ahsa.ast.CallSite;
+import se.raek.ahsa.ast.ConstantCache;
+import se.raek.ahsa.ast.EqualityOperator;
+import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.Frame;
+import se.raek.ahsa.ast.Literal;
+import se.raek.ahsa.ast.LoopLabel;
+import se.raek.ahsa.ast.RelationalOperator;
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.ast.ValueLocation;
+import se.raek.ahsa.ast.VariableLocation;
+import se.raek.ahsa.interpreter.CompoundFunction;
+import se.raek.ahsa.interpreter.Function;
+import se.raek.ahsa.interpreter.Interpreter;
+import se.raek.ahsa.interpreter.NumberValues;
+import se.raek.ahsa.interpreter.Store;
+import se.raek.ahsa.interpreter.Value;
+
+/**
+ * Translates the body of a CompoundFunction into a JVM class implementing
+ * Function. The generated code does the same work as the Interpreter, in the
+ * same order, and throws the same exceptions.
+ *
+ * A body without nested function abstractions keeps its own values and
+ * variables in JVM locals ("locals mode"), since no closure can observe
+ * them. Other bodies allocate a Store for each call, just like the
+ * Interpreter ("store mode").
+ */
+final class JitCompiler implements Expression.Matcher<Void>, Statement.Matcher<Void> {
+
+	static final String CLASS_NAME = "se/raek/ahsa/jit/CompiledFunction";
+
+	private static final String OBJECT = Type.getInternalName(Object.class);
+	private static final String LIST = Type.getInternalName(List.class);
+	private static final String ARRAY_LIST = Type.getInternalName(ArrayList.class);
+	private static final String VALUE = Type.getInternalName(Value.class);
+	private static final String NUMBER_VALUES = Type.getInternalName(NumberValues.class);
+	private static final String FUNCTION = Type.getInternalName(Function.class);
+	private static final String COMPOUND_FUNCTION = Type.getInternalName(CompoundFunction.class);
+	private static final String STORE = Type.getInternalName(Store.class);
+	private static final String INTERPRETER = Type.getInternalName(Interpreter.class);
+	private static final String SUPPORT = Type.getInternalName(JitSupport.class);
+
+	private static final String VALUE_DESC = Type.getDescriptor(Value.class);
+	private static final String STORE_DESC = Type.getDescriptor(Store.class);
+	private static final String COMPOUND_FUNCTION_DESC = Type.getDescriptor(CompoundFunction.class);
+	private static final String VAL_DESC = Type.getDescriptor(ValueLocation.class);
+	private static final String VAR_DESC = Type.getDescriptor(VariableLocation.class);
+
+	/**
+	 * Thrown when the body uses something the compiler does not handle, in
+	 * which case the function stays interpreted.
+	 */
+	static class UnsupportedException extends RuntimeException {
+
+		private static final long serialVersionUID = 4807614383306412867L;
+
+		UnsupportedException(String message) {
+			super(message);
+		}
+
+	}
+
+	static final class Result {
+
+		final byte[] classFile;
+		final Object[] constants;
+
+		Result(byte[] classFile, Object[] constants) {
+			this.classFile = classFile;
+			this.constants = constants;
+		}
+
+	}
+
+	private final CompoundFunction fn;
+	private final boolean localsMode;
+	private final int level;
+	/** The first JVM local after the parameters of the body method. */
+	private final int locals;
+	private final int variableBase;
+	private final List<Object> constants = new ArrayList<Object>();
+	private final Map<Object, Integer> constantIndices = new IdentityHashMap<Object, Integer>();
+	private final List<LoopLabel> loops = new ArrayList<LoopLabel>();
+	private final List<Label> loopExits = new ArrayList<Label>();
+	private MethodVisitor mv;
+	/** Where a self tail call jumps to, with the new parameters in place. */
+	private final Label bodyStart = new Label();
+
+	private static final int THIS = 0;
+	private static final int PARAMS = 1;
+
+	private JitCompiler(CompoundFunction fn, boolean localsMode) {
+		this.fn = fn;
+		this.localsMode = localsMode;
+		this.level = fn.sto.getLevel() + 1;
+		this.locals = PARAMS + fn.formalParameters.size();
+		this.variableBase = locals + fn.frame.getValueCount();
+	}
+
+	/**
+	 * Returns the class file and constants for fn, or null if its body
+	 * cannot be compiled.
+	 */
+	static Result compile(CompoundFunction fn) {
+		try {
+			JitCompiler compiler = new JitCompiler(fn, canUseLocals(fn));
+			byte[] classFile = compiler.generate();
+			return new Result(classFile, compiler.constants.toArray());
+		} catch (UnsupportedException e) {
+			return null;
+		}
+	}
+
+	private static boolean canUseLocals(CompoundFunction fn) {
+		if (containsFunctionAbstraction(fn.body)) {
+			return false;
+		}
+		Set<Integer> indices = new HashSet<Integer>();
+		if (fn.self != null) {
+			indices.add(fn.self.getIndex());
+		}
+		for (ValueLocation param : fn.formalParameters) {
+			if (!indices.add(param.getIndex())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private byte[] generate() {
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+		cw.visit(V11, ACC_FINAL | ACC_SUPER, CLASS_NAME, null, OBJECT, new String[] { FUNCTION });
+		cw.visitField(ACC_PRIVATE | ACC_FINAL, "fn", COMPOUND_FUNCTION_DESC, null, null).visitEnd();
+		cw.visitField(ACC_PRIVATE | ACC_FINAL, "sto", STORE_DESC, null, null).visitEnd();
+		cw.visitField(ACC_PRIVATE | ACC_FINAL, "selfValue", VALUE_DESC, null, null).visitEnd();
+		cw.visitField(ACC_PRIVATE | ACC_FINAL, "k", "[Ljava/lang/Object;", null, null).visitEnd();
+		generateConstructor(cw);
+		generateBody(cw);
+		for (int n = 0; n <= 3; n++) {
+			generateFixedArityApply(cw, n);
+		}
+		generateApply(cw);
+		generateShare(cw);
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private void generateConstructor(ClassWriter cw) {
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>",
+				"(" + COMPOUND_FUNCTION_DESC + "[Ljava/lang/Object;)V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitMethodInsn(INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "fn", COMPOUND_FUNCTION_DESC);
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitFieldInsn(GETFIELD, COMPOUND_FUNCTION, "sto", STORE_DESC);
+		mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "sto", STORE_DESC);
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitVarInsn(ALOAD, 1);
+		mv.visitMethodInsn(INVOKESTATIC, VALUE, "makeFunction", "(L" + FUNCTION + ";)" + VALUE_DESC, false);
+		mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "selfValue", VALUE_DESC);
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitVarInsn(ALOAD, 2);
+		mv.visitFieldInsn(PUTFIELD, CLASS_NAME, "k", "[Ljava/lang/Object;");
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private void generateShare(ClassWriter cw) {
+		MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "share", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(ALOAD, 0);
+		mv.visitFieldInsn(GETFIELD, CLASS_NAME, "fn", COMPOUND_FUNCTION_DESC);
+		mv.visitMethodInsn(INVOKEVIRTUAL, COMPOUND_FUNCTION, "share", "()V", false);
+		mv.visitInsn(RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private void generateBody(ClassWriter cw) {
+		mv = cw.visitMethod(ACC_PRIVATE, "body", bodyDescriptor(), null, null);
+		mv.visitCode();
+		mv.visitLabel(bodyStart);
+		if (localsMode) {
+			generateLocalsPrologue();
+		} else {
+			generateStorePrologue();
+		}
+		compileStatements(fn.body);
+		mv.visitMethodInsn(INVOKESTATIC, VALUE, "makeNull", "()" + VALUE_DESC, false);
+		mv.visitInsn(ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	/**
+	 * The body takes the actual parameters as JVM parameters, so that the
+	 * fixed-arity entry points can call it directly.
+	 */
+	private String bodyDescriptor() {
+		return valuesDescriptor(fn.formalParameters.size());
+	}
+
+	private static String valuesDescriptor(int n) {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < n; i++) {
+			sb.append(VALUE_DESC);
+		}
+		return sb.append(")").append(VALUE_DESC).toString();
+	}
+
+	private void generateLocalsPrologue() {
+		Frame frame = fn.frame;
+		for (int i = 0; i < frame.getValueCount() + frame.getVariableCount(); i++) {
+			mv.visitInsn(ACONST_NULL);
+			mv.visitVarInsn(ASTORE, locals + i);
+		}
+		if (fn.self != null) {
+			mv.visitVarInsn(ALOAD, THIS);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "selfValue", VALUE_DESC);
+			mv.visitVarInsn(ASTORE, valueLocal(fn.self));
+		}
+		int i = 0;
+		for (ValueLocation param : fn.formalParameters) {
+			mv.visitVarInsn(ALOAD, PARAMS + i++);
+			mv.visitVarInsn(ASTORE, valueLocal(param));
+		}
+	}
+
+	private void generateStorePrologue() {
+		mv.visitVarInsn(ALOAD, THIS);
+		mv.visitFieldInsn(GETFIELD, CLASS_NAME, "fn", COMPOUND_FUNCTION_DESC);
+		pushInt(fn.formalParameters.size());
+		mv.visitMethodInsn(INVOKEVIRTUAL, COMPOUND_FUNCTION, "newActivation", "(I)" + STORE_DESC, false);
+		mv.visitVarInsn(ASTORE, locals);
+		int i = 0;
+		for (ValueLocation param : fn.formalParameters) {
+			mv.visitVarInsn(ALOAD, locals);
+			pushConstant(param, Type.getInternalName(ValueLocation.class));
+			mv.visitVarInsn(ALOAD, PARAMS + i++);
+			mv.visitMethodInsn(INVOKEVIRTUAL, STORE, "defineValue", "(" + VAL_DESC + VALUE_DESC + ")V", false);
+		}
+	}
+
+	/**
+	 * Generates apply0 to apply3, which call the body if the arity matches
+	 * and throw ArityException otherwise.
+	 */
+	private void generateFixedArityApply(ClassWriter cw, int n) {
+		mv = cw.visitMethod(ACC_PUBLIC, "apply" + n, valuesDescriptor(n), null, null);
+		mv.visitCode();
+		int expected = fn.formalParameters.size();
+		if (n == expected) {
+			for (int i = 0; i <= n; i++) {
+				mv.visitVarInsn(ALOAD, i);
+			}
+			mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "body", bodyDescriptor(), false);
+			mv.visitInsn(ARETURN);
+		} else {
+			String arityException = Type.getInternalName(Function.ArityException.class);
+			mv.visitTypeInsn(NEW, arityException);
+			mv.visitInsn(DUP);
+			pushInt(expected);
+			pushInt(n);
+			mv.visitMethodInsn(INVOKESPECIAL, arityException, "<init>", "(II)V", false);
+			mv.visitInsn(ATHROW);
+		}
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private void generateApply(ClassWriter cw) {
+		mv = cw.visitMethod(ACC_PUBLIC, "apply", "(L" + LIST + ";)" + VALUE_DESC, null, null);
+		mv.visitCode();
+		int n = fn.formalParameters.size();
+		mv.visitVarInsn(ALOAD, 1);
+		pushInt(n);
+		mv.visitMethodInsn(INVOKESTATIC, SUPPORT, "checkArity", "(L" + LIST + ";I)V", false);
+		mv.visitVarInsn(ALOAD, THIS);
+		for (int i = 0; i < n; i++) {
+			mv.visitVarInsn(ALOAD, 1);
+			pushInt(i);
+			mv.visitMethodInsn(INVOKEINTERFACE, LIST, "get", "(I)L" + OBJECT + ";", true);
+			mv.visitTypeInsn(CHECKCAST, VALUE);
+		}
+		mv.visitMethodInsn(INVOKESPECIAL, CLASS_NAME, "body", bodyDescriptor(), false);
+		mv.visitInsn(ARETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static boolean containsFunctionAbstraction(List<Statement> stmts) {
+		final boolean[] found = { false };
+		final Expression.Matcher<Void> exprVisitor = new Expression.AbstractMatcher<Void>() {
+			@Override
+			public Void caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
+				left.matchExpression(this);
+				right.matchExpression(this);
+				return null;
+			}
+			@Override
+			public Void caseEqualityOperation(EqualityOperator op, Expression left, Expression right) {
+				left.matchExpression(this);
+				right.matchExpression(this);
+				return null;
+			}
+			@Override
+			public Void caseRelationalOperation(RelationalOperator op, Expression left, Expression right) {
+				left.matchExpression(this);
+				right.matchExpression(this);
+				return null;
+			}
+			@Override
+			public Void caseFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body, Frame frame) {
+				found[0] = true;
+				return null;
+			}
+			@Override
+			public Void caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
+				function.matchExpression(this);
+				for (Expression param : parameters) {
+					param.matchExpression(this);
+				}
+				return null;
+			}
+			@Override
+			public Void otherwise() {
+				return null;
+			}
+		};
+		Statement.Matcher<Void> stmtVisitor = new Statement.Matcher<Void>() {
+			public Void caseThrowawayExpression(Expression expr) {
+				return expr.matchExpression(exprVisitor);
+			}
+			public Void caseValueDefinition(ValueLocation val, Expression expr) {
+				return expr.matchExpression(exprVisitor);
+			}
+			public Void caseVariableAssignment(VariableLocation var, Expression expr) {
+				return expr.matchExpression(exprVisitor);
+			}
+			public Void caseConditional(Expression cond, List<Statement> thenStmts, List<Statement> elseStmts) {
+				cond.matchExpression(exprVisitor);
+				visitAll(thenStmts);
+				visitAll(elseStmts);
+				return null;
+			}
+			public Void caseLoop(LoopLabel loop, List<Statement> body) {
+				visitAll(body);
+				return null;
+			}
+			public Void caseBreak(LoopLabel loop) {
+				return null;
+			}
+			public Void caseReturn(Expression expr) {
+				return expr.matchExpression(exprVisitor);
+			}
+			private void visitAll(List<Statement> stmts) {
+				for (Statement stmt : stmts) {
+					stmt.matchStatement(this);
+				}
+			}
+		};
+		for (Statement stmt : stmts) {
+			stmt.matchStatement(stmtVisitor);
+		}
+		return found[0];
+	}
+
+	// Helpers
+
+	private void pushInt(int i) {
+		if (i >= -1 && i <= 5) {
+			mv.visitInsn(ICONST_0 + i);
+		} else if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) {
+			mv.visitIntInsn(BIPUSH, i);
+		} else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) {
+			mv.visitIntInsn(SIPUSH, i);
+		} else {
+			mv.visitLdcInsn(i);
+		}
+	}
+
+	private void pushConstant(Object constant, String internalName) {
+		Integer index = constantIndices.get(constant);
+		if (index == null) {
+			index = constants.size();
+			constants.add(constant);
+			constantIndices.put(constant, index);
+		}
+		mv.visitVarInsn(ALOAD, THIS);
+		mv.visitFieldInsn(GETFIELD, CLASS_NAME, "k", "[Ljava/lang/Object;");
+		pushInt(index);
+		mv.visitInsn(AALOAD);
+		mv.visitTypeInsn(CHECKCAST, internalName);
+	}
+
+	private boolean isOwnValue(ValueLocation val) {
+		if (!val.isResolved()) {
+			throw new UnsupportedException("unresolved value " + val);
+		}
+		return val.getLevel() == level;
+	}
+
+	private int valueLocal(ValueLocation val) {
+		if (!isOwnValue(val) || val.getIndex() >= fn.frame.getValueCount()) {
+			throw new UnsupportedException("value " + val + " not in frame " + fn.frame);
+		}
+		return locals + val.getIndex();
+	}
+
+	private int variableLocal(VariableLocation var) {
+		if (!var.isResolved() || var.getIndex() >= fn.frame.getVariableCount()) {
+			throw new UnsupportedException("variable " + var + " not in frame " + fn.frame);
+		}
+		return variableBase + var.getIndex();
+	}
+
+	private void compileStatements(List<Statement> stmts) {
+		for (Statement stmt : stmts) {
+			stmt.matchStatement(this);
+		}
+	}
+
+	/**
+	 * Whether an expression always evaluates to a number, so that it can be
+	 * compiled to a double without a cast.
+	 */
+	private static boolean isNumeric(Expression expr) {
+		return expr.matchExpression(new Expression.AbstractMatcher<Boolean>() {
+			@Override
+			public Boolean caseConstant(Literal l, ConstantCache cache) {
+				return l.matchLiteral(new Literal.AbstractMatcher<Boolean>() {
+					@Override
+					public Boolean caseNumber(double n) {
+						return true;
+					}
+					@Override
+					public Boolean otherwise() {
+						return false;
+					}
+				});
+			}
+			@Override
+			public Boolean caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
+				return true;
+			}
+			@Override
+			public Boolean otherwise() {
+				return false;
+			}
+		});
+	}
+
+	/**
+	 * Leaves the value of a numeric expression on the stack as a double.
+	 */
+	private void compileNumber(Expression expr) {
+		expr.matchExpression(new Expression.AbstractMatcher<Void>() {
+			@Override
+			public Void caseConstant(Literal l, ConstantCache cache) {
+				mv.visitLdcInsn(l.matchLiteral(new Literal.AbstractMatcher<Double>() {
+					@Override
+					public Double caseNumber(double n) {
+						return n;
+					}
+					@Override
+					public Double otherwise() {
+						throw new AssertionError();
+					}
+				}));
+				return null;
+			}
+			@Override
+			public Void caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
+				compileNumberOperands(left, right);
+				mv.visitInsn(op.matchArithmeticOperator(new ArithmeticOperator.Matcher<Integer>() {
+					public Integer caseAddition() {
+						return DADD;
+					}
+					public Integer caseSubtraction() {
+						return DSUB;
+					}
+					public Integer caseMultiplication() {
+						return DMUL;
+					}
+					public Integer caseDivision() {
+						return DDIV;
+					}
+				}));
+				return null;
+			}
+			@Override
+			public Void otherwise() {
+				throw new AssertionError();
+			}
+		});
+	}
+
+	/**
+	 * Leaves both operands on the stack as doubles. Like the Interpreter,
+	 * both operands are evaluated before either is cast to a number, and
+	 * the left one is cast first.
+	 */
+	private void compileNumberOperands(Expression left, Expression right) {
+		boolean leftNumeric = isNumeric(left);
+		boolean rightNumeric = isNumeric(right);
+		if (leftNumeric) {
+			compileNumber(left);
+		} else {
+			left.matchExpression(this);
+		}
+		if (rightNumeric) {
+			compileNumber(right);
+		} else {
+			right.matchExpression(this);
+		}
+		if (!leftNumeric && rightNumeric) {
+			// value, double -> double, double
+			mv.visitInsn(DUP2_X1);
+			mv.visitInsn(POP2);
+			castToNumber();
+			mv.visitInsn(DUP2_X2);
+			mv.visitInsn(POP2);
+		} else if (!leftNumeric && !rightNumeric) {
+			// value, value -> double, double
+			mv.visitInsn(SWAP);
+			castToNumber();
+			mv.visitInsn(DUP2_X1);
+			mv.visitInsn(POP2);
+			castToNumber();
+		} else if (!rightNumeric) {
+			castToNumber();
+		}
+	}
+
+	private void castToNumber() {
+		mv.visitMethodInsn(INVOKESTATIC, INTERPRETER, "castToNumber", "(" + VALUE_DESC + ")D", false);
+	}
+
+	private void makeBoolean() {
+		mv.visitMethodInsn(INVOKESTATIC, VALUE, "makeBoolean", "(Z)" + VALUE_DESC, false);
+	}
+
+	/**
+	 * Evaluates a condition and jumps to ifFalse unless it is truthy.
+	 */
+	private void compileCondition(final Expression cond, final Label ifFalse) {
+		final JitCompiler compiler = this;
+		cond.matchExpression(new Expression.AbstractMatcher<Void>() {
+			@Override
+			public Void caseEqualityOperation(EqualityOperator op, Expression left, Expression right) {
+				compileEquals(left, right);
+				mv.visitJumpInsn(op.matchEqualityOperator(new EqualityOperator.Matcher<Integer>() {
+					public Integer caseEqual() {
+						return IFEQ;
+					}
+					public Integer caseUnequal() {
+						return IFNE;
+					}
+				}), ifFalse);
+				return null;
+			}
+			@Override
+			public Void caseRelationalOperation(RelationalOperator op, Expression left, Expression right) {
+				compileNumberOperands(left, right);
+				// NaN compares false, so it must make the comparison jump
+				op.matchRelationalOperator(new RelationalOperator.Matcher<Void>() {
+					public Void caseGreater() {
+						mv.visitInsn(DCMPL);
+						mv.visitJumpInsn(IFLE, ifFalse);
+						return null;
+					}
+					public Void caseLess() {
+						mv.visitInsn(DCMPG);
+						mv.visitJumpInsn(IFGE, ifFalse);
+						return null;
+					}
+					public Void caseGreaterEqual() {
+						mv.visitInsn(DCMPL);
+						mv.visitJumpInsn(IFLT, ifFalse);
+						return null;
+					}
+					public Void caseLessEqual() {
+						mv.visitInsn(DCMPG);
+						mv.visitJumpInsn(IFGT, ifFalse);
+						return null;
+					}
+				});
+				return null;
+			}
+			@Override
+			public Void otherwise() {
+				cond.matchExpression(compiler);
+				mv.visitMethodInsn(INVOKESTATIC, INTERPRETER, "isTruthy", "(" + VALUE_DESC + ")Z", false);
+				mv.visitJumpInsn(IFEQ, ifFalse);
+				return null;
+			}
+		});
+	}
+
+	private void compileEquals(Expression left, Expression right) {
+		left.matchExpression(this);
+		right.matchExpression(this);
+		mv.visitMethodInsn(INVOKEVIRTUAL, OBJECT, "equals", "(L" + OBJECT + ";)Z", false);
+	}
+
+	private void compileBooleanFromCondition(Expression cond) {
+		Label ifFalse = new Label();
+		Label end = new Label();
+		compileCondition(cond, ifFalse);
+		mv.visitInsn(ICONST_1);
+		mv.visitJumpInsn(GOTO, end);
+		mv.visitLabel(ifFalse);
+		mv.visitInsn(ICONST_0);
+		mv.visitLabel(end);
+		makeBoolean();
+	}
+
+	// Expressions leave a Value on the stack
+
+	public Void caseConstant(Literal l, ConstantCache cache) {
+		Value v = l.matchLiteral(new Literal.Matcher<Value>() {
+			public Value caseNull() {
+				return Value.makeNull();
+			}
+			public Value caseBoolean(boolean b) {
+				return Value.makeBoolean(b);
+			}
+			public Value caseNumber(double n) {
+				return NumberValues.make(n);
+			}
+		});
+		pushConstant(v, VALUE);
+		return null;
+	}
+
+	public Void caseValueLookup(ValueLocation val) {
+		if (localsMode && isOwnValue(val)) {
+			mv.visitVarInsn(ALOAD, valueLocal(val));
+			pushConstant(val, Type.getInternalName(ValueLocation.class));
+			mv.visitMethodInsn(INVOKESTATIC, SUPPORT, "checkDefined", "(" + VALUE_DESC + VAL_DESC + ")" + VALUE_DESC, false);
+		} else {
+			loadStore();
+			pushConstant(val, Type.getInternalName(ValueLocation.class));
+			mv.visitMethodInsn(INVOKEVIRTUAL, STORE, "lookupValue", "(" + VAL_DESC + ")" + VALUE_DESC, false);
+		}
+		return null;
+	}
+
+	public Void caseVariableLookup(VariableLocation var) {
+		if (localsMode) {
+			mv.visitVarInsn(ALOAD, variableLocal(var));
+			pushConstant(var, Type.getInternalName(VariableLocation.class));
+			mv.visitMethodInsn(INVOKESTATIC, SUPPORT, "checkAssigned", "(" + VALUE_DESC + VAR_DESC + ")" + VALUE_DESC, false);
+		} else {
+			loadStore();
+			pushConstant(var, Type.getInternalName(VariableLocation.class));
+			mv.visitMethodInsn(INVOKEVIRTUAL, STORE, "lookupVariable", "(" + VAR_DESC + ")" + VALUE_DESC, false);
+		}
+		return null;
+	}
+
+	/**
+	 * Loads the store that holds the values not kept in locals: the
+	 * activation in store mode, the store of the closure in locals mode.
+	 */
+	private void loadStore() {
+		if (localsMode) {
+			mv.visitVarInsn(ALOAD, THIS);
+			mv.visitFieldInsn(GETFIELD, CLASS_NAME, "sto", STORE_DESC);
+		} else {
+			mv.visitVarInsn(ALOAD, locals);
+		}
+	}
+
+	public Void caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
+		compileNumber(Expression.makeArithmeticOperation(op, left, right));
+		mv.visitMethodInsn(INVOKESTATIC, NUMBER_VALUES, "make", "(D)" + VALUE_DESC, false);
+		return null;
+	}
+
+	public Void caseEqualityOperation(EqualityOperator op, Expression left, Expression right) {
+		compileBooleanFromCondition(Expression.makeEqualityOperation(op, left, right));
+		return null;
+	}
+
+	public Void caseRelationalOperation(RelationalOperator op, Expression left, Expression right) {
+		compileBooleanFromCondition(Expression.makeRelationalOperation(op, left, right));
+		return null;
+	}
+
+	public Void caseFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body, Frame frame) {
+		if (localsMode) {
+			throw new AssertionError("function abstraction in locals mode");
+		}
+		String frameName = Type.getInternalName(Frame.class);
+		mv.visitTypeInsn(NEW, COMPOUND_FUNCTION);
+		mv.visitInsn(DUP);
+		if (self == null) {
+			mv.visitInsn(ACONST_NULL);
+		} else {
+			pushConstant(self, Type.getInternalName(ValueLocation.class));
+		}
+		pushConstant(parameters, LIST);
+		pushConstant(body, LIST);
+		pushConstant(frame, frameName);
+		mv.visitVarInsn(ALOAD, locals);
+		mv.visitMethodInsn(INVOKESPECIAL, COMPOUND_FUNCTION, "<init>",
+				"(" + VAL_DESC + "L" + LIST + ";L" + LIST + ";L" + frameName + ";" + STORE_DESC + ")V", false);
+		mv.visitMethodInsn(INVOKESTATIC, VALUE, "makeFunction", "(L" + FUNCTION + ";)" + VALUE_DESC, false);
+		return null;
+	}
+
+	public Void caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
+		function.matchExpression(this);
+		mv.visitMethodInsn(INVOKESTATIC, INTERPRETER, "castToFunction", "(" + VALUE_DESC + ")L" + FUNCTION + ";", false);
+		int n = parameters.size();
+		if (n <= 3) {
+			for (Expression param : parameters) {
+				param.matchExpression(this);
+			}
+			mv.visitMethodInsn(INVOKEINTERFACE, FUNCTION, "apply" + n, valuesDescriptor(n), true);
+			return null;
+		}
+		mv.visitTypeInsn(NEW, ARRAY_LIST);
+		mv.visitInsn(DUP);
+		pushInt(n);
+		mv.visitMethodInsn(INVOKESPECIAL, ARRAY_LIST, "<init>", "(I)V", false);
+		for (Expression param : parameters) {
+			mv.visitInsn(DUP);
+			param.matchExpression(this);
+			mv.visitMethodInsn(INVOKEVIRTUAL, ARRAY_LIST, "add", "(L" + OBJECT + ";)Z", false);
+			mv.visitInsn(POP);
+		}
+		mv.visitMethodInsn(INVOKEINTERFACE, FUNCTION, "apply", "(L" + LIST + ";)" + VALUE_DESC, true);
+		return null;
+	}
+
+	// Statements leave the stack empty
+
+	public Void caseThrowawayExpression(Expression expr) {
+		expr.matchExpression(this);
+		mv.visitInsn(POP);
+		return null;
+	}
+
+	public Void caseValueDefinition(ValueLocation val, Expression expr) {
+		if (localsMode) {
+			int local = valueLocal(val);
+			expr.matchExpression(this);
+			mv.visitVarInsn(ALOAD, local);
+			pushConstant(val, Type.getInternalName(ValueLocation.class));
+			mv.visitMethodInsn(INVOKESTATIC, SUPPORT, "checkUndefined",
+					"(" + VALUE_DESC + VALUE_DESC + VAL_DESC + ")" + VALUE_DESC, false);
+			mv.visitVarInsn(ASTORE, local);
+		} else {
+			expr.matchExpression(this);
+			loadStore();
+			mv.visitInsn(SWAP);
+			pushConstant(val, Type.getInternalName(ValueLocation.class));
+			mv.visitInsn(SWAP);
+			mv.visitMethodInsn(INVOKEVIRTUAL, STORE, "defineValue", "(" + VAL_DESC + VALUE_DESC + ")V", false);
+		}
+		return null;
+	}
+
+	public Void caseVariableAssignment(VariableLocation var, Expression expr) {
+		if (localsMode) {
+			int local = variableLocal(var);
+			expr.matchExpression(this);
+			mv.visitVarInsn(ASTORE, local);
+		} else {
+			expr.matchExpression(this);
+			loadStore();
+			mv.visitInsn(SWAP);
+			pushConstant(var, Type.getInternalName(VariableLocation.class));
+			mv.visitInsn(SWAP);
+			mv.visitMethodInsn(INVOKEVIRTUAL, STORE, "assignVariable", "(" + VAR_DESC + VALUE_DESC + ")V", false);
+		}
+		return null;
+	}
+
+	public Void caseConditional(Expression cond, List<Statement> thenStmts, List<Statement> elseStmts) {
+		Label elseLabel = new Label();
+		Label end = new Label();
+		compileCondition(cond, elseLabel);
+		compileStatements(thenStmts);
+		mv.visitJumpInsn(GOTO, end);
+		mv.visitLabel(elseLabel);
+		compileStatements(elseStmts);
+		mv.visitLabel(end);
+		return null;
+	}
+
+	public Void caseLoop(LoopLabel loop, List<Statement> body) {
+		Label start = new Label();
+		Label exit = new Label();
+		loops.add(loop);
+		loopExits.add(exit);
+		mv.visitLabel(start);
+		compileStatements(body);
+		mv.visitJumpInsn(GOTO, start);
+		mv.visitLabel(exit);
+		loops.remove(loops.size() - 1);
+		loopExits.remove(loopExits.size() - 1);
+		return null;
+	}
+
+	public Void caseBreak(LoopLabel loop) {
+		int i = loops.lastIndexOf(loop);
+		if (i < 0) {
+			throw new UnsupportedException("break out of function body: " + loop);
+		}
+		mv.visitJumpInsn(GOTO, loopExits.get(i));
+		return null;
+	}
+
+	public Void caseReturn(Expression expr) {
+		List<Expression> selfCallParameters = expr.matchExpression(new Expression.AbstractMatcher<List<Expression>>() {
+			@Override
+			public List<Expression> caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
+				return isSelfLookup(function) ? parameters : null;
+			}
+			@Override
+			public List<Expression> otherwise() {
+				return null;
+			}
+		});
+		if (selfCallParameters != null && selfCallParameters.size() == fn.formalParameters.size()) {
+			// A tail call to the function itself: replace the parameters
+			// and run the body again.
+			for (Expression param : selfCallParameters) {
+				param.matchExpression(this);
+			}
+			for (int i = selfCallParameters.size() - 1; i >= 0; i--) {
+				mv.visitVarInsn(ASTORE, PARAMS + i);
+			}
+			mv.visitJumpInsn(GOTO, bodyStart);
+			return null;
+		}
+		expr.matchExpression(this);
+		mv.visitInsn(ARETURN);
+		return null;
+	}
+
+	private boolean isSelfLookup(Expression expr) {
+		return fn.self != null && expr.matchExpression(new Expression.AbstractMatcher<Boolean>() {
+			@Override
+			public Boolean caseValueLookup(ValueLocation val) {
+				return val == fn.self;
+			}
+			@Override
+			public Boolean otherwise() {
+				return false;
+			}
+		});
+	}
+
+}
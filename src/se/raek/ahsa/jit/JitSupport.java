@@ -0,0 +1,42 @@
+package se.raek.ahsa.jit;
+
+import java.util.List;
+
+import se.raek.ahsa.ast.ValueLocation;
+import se.raek.ahsa.ast.VariableLocation;
+import se.raek.ahsa.interpreter.Function;
+import se.raek.ahsa.interpreter.Store;
+import se.raek.ahsa.interpreter.Value;
+
+/**
+ * Runtime checks called from JIT-compiled code that keeps values and
+ * variables in JVM locals instead of a Store. They throw the same
+ * exceptions as the corresponding Store operations.
+ */
+public final class JitSupport {
+	
+	private JitSupport() {
+	}
+	
+	public static void checkArity(List<Value> actualParameters, int expected) {
+		int n = actualParameters.size();
+		if (n != expected) throw new Function.ArityException(expected, n);
+	}
+	
+	public static Value checkDefined(Value v, ValueLocation val) {
+		if (v == null) throw new Store.ValueNotFoundException(val);
+		return v;
+	}
+	
+	public static Value checkAssigned(Value v, VariableLocation var) {
+		if (v == null) throw new Store.VariableNotFoundException(var);
+		return v;
+	}
+	
+	public static Value checkUndefined(Value v, Value current, ValueLocation val) {
+		if (v == null) throw new NullPointerException();
+		if (current != null) throw new Store.ValueAlreadyDefinedException(val);
+		return v;
+	}
+
+}
@@ -0,0 +1,377 @@
+package se.raek.ahsa.optimizer;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import se.raek.ahsa.ast.ArithmeticOperator;
+import se.raek.ahsa.ast.CallSite;
+import se.raek.ahsa.ast.ConstantCache;
+import se.raek.ahsa.ast.EqualityOperator;
+import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.Frame;
+import se.raek.ahsa.ast.Literal;
+import se.raek.ahsa.ast.LoopLabel;
+import se.raek.ahsa.ast.RelationalOperator;
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.ast.ValueLocation;
+import se.raek.ahsa.ast.VariableLocation;
+import se.raek.ahsa.interpreter.Interpreter;
+import se.raek.ahsa.interpreter.Value;
+
+/**
+ * Simplifies a parsed program before it is resolved and run:
+ *
+ * - operations on constants are folded, when that cannot throw,
+ * - top-level values defined as constants are substituted into their uses,
+ * - conditionals on constants are replaced by the branch that is taken,
+ * - statements after a break or return are dropped.
+ *
+ * The program behaves exactly as before. The optimizer is a separate stage
+ * that callers opt into; see Main for the --optimize switch.
+ */
+public final class Optimizer implements Expression.Matcher<Expression>, Statement.Matcher<Void> {
+
+	private final Map<ValueLocation, Integer> definitionCounts;
+	private final Map<ValueLocation, Literal> constants;
+	private List<Statement> out = null;
+
+	private Optimizer(Map<ValueLocation, Integer> definitionCounts) {
+		this.definitionCounts = definitionCounts;
+		this.constants = new IdentityHashMap<ValueLocation, Literal>();
+	}
+
+	public static List<Statement> optimize(List<Statement> stmts) {
+		Map<ValueLocation, Integer> definitionCounts = new IdentityHashMap<ValueLocation, Integer>();
+		new DefinitionCounter(definitionCounts).countStatements(stmts);
+		return new Optimizer(definitionCounts).optimizeBlock(stmts);
+	}
+
+	/**
+	 * How many blocks deep the statements being optimized are; 0 at the
+	 * top level, which is the only place where constants are recorded.
+	 */
+	private int depth = -1;
+
+	private List<Statement> optimizeBlock(List<Statement> stmts) {
+		List<Statement> saved = out;
+		out = new ArrayList<Statement>(stmts.size());
+		depth++;
+		for (Statement stmt : stmts) {
+			stmt.matchStatement(this);
+			if (!out.isEmpty() && isJump(out.get(out.size() - 1))) {
+				break;
+			}
+		}
+		depth--;
+		List<Statement> result = out;
+		out = saved;
+		return result;
+	}
+
+	private static boolean isJump(Statement stmt) {
+		return stmt.matchStatement(new Statement.AbstractMatcher<Boolean>() {
+			@Override
+			public Boolean caseBreak(LoopLabel loop) {
+				return true;
+			}
+			@Override
+			public Boolean caseReturn(Expression expr) {
+				return true;
+			}
+			@Override
+			public Boolean otherwise() {
+				return false;
+			}
+		});
+	}
+
+	private static Literal getConstant(Expression expr) {
+		return expr.matchExpression(new Expression.AbstractMatcher<Literal>() {
+			@Override
+			public Literal caseConstant(Literal l, ConstantCache cache) {
+				return l;
+			}
+			@Override
+			public Literal otherwise() {
+				return null;
+			}
+		});
+	}
+
+	private static boolean isNumber(Literal l) {
+		return l != null && l.matchLiteral(new Literal.AbstractMatcher<Boolean>() {
+			@Override
+			public Boolean caseNumber(double n) {
+				return true;
+			}
+			@Override
+			public Boolean otherwise() {
+				return false;
+			}
+		});
+	}
+
+	private static Value toValue(Literal l) {
+		return Interpreter.eval(Expression.makeConstant(l, new ConstantCache()), null);
+	}
+
+	private static Literal toLiteral(final Value v) {
+		return v.matchValue(new Value.AbstractMatcher<Literal>() {
+			@Override
+			public Literal caseNull() {
+				return Literal.makeNull();
+			}
+			@Override
+			public Literal caseBoolean(boolean b) {
+				return Literal.makeBoolean(b);
+			}
+			@Override
+			public Literal caseNumber(double n) {
+				return Literal.makeNumber(n);
+			}
+			@Override
+			public Literal otherwise() {
+				throw new AssertionError("not a literal: " + v);
+			}
+		});
+	}
+
+	/**
+	 * Evaluates an operation whose operands are all constants, using the
+	 * Interpreter so that the result is exactly what it would compute.
+	 */
+	private static Expression fold(Expression expr) {
+		return Expression.makeConstant(toLiteral(Interpreter.eval(expr, null)), new ConstantCache());
+	}
+
+	public Expression caseConstant(Literal l, ConstantCache cache) {
+		return Expression.makeConstant(l, cache);
+	}
+
+	public Expression caseValueLookup(ValueLocation val) {
+		Literal l = constants.get(val);
+		if (l != null) {
+			return Expression.makeConstant(l, new ConstantCache());
+		}
+		return Expression.makeValueLookup(val);
+	}
+
+	public Expression caseVariableLookup(VariableLocation var) {
+		return Expression.makeVariableLookup(var);
+	}
+
+	public Expression caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
+		Expression result = Expression.makeArithmeticOperation(op, left.matchExpression(this), right.matchExpression(this));
+		return foldNumeric(result);
+	}
+
+	public Expression caseEqualityOperation(EqualityOperator op, Expression left, Expression right) {
+		Expression newLeft = left.matchExpression(this);
+		Expression newRight = right.matchExpression(this);
+		Expression result = Expression.makeEqualityOperation(op, newLeft, newRight);
+		if (getConstant(newLeft) != null && getConstant(newRight) != null) {
+			return fold(result);
+		}
+		return result;
+	}
+
+	public Expression caseRelationalOperation(RelationalOperator op, Expression left, Expression right) {
+		Expression result = Expression.makeRelationalOperation(op, left.matchExpression(this), right.matchExpression(this));
+		return foldNumeric(result);
+	}
+
+	/**
+	 * Folds an arithmetic or relational operation if both operands are
+	 * number constants. Other constants are left alone, since casting them
+	 * throws at run time.
+	 */
+	private static Expression foldNumeric(Expression operation) {
+		boolean foldable = operation.matchExpression(new Expression.AbstractMatcher<Boolean>() {
+			@Override
+			public Boolean caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
+				return isNumber(getConstant(left)) && isNumber(getConstant(right));
+			}
+			@Override
+			public Boolean caseRelationalOperation(RelationalOperator op, Expression left, Expression right) {
+				return isNumber(getConstant(left)) && isNumber(getConstant(right));
+			}
+			@Override
+			public Boolean otherwise() {
+				return false;
+			}
+		});
+		return foldable ? fold(operation) : operation;
+	}
+
+	public Expression caseFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body, Frame frame) {
+		return Expression.makeFunctionAbstraction(self, parameters, optimizeBlock(body), frame);
+	}
+
+	public Expression caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
+		Expression newFunction = function.matchExpression(this);
+		List<Expression> newParameters = new ArrayList<Expression>(parameters.size());
+		for (Expression param : parameters) {
+			newParameters.add(param.matchExpression(this));
+		}
+		return Expression.makeFunctionApplication(newFunction, newParameters, site);
+	}
+
+	public Void caseThrowawayExpression(Expression expr) {
+		out.add(Statement.makeThrowawayExpression(expr.matchExpression(this)));
+		return null;
+	}
+
+	public Void caseValueDefinition(ValueLocation val, Expression expr) {
+		Expression newExpr = expr.matchExpression(this);
+		Literal l = getConstant(newExpr);
+		if (l != null && depth == 0 && definitionCounts.get(val) == 1) {
+			constants.put(val, l);
+		}
+		out.add(Statement.makeValueDefinition(val, newExpr));
+		return null;
+	}
+
+	public Void caseVariableAssignment(VariableLocation var, Expression expr) {
+		out.add(Statement.makeVariableAssignment(var, expr.matchExpression(this)));
+		return null;
+	}
+
+	public Void caseConditional(Expression cond, List<Statement> thenStmts, List<Statement> elseStmts) {
+		Expression newCond = cond.matchExpression(this);
+		Literal l = getConstant(newCond);
+		if (l != null) {
+			// The taken branch is spliced in; blocks do not have stores of
+			// their own, so this does not change any scoping.
+			List<Statement> taken = Interpreter.isTruthy(toValue(l)) ? thenStmts : elseStmts;
+			for (Statement stmt : optimizeBlock(taken)) {
+				out.add(stmt);
+			}
+		} else {
+			out.add(Statement.makeConditional(newCond, optimizeBlock(thenStmts), optimizeBlock(elseStmts)));
+		}
+		return null;
+	}
+
+	public Void caseLoop(LoopLabel loop, List<Statement> body) {
+		out.add(Statement.makeLoop(loop, optimizeBlock(body)));
+		return null;
+	}
+
+	public Void caseBreak(LoopLabel loop) {
+		out.add(Statement.makeBreak(loop));
+		return null;
+	}
+
+	public Void caseReturn(Expression expr) {
+		out.add(Statement.makeReturn(expr.matchExpression(this)));
+		return null;
+	}
+
+	/**
+	 * Counts the definitions of each value, so that only values defined
+	 * exactly once are substituted.
+	 */
+	private static final class DefinitionCounter extends Expression.AbstractMatcher<Void> implements Statement.Matcher<Void> {
+
+		private final Map<ValueLocation, Integer> counts;
+
+		DefinitionCounter(Map<ValueLocation, Integer> counts) {
+			this.counts = counts;
+		}
+
+		void countStatements(List<Statement> stmts) {
+			for (Statement stmt : stmts) {
+				stmt.matchStatement(this);
+			}
+		}
+
+		private void define(ValueLocation val) {
+			Integer count = counts.get(val);
+			counts.put(val, (count == null) ? 1 : count + 1);
+		}
+
+		@Override
+		public Void caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
+			left.matchExpression(this);
+			right.matchExpression(this);
+			return null;
+		}
+
+		@Override
+		public Void caseEqualityOperation(EqualityOperator op, Expression left, Expression right) {
+			left.matchExpression(this);
+			right.matchExpression(this);
+			return null;
+		}
+
+		@Override
+		public Void caseRelationalOperation(RelationalOperator op, Expression left, Expression right) {
+			left.matchExpression(this);
+			right.matchExpression(this);
+			return null;
+		}
+
+		@Override
+		public Void caseFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body, Frame frame) {
+			if (self != null) {
+				define(self);
+			}
+			for (ValueLocation param : parameters) {
+				define(param);
+			}
+			countStatements(body);
+			return null;
+		}
+
+		@Override
+		public Void caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
+			function.matchExpression(this);
+			for (Expression param : parameters) {
+				param.matchExpression(this);
+			}
+			return null;
+		}
+
+		@Override
+		public Void otherwise() {
+			return null;
+		}
+
+		public Void caseThrowawayExpression(Expression expr) {
+			return expr.matchExpression(this);
+		}
+
+		public Void caseValueDefinition(ValueLocation val, Expression expr) {
+			define(val);
+			return expr.matchExpression(this);
+		}
+
+		public Void caseVariableAssignment(VariableLocation var, Expression expr) {
+			return expr.matchExpression(this);
+		}
+
+		public Void caseConditional(Expression cond, List<Statement> thenStmts, List<Statement> elseStmts) {
+			cond.matchExpression(this);
+			countStatements(thenStmts);
+			countStatements(elseStmts);
+			return null;
+		}
+
+		public Void caseLoop(LoopLabel loop, List<Statement> body) {
+			countStatements(body);
+			return null;
+		}
+
+		public Void caseBreak(LoopLabel loop) {
+			return null;
+		}
+
+		public Void caseReturn(Expression expr) {
+			return expr.matchExpression(this);
+		}
+
+	}
+
+}
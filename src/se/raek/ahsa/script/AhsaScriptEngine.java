@@ -0,0 +1,202 @@
+package se.raek.ahsa.script;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+import org.antlr.runtime.RecognitionException;
+
+import se.raek.ahsa.AhsaContext;
+import se.raek.ahsa.CompiledScript;
+import se.raek.ahsa.interpreter.ExecutionMode;
+import se.raek.ahsa.interpreter.NumberValues;
+import se.raek.ahsa.interpreter.Value;
+
+/**
+ * A javax.script engine for Ahsa, with its own concurrent AhsaContext.
+ *
+ * A script is parsed and resolved once, when it is compiled, with every
+ * name in it that is not a built-in taken as an input. When it is
+ * evaluated, the inputs that are bound in the script context to null,
+ * booleans or numbers, or Ahsa values, are defined as top-level values of
+ * the script, with engine bindings hiding global ones of the same name;
+ * the other inputs are left undefined. When the script has run, the values
+ * and variables defined by its top-level statements are put in the engine
+ * bindings, with numbers as Doubles, booleans as Booleans, null as null
+ * and other values as they are. eval itself returns null.
+ *
+ * print writes to the writer of the script context that is being
+ * evaluated in the calling thread, or otherwise to that of the engine's
+ * own context.
+ */
+public final class AhsaScriptEngine extends AbstractScriptEngine implements Compilable {
+
+	private final AhsaScriptEngineFactory factory;
+	private final ThreadLocal<ScriptContext> evaluating = new ThreadLocal<ScriptContext>();
+	private final AhsaContext ahsa = new AhsaContext(ExecutionMode.concurrent(), new PrintWriter(new ContextWriter(), true));
+
+	AhsaScriptEngine(AhsaScriptEngineFactory factory) {
+		this.factory = factory;
+	}
+
+	public ScriptEngineFactory getFactory() {
+		return factory;
+	}
+
+	public Bindings createBindings() {
+		return new SimpleBindings();
+	}
+
+	public Object eval(String script, ScriptContext context) throws ScriptException {
+		return compile(script).eval(context);
+	}
+
+	public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+		return eval(readAll(reader), context);
+	}
+
+	public javax.script.CompiledScript compile(String script) throws ScriptException {
+		try {
+			return new Compiled(ahsa.compileWithFreeInputs(script));
+		} catch (RecognitionException e) {
+			throw new ScriptException(e);
+		} catch (RuntimeException e) {
+			// Such as a syntax error or an unbound loop label.
+			throw new ScriptException(e);
+		}
+	}
+
+	public javax.script.CompiledScript compile(Reader script) throws ScriptException {
+		return compile(readAll(script));
+	}
+
+	private final class Compiled extends javax.script.CompiledScript {
+
+		private final CompiledScript script;
+
+		Compiled(CompiledScript script) {
+			this.script = script;
+		}
+
+		public AhsaScriptEngine getEngine() {
+			return AhsaScriptEngine.this;
+		}
+
+		public Object eval(ScriptContext context) throws ScriptException {
+			Value[] inputs = inputs(script.getInputNames(), context);
+			ScriptContext saved = evaluating.get();
+			evaluating.set(context);
+			try {
+				AhsaContext.Result result = script.run(inputs);
+				Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+				for (String name : script.getDefinedNames()) {
+					bindings.put(name, toJava(result.get(name)));
+				}
+				return null;
+			} catch (RuntimeException e) {
+				throw new ScriptException(e);
+			} finally {
+				evaluating.set(saved);
+			}
+		}
+
+	}
+
+	/**
+	 * The values of the inputs called names in context, or null for those
+	 * that are not bound or have no Ahsa counterpart.
+	 */
+	private static Value[] inputs(List<String> names, ScriptContext context) {
+		Value[] inputs = new Value[names.size()];
+		for (int i = 0; i < inputs.length; i++) {
+			String name = names.get(i);
+			if (context.getAttributesScope(name) != -1) {
+				inputs[i] = toValue(context.getAttribute(name));
+			}
+		}
+		return inputs;
+	}
+
+	/**
+	 * Returns o as an Ahsa value, or null if it has no counterpart.
+	 */
+	private static Value toValue(Object o) {
+		if (o == null) return Value.makeNull();
+		if (o instanceof Value) return (Value) o;
+		if (o instanceof Boolean) return Value.makeBoolean((Boolean) o);
+		if (o instanceof Number) return NumberValues.make(((Number) o).doubleValue());
+		return null;
+	}
+
+	private static Object toJava(final Value v) {
+		return v.matchValue(new Value.AbstractMatcher<Object>() {
+			@Override
+			public Object caseNull() {
+				return null;
+			}
+			@Override
+			public Object caseBoolean(boolean b) {
+				return b;
+			}
+			@Override
+			public Object caseNumber(double n) {
+				return n;
+			}
+			@Override
+			public Object otherwise() {
+				return v;
+			}
+		});
+	}
+
+	private static String readAll(Reader reader) throws ScriptException {
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[4096];
+		try {
+			for (int n = reader.read(buf); n >= 0; n = reader.read(buf)) {
+				sb.append(buf, 0, n);
+			}
+		} catch (IOException e) {
+			throw new ScriptException(e);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes to the writer of the script context being evaluated.
+	 */
+	private final class ContextWriter extends Writer {
+
+		private Writer target() {
+			ScriptContext current = evaluating.get();
+			return (current != null ? current : context).getWriter();
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			target().write(cbuf, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			target().flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+	}
+
+}
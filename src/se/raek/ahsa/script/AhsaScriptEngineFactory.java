@@ -0,0 +1,89 @@
+package se.raek.ahsa.script;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+/**
+ * Makes Ahsa available through javax.script, under the name "ahsa". It is
+ * registered in META-INF/services, so that a ScriptEngineManager finds it.
+ */
+public final class AhsaScriptEngineFactory implements ScriptEngineFactory {
+
+	private static final String ENGINE_NAME = "Ahsa";
+	private static final String ENGINE_VERSION = "0.1";
+	private static final String LANGUAGE_NAME = "ahsa";
+	private static final String LANGUAGE_VERSION = "0.1";
+
+	public String getEngineName() {
+		return ENGINE_NAME;
+	}
+
+	public String getEngineVersion() {
+		return ENGINE_VERSION;
+	}
+
+	public List<String> getExtensions() {
+		return Collections.singletonList("ahsa");
+	}
+
+	public List<String> getMimeTypes() {
+		return Collections.emptyList();
+	}
+
+	public List<String> getNames() {
+		return Arrays.asList("ahsa", "Ahsa");
+	}
+
+	public String getLanguageName() {
+		return LANGUAGE_NAME;
+	}
+
+	public String getLanguageVersion() {
+		return LANGUAGE_VERSION;
+	}
+
+	public Object getParameter(String key) {
+		if (key.equals(ScriptEngine.ENGINE)) return ENGINE_NAME;
+		if (key.equals(ScriptEngine.ENGINE_VERSION)) return ENGINE_VERSION;
+		if (key.equals(ScriptEngine.NAME)) return LANGUAGE_NAME;
+		if (key.equals(ScriptEngine.LANGUAGE)) return LANGUAGE_NAME;
+		if (key.equals(ScriptEngine.LANGUAGE_VERSION)) return LANGUAGE_VERSION;
+		// Each evaluation runs in a store of its own.
+		if (key.equals("THREADING")) return "MULTITHREADED";
+		return null;
+	}
+
+	/**
+	 * Ahsa has no methods, so this returns a call of m with obj as the
+	 * first argument.
+	 */
+	public String getMethodCallSyntax(String obj, String m, String... args) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(m).append('(').append(obj);
+		for (String arg : args) {
+			sb.append(", ").append(arg);
+		}
+		return sb.append(')').toString();
+	}
+
+	public String getOutputStatement(String toDisplay) {
+		return "print(" + toDisplay + ")";
+	}
+
+	public String getProgram(String... statements) {
+		StringBuilder sb = new StringBuilder();
+		for (String stmt : statements) {
+			sb.append(stmt).append(";\n");
+		}
+		return sb.toString();
+	}
+
+	public ScriptEngine getScriptEngine() {
+		return new AhsaScriptEngine(this);
+	}
+
+}
@@ -0,0 +1,88 @@
+package se.raek.ahsa.vm;
+
+import java.util.List;
+
+import se.raek.ahsa.ast.LoopLabel;
+import se.raek.ahsa.interpreter.ControlAction;
+import se.raek.ahsa.interpreter.Function;
+import se.raek.ahsa.interpreter.Store;
+import se.raek.ahsa.interpreter.Value;
+
+/**
+ * The VirtualMachine counterpart of CompoundFunction.
+ */
+public final class BytecodeFunction implements Function {
+	
+	private final Prototype proto;
+	private final Store sto;
+	
+	BytecodeFunction(Prototype proto, Store sto) {
+		if (proto == null || sto == null) throw new NullPointerException();
+		this.proto = proto;
+		this.sto = sto;
+	}
+
+	public Value apply0() {
+		return run(newActivation(0));
+	}
+	
+	public Value apply1(Value v0) {
+		Store newStore = newActivation(1);
+		newStore.defineValue(proto.formalParameters.get(0), v0);
+		return run(newStore);
+	}
+	
+	public Value apply2(Value v0, Value v1) {
+		Store newStore = newActivation(2);
+		newStore.defineValue(proto.formalParameters.get(0), v0);
+		newStore.defineValue(proto.formalParameters.get(1), v1);
+		return run(newStore);
+	}
+	
+	public Value apply3(Value v0, Value v1, Value v2) {
+		Store newStore = newActivation(3);
+		newStore.defineValue(proto.formalParameters.get(0), v0);
+		newStore.defineValue(proto.formalParameters.get(1), v1);
+		newStore.defineValue(proto.formalParameters.get(2), v2);
+		return run(newStore);
+	}
+
+	public Value apply(List<Value> actualParameters) {
+		Store newStore = newActivation(actualParameters.size());
+		for (int i = 0; i < actualParameters.size(); i++) {
+			newStore.defineValue(proto.formalParameters.get(i), actualParameters.get(i));
+		}
+		return run(newStore);
+	}
+	
+	public void share() {
+		sto.share();
+	}
+	
+	private Store newActivation(int parameterCount) {
+		if (parameterCount != proto.formalParameters.size()) {
+			throw new Function.ArityException(proto.formalParameters.size(), parameterCount);
+		}
+		Store newStore = new Store(sto, proto.frame);
+		if (proto.self != null) {
+			newStore.defineValue(proto.self, Value.makeFunction(this));
+		}
+		return newStore;
+	}
+	
+	private Value run(Store newStore) {
+		ControlAction action = VirtualMachine.run(proto.code, newStore);
+		return action.matchControlAction(new ControlAction.Matcher<Value>() {
+			public Value caseNext() {
+				return Value.makeNull();
+			}
+			public Value caseBreak(LoopLabel loop) {
+				throw new AssertionError("Tried to break from loop, reached function top level. Loop label: " + loop);
+			}
+			public Value caseReturn(Value v) {
+				return v;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,39 @@
+package se.raek.ahsa.vm;
+
+/**
+ * A compiled unit: a function body, a top-level program or a single
+ * expression.
+ */
+public final class Code {
+	
+	final int[] instructions;
+	final Object[] constants;
+	final int maxStack;
+	
+	Code(int[] instructions, Object[] constants, int maxStack) {
+		this.instructions = instructions;
+		this.constants = constants;
+		this.maxStack = maxStack;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		int pc = 0;
+		while (pc < instructions.length) {
+			int op = instructions[pc];
+			sb.append(pc).append('\t').append(Opcode.name(op));
+			pc++;
+			for (int i = 0; i < Opcode.operandCount(op); i++) {
+				sb.append(' ').append(instructions[pc]);
+				pc++;
+			}
+			sb.append('\n');
+		}
+		for (int k = 0; k < constants.length; k++) {
+			sb.append('#').append(k).append('\t').append(constants[k]).append('\n');
+		}
+		return sb.toString();
+	}
+
+}
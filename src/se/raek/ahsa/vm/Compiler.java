@@ -0,0 +1,305 @@
+package se.raek.ahsa.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import se.raek.ahsa.ast.ArithmeticOperator;
+import se.raek.ahsa.ast.CallSite;
+import se.raek.ahsa.ast.ConstantCache;
+import se.raek.ahsa.ast.EqualityOperator;
+import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.Frame;
+import se.raek.ahsa.ast.Literal;
+import se.raek.ahsa.ast.LoopLabel;
+import se.raek.ahsa.ast.RelationalOperator;
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.ast.ValueLocation;
+import se.raek.ahsa.ast.VariableLocation;
+import se.raek.ahsa.interpreter.NumberValues;
+import se.raek.ahsa.interpreter.Value;
+
+/**
+ * Compiles statements and expressions into Code for the VirtualMachine.
+ * Nested function abstractions are compiled once, into Prototypes in the
+ * constant pool.
+ */
+public final class Compiler implements Expression.Matcher<Void>, Statement.Matcher<Void> {
+	
+	private int[] instructions = new int[16];
+	private int length = 0;
+	private final List<Object> constants = new ArrayList<Object>();
+	private final Map<Object, Integer> constantIndices = new HashMap<Object, Integer>();
+	private int stackDepth = 0;
+	private int maxStack = 0;
+	private final List<LoopLabel> loops = new ArrayList<LoopLabel>();
+	private final List<List<Integer>> loopExits = new ArrayList<List<Integer>>();
+	
+	private Compiler() {
+	}
+	
+	public static Code compile(List<Statement> stmts) {
+		Compiler compiler = new Compiler();
+		compiler.compileStatements(stmts);
+		compiler.emit(Opcode.END);
+		return compiler.finish();
+	}
+	
+	public static Code compile(Statement stmt) {
+		return compile(Collections.singletonList(stmt));
+	}
+	
+	/**
+	 * Compiles an expression into code that leaves with a Return action
+	 * holding the value of the expression.
+	 */
+	public static Code compile(Expression expr) {
+		Compiler compiler = new Compiler();
+		expr.matchExpression(compiler);
+		compiler.emit(Opcode.RETURN);
+		return compiler.finish();
+	}
+	
+	private Code finish() {
+		return new Code(Arrays.copyOf(instructions, length), constants.toArray(), maxStack);
+	}
+	
+	private void append(int word) {
+		if (length == instructions.length) {
+			instructions = Arrays.copyOf(instructions, length * 2);
+		}
+		instructions[length++] = word;
+	}
+	
+	private void emit(int opcode) {
+		append(opcode);
+		adjustStack(opcode, 0);
+	}
+	
+	private void emit(int opcode, int operand) {
+		append(opcode);
+		append(operand);
+		adjustStack(opcode, operand);
+	}
+	
+	private int emitJump(int opcode) {
+		emit(opcode, -1);
+		return length - 1;
+	}
+	
+	private void patch(int site) {
+		instructions[site] = length;
+	}
+	
+	private void adjustStack(int opcode, int operand) {
+		switch (opcode) {
+		case Opcode.CONST:
+		case Opcode.LOAD_VALUE:
+		case Opcode.LOAD_VARIABLE:
+		case Opcode.CLOSURE:
+			stackDepth++;
+			break;
+		case Opcode.DEFINE_VALUE:
+		case Opcode.STORE_VARIABLE:
+		case Opcode.ADD:
+		case Opcode.SUBTRACT:
+		case Opcode.MULTIPLY:
+		case Opcode.DIVIDE:
+		case Opcode.EQUAL:
+		case Opcode.UNEQUAL:
+		case Opcode.GREATER:
+		case Opcode.LESS:
+		case Opcode.GREATER_EQUAL:
+		case Opcode.LESS_EQUAL:
+		case Opcode.POP:
+		case Opcode.JUMP_IF_FALSE:
+		case Opcode.RETURN:
+			stackDepth--;
+			break;
+		case Opcode.CALL:
+			stackDepth -= operand;
+			break;
+		}
+		maxStack = Math.max(maxStack, stackDepth);
+	}
+	
+	private int constant(Object c) {
+		Integer k = constantIndices.get(c);
+		if (k == null) {
+			k = constants.size();
+			constants.add(c);
+			constantIndices.put(c, k);
+		}
+		return k;
+	}
+	
+	private void compileStatements(List<Statement> stmts) {
+		for (Statement stmt : stmts) {
+			stmt.matchStatement(this);
+		}
+	}
+
+	public Void caseConstant(Literal l, ConstantCache cache) {
+		Value v = l.matchLiteral(new Literal.Matcher<Value>() {
+			public Value caseNull() {
+				return Value.makeNull();
+			}
+			public Value caseBoolean(boolean b) {
+				return Value.makeBoolean(b);
+			}
+			public Value caseNumber(double n) {
+				return NumberValues.make(n);
+			}
+		});
+		emit(Opcode.CONST, constant(v));
+		return null;
+	}
+
+	public Void caseValueLookup(ValueLocation val) {
+		emit(Opcode.LOAD_VALUE, constant(val));
+		return null;
+	}
+
+	public Void caseVariableLookup(VariableLocation var) {
+		emit(Opcode.LOAD_VARIABLE, constant(var));
+		return null;
+	}
+
+	public Void caseArithmeticOperation(ArithmeticOperator op, Expression left, Expression right) {
+		left.matchExpression(this);
+		right.matchExpression(this);
+		emit(op.matchArithmeticOperator(new ArithmeticOperator.Matcher<Integer>() {
+			public Integer caseAddition() {
+				return Opcode.ADD;
+			}
+			public Integer caseSubtraction() {
+				return Opcode.SUBTRACT;
+			}
+			public Integer caseMultiplication() {
+				return Opcode.MULTIPLY;
+			}
+			public Integer caseDivision() {
+				return Opcode.DIVIDE;
+			}
+		}));
+		return null;
+	}
+
+	public Void caseEqualityOperation(EqualityOperator op, Expression left, Expression right) {
+		left.matchExpression(this);
+		right.matchExpression(this);
+		emit(op.matchEqualityOperator(new EqualityOperator.Matcher<Integer>() {
+			public Integer caseEqual() {
+				return Opcode.EQUAL;
+			}
+			public Integer caseUnequal() {
+				return Opcode.UNEQUAL;
+			}
+		}));
+		return null;
+	}
+
+	public Void caseRelationalOperation(RelationalOperator op, Expression left, Expression right) {
+		left.matchExpression(this);
+		right.matchExpression(this);
+		emit(op.matchRelationalOperator(new RelationalOperator.Matcher<Integer>() {
+			public Integer caseGreater() {
+				return Opcode.GREATER;
+			}
+			public Integer caseLess() {
+				return Opcode.LESS;
+			}
+			public Integer caseGreaterEqual() {
+				return Opcode.GREATER_EQUAL;
+			}
+			public Integer caseLessEqual() {
+				return Opcode.LESS_EQUAL;
+			}
+		}));
+		return null;
+	}
+
+	public Void caseFunctionAbstraction(ValueLocation self, List<ValueLocation> parameters, List<Statement> body, Frame frame) {
+		Prototype proto = new Prototype(self, parameters, frame, compile(body));
+		emit(Opcode.CLOSURE, constant(proto));
+		return null;
+	}
+
+	public Void caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
+		function.matchExpression(this);
+		emit(Opcode.CAST_FUNCTION);
+		for (Expression param : parameters) {
+			param.matchExpression(this);
+		}
+		emit(Opcode.CALL, parameters.size());
+		return null;
+	}
+
+	public Void caseThrowawayExpression(Expression expr) {
+		expr.matchExpression(this);
+		emit(Opcode.POP);
+		return null;
+	}
+
+	public Void caseValueDefinition(ValueLocation val, Expression expr) {
+		expr.matchExpression(this);
+		emit(Opcode.DEFINE_VALUE, constant(val));
+		return null;
+	}
+
+	public Void caseVariableAssignment(VariableLocation var, Expression expr) {
+		expr.matchExpression(this);
+		emit(Opcode.STORE_VARIABLE, constant(var));
+		return null;
+	}
+
+	public Void caseConditional(Expression cond, List<Statement> thenStmts, List<Statement> elseStmts) {
+		cond.matchExpression(this);
+		int toElse = emitJump(Opcode.JUMP_IF_FALSE);
+		compileStatements(thenStmts);
+		if (elseStmts.isEmpty()) {
+			patch(toElse);
+		} else {
+			int toEnd = emitJump(Opcode.JUMP);
+			patch(toElse);
+			compileStatements(elseStmts);
+			patch(toEnd);
+		}
+		return null;
+	}
+
+	public Void caseLoop(LoopLabel loop, List<Statement> body) {
+		List<Integer> exits = new ArrayList<Integer>();
+		loops.add(loop);
+		loopExits.add(exits);
+		int start = length;
+		compileStatements(body);
+		emit(Opcode.JUMP, start);
+		loops.remove(loops.size() - 1);
+		loopExits.remove(loopExits.size() - 1);
+		for (int site : exits) {
+			patch(site);
+		}
+		return null;
+	}
+
+	public Void caseBreak(LoopLabel loop) {
+		int i = loops.lastIndexOf(loop);
+		if (i >= 0) {
+			loopExits.get(i).add(emitJump(Opcode.JUMP));
+		} else {
+			emit(Opcode.BREAK, constant(loop));
+		}
+		return null;
+	}
+
+	public Void caseReturn(Expression expr) {
+		expr.matchExpression(this);
+		emit(Opcode.RETURN);
+		return null;
+	}
+
+}
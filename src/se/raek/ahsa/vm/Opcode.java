@@ -0,0 +1,75 @@
+package se.raek.ahsa.vm;
+
+/**
+ * The instruction set of the virtual machine. Each instruction is an opcode
+ * followed by zero or one operand in the instruction array. Operands named k
+ * index the constant pool of the code object.
+ */
+public final class Opcode {
+	
+	private Opcode() {
+	}
+	
+	/** k: push constant k (a Value). */
+	public static final int CONST = 0;
+	/** k: push the value at ValueLocation k. */
+	public static final int LOAD_VALUE = 1;
+	/** k: push the variable at VariableLocation k. */
+	public static final int LOAD_VARIABLE = 2;
+	/** k: pop a value and define ValueLocation k to it. */
+	public static final int DEFINE_VALUE = 3;
+	/** k: pop a value and assign it to VariableLocation k. */
+	public static final int STORE_VARIABLE = 4;
+	public static final int ADD = 5;
+	public static final int SUBTRACT = 6;
+	public static final int MULTIPLY = 7;
+	public static final int DIVIDE = 8;
+	public static final int EQUAL = 9;
+	public static final int UNEQUAL = 10;
+	public static final int GREATER = 11;
+	public static final int LESS = 12;
+	public static final int GREATER_EQUAL = 13;
+	public static final int LESS_EQUAL = 14;
+	/** Replace the value on top of the stack with the Function it holds. */
+	public static final int CAST_FUNCTION = 15;
+	/** n: pop n arguments and a Function, push the result of the call. */
+	public static final int CALL = 16;
+	/** k: push a new function closing over the current store, from Prototype k. */
+	public static final int CLOSURE = 17;
+	public static final int POP = 18;
+	/** target: continue at target. */
+	public static final int JUMP = 19;
+	/** target: pop a value and continue at target if it is not truthy. */
+	public static final int JUMP_IF_FALSE = 20;
+	/** Pop a value and leave the code object with a Return action. */
+	public static final int RETURN = 21;
+	/** k: leave the code object with a Break action for LoopLabel k. */
+	public static final int BREAK = 22;
+	/** Leave the code object with a Next action. */
+	public static final int END = 23;
+	
+	private static final String[] names = {
+		"CONST", "LOAD_VALUE", "LOAD_VARIABLE", "DEFINE_VALUE", "STORE_VARIABLE",
+		"ADD", "SUBTRACT", "MULTIPLY", "DIVIDE",
+		"EQUAL", "UNEQUAL", "GREATER", "LESS", "GREATER_EQUAL", "LESS_EQUAL",
+		"CAST_FUNCTION", "CALL", "CLOSURE", "POP", "JUMP", "JUMP_IF_FALSE",
+		"RETURN", "BREAK", "END"
+	};
+	
+	private static final int[] operandCounts = {
+		1, 1, 1, 1, 1,
+		0, 0, 0, 0,
+		0, 0, 0, 0, 0, 0,
+		0, 1, 1, 0, 1, 1,
+		0, 1, 0
+	};
+	
+	public static String name(int opcode) {
+		return names[opcode];
+	}
+	
+	public static int operandCount(int opcode) {
+		return operandCounts[opcode];
+	}
+
+}
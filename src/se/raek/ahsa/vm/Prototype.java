@@ -0,0 +1,31 @@
+package se.raek.ahsa.vm;
+
+import java.util.List;
+
+import se.raek.ahsa.ast.Frame;
+import se.raek.ahsa.ast.ValueLocation;
+
+/**
+ * The compiled form of a function abstraction. A BytecodeFunction is a
+ * prototype closed over the store it was created in.
+ */
+final class Prototype {
+	
+	final ValueLocation self;
+	final List<ValueLocation> formalParameters;
+	final Frame frame;
+	final Code code;
+	
+	Prototype(ValueLocation self, List<ValueLocation> formalParameters, Frame frame, Code code) {
+		this.self = self;
+		this.formalParameters = formalParameters;
+		this.frame = frame;
+		this.code = code;
+	}
+	
+	@Override
+	public String toString() {
+		return "Prototype(" + self + ", " + formalParameters + ")";
+	}
+
+}
@@ -0,0 +1,266 @@
+package se.raek.ahsa.vm;
+
+import static se.raek.ahsa.interpreter.Interpreter.castToFunction;
+import static se.raek.ahsa.interpreter.Interpreter.castToNumber;
+import static se.raek.ahsa.interpreter.Interpreter.isTruthy;
+import static se.raek.ahsa.interpreter.Interpreter.numberEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.LoopLabel;
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.ast.ValueLocation;
+import se.raek.ahsa.ast.VariableLocation;
+import se.raek.ahsa.interpreter.ControlAction;
+import se.raek.ahsa.interpreter.Function;
+import se.raek.ahsa.interpreter.NumberValues;
+import se.raek.ahsa.interpreter.Store;
+import se.raek.ahsa.interpreter.Value;
+
+/**
+ * An alternative to the tree-walking Interpreter that runs Code produced by
+ * the Compiler. The entry points mirror those of Interpreter.
+ */
+public final class VirtualMachine {
+	
+	private VirtualMachine() {
+	}
+	
+	public static Value eval(Expression expr, Store sto) {
+		return run(Compiler.compile(expr), sto).matchControlAction(new ControlAction.AbstractMatcher<Value>() {
+			@Override
+			public Value caseReturn(Value v) {
+				return v;
+			}
+			@Override
+			public Value otherwise() {
+				throw new AssertionError("Expression code did not return a value");
+			}
+		});
+	}
+	
+	public static ControlAction execute(Statement stmt, Store sto) {
+		return run(Compiler.compile(stmt), sto);
+	}
+	
+	public static ControlAction execute(List<Statement> stmts, Store sto) {
+		return run(Compiler.compile(stmts), sto);
+	}
+	
+	public static void executeTopLevel(List<Statement> stmts, Store sto) {
+		executeTopLevel(Compiler.compile(stmts), sto);
+	}
+	
+	public static void executeTopLevel(Code code, Store sto) {
+		run(code, sto).matchControlAction(new ControlAction.Matcher<Void>() {
+			public Void caseNext() {
+				return null;
+			}
+			public Void caseBreak(LoopLabel loop) {
+				throw new AssertionError("Tried to break from loop, reached program top level. Loop label: " + loop);
+			}
+			public Void caseReturn(Value v) {
+				throw new AssertionError("Tried to return from function, reached program top level. Return value: " + v);
+			}
+		});
+	}
+	
+	/*
+	 * Numbers computed by arithmetic are kept unboxed: their stack slot is
+	 * null and the number is in the same slot of the parallel nums array.
+	 */
+	
+	private static double number(Object[] stack, double[] nums, int i) {
+		Object o = stack[i];
+		return (o == null) ? nums[i] : castToNumber((Value) o);
+	}
+	
+	private static Value value(Object[] stack, double[] nums, int i) {
+		Object o = stack[i];
+		return (o == null) ? NumberValues.make(nums[i]) : (Value) o;
+	}
+	
+	private static boolean equal(Object[] stack, double[] nums, int i, int j) {
+		Object l = stack[i];
+		Object r = stack[j];
+		if (l == null) {
+			return (r == null) ? Double.compare(nums[i], nums[j]) == 0 : numberEquals(nums[i], (Value) r);
+		} else {
+			return (r == null) ? numberEquals(nums[j], (Value) l) : l.equals(r);
+		}
+	}
+	
+	static ControlAction run(Code code, Store sto) {
+		final int[] ins = code.instructions;
+		final Object[] consts = code.constants;
+		final Object[] stack = new Object[code.maxStack];
+		final double[] nums = new double[code.maxStack];
+		int sp = 0;
+		int pc = 0;
+		while (true) {
+			switch (ins[pc++]) {
+			case Opcode.CONST:
+				stack[sp++] = consts[ins[pc++]];
+				break;
+			case Opcode.LOAD_VALUE:
+				stack[sp++] = sto.lookupValue((ValueLocation) consts[ins[pc++]]);
+				break;
+			case Opcode.LOAD_VARIABLE: {
+				VariableLocation var = (VariableLocation) consts[ins[pc++]];
+				if (sto.holdsNumber(var)) {
+					nums[sp] = sto.lookupVariableNumber(var);
+					stack[sp++] = null;
+				} else {
+					stack[sp++] = sto.lookupVariable(var);
+				}
+				break;
+			}
+			case Opcode.DEFINE_VALUE:
+				sp--;
+				sto.defineValue((ValueLocation) consts[ins[pc++]], value(stack, nums, sp));
+				break;
+			case Opcode.STORE_VARIABLE: {
+				VariableLocation var = (VariableLocation) consts[ins[pc++]];
+				sp--;
+				if (stack[sp] == null) {
+					sto.assignVariableNumber(var, nums[sp]);
+				} else {
+					sto.assignVariable(var, (Value) stack[sp]);
+				}
+				break;
+			}
+			case Opcode.ADD: {
+				double l = number(stack, nums, sp - 2);
+				double r = number(stack, nums, sp - 1);
+				sp--;
+				stack[sp - 1] = null;
+				nums[sp - 1] = l + r;
+				break;
+			}
+			case Opcode.SUBTRACT: {
+				double l = number(stack, nums, sp - 2);
+				double r = number(stack, nums, sp - 1);
+				sp--;
+				stack[sp - 1] = null;
+				nums[sp - 1] = l - r;
+				break;
+			}
+			case Opcode.MULTIPLY: {
+				double l = number(stack, nums, sp - 2);
+				double r = number(stack, nums, sp - 1);
+				sp--;
+				stack[sp - 1] = null;
+				nums[sp - 1] = l * r;
+				break;
+			}
+			case Opcode.DIVIDE: {
+				double l = number(stack, nums, sp - 2);
+				double r = number(stack, nums, sp - 1);
+				sp--;
+				stack[sp - 1] = null;
+				nums[sp - 1] = l / r;
+				break;
+			}
+			case Opcode.EQUAL: {
+				boolean b = equal(stack, nums, sp - 2, sp - 1);
+				sp--;
+				stack[sp - 1] = Value.makeBoolean(b);
+				break;
+			}
+			case Opcode.UNEQUAL: {
+				boolean b = !equal(stack, nums, sp - 2, sp - 1);
+				sp--;
+				stack[sp - 1] = Value.makeBoolean(b);
+				break;
+			}
+			case Opcode.GREATER: {
+				double l = number(stack, nums, sp - 2);
+				double r = number(stack, nums, sp - 1);
+				sp--;
+				stack[sp - 1] = Value.makeBoolean(l > r);
+				break;
+			}
+			case Opcode.LESS: {
+				double l = number(stack, nums, sp - 2);
+				double r = number(stack, nums, sp - 1);
+				sp--;
+				stack[sp - 1] = Value.makeBoolean(l < r);
+				break;
+			}
+			case Opcode.GREATER_EQUAL: {
+				double l = number(stack, nums, sp - 2);
+				double r = number(stack, nums, sp - 1);
+				sp--;
+				stack[sp - 1] = Value.makeBoolean(l >= r);
+				break;
+			}
+			case Opcode.LESS_EQUAL: {
+				double l = number(stack, nums, sp - 2);
+				double r = number(stack, nums, sp - 1);
+				sp--;
+				stack[sp - 1] = Value.makeBoolean(l <= r);
+				break;
+			}
+			case Opcode.CAST_FUNCTION:
+				stack[sp - 1] = castToFunction(value(stack, nums, sp - 1));
+				break;
+			case Opcode.CALL: {
+				int n = ins[pc++];
+				Function fn = (Function) stack[sp - n - 1];
+				Value result;
+				switch (n) {
+				case 0:
+					result = fn.apply0();
+					break;
+				case 1:
+					result = fn.apply1(value(stack, nums, sp - 1));
+					break;
+				case 2:
+					result = fn.apply2(value(stack, nums, sp - 2), value(stack, nums, sp - 1));
+					break;
+				case 3:
+					result = fn.apply3(value(stack, nums, sp - 3), value(stack, nums, sp - 2), value(stack, nums, sp - 1));
+					break;
+				default:
+					List<Value> args = new ArrayList<Value>(n);
+					for (int i = sp - n; i < sp; i++) {
+						args.add(value(stack, nums, i));
+					}
+					result = fn.apply(args);
+				}
+				sp -= n;
+				stack[sp - 1] = result;
+				break;
+			}
+			case Opcode.CLOSURE:
+				stack[sp++] = Value.makeFunction(new BytecodeFunction((Prototype) consts[ins[pc++]], sto));
+				break;
+			case Opcode.POP:
+				sp--;
+				break;
+			case Opcode.JUMP:
+				pc = ins[pc];
+				break;
+			case Opcode.JUMP_IF_FALSE: {
+				int target = ins[pc++];
+				sp--;
+				if (stack[sp] != null && !isTruthy((Value) stack[sp])) {
+					pc = target;
+				}
+				break;
+			}
+			case Opcode.RETURN:
+				return ControlAction.makeReturn(value(stack, nums, sp - 1));
+			case Opcode.BREAK:
+				return ControlAction.makeBreak((LoopLabel) consts[ins[pc++]]);
+			case Opcode.END:
+				return ControlAction.makeNext();
+			default:
+				throw new AssertionError("Unknown opcode " + ins[pc - 1] + " at " + (pc - 1));
+			}
+		}
+	}
+
+}
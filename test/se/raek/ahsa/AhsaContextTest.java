@@ -0,0 +1,82 @@
+package se.raek.ahsa;
+
+import static org.junit.Assert.*;
+import static se.raek.ahsa.interpreter.Value.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import se.raek.ahsa.interpreter.ExecutionMode;
+
+public class AhsaContextTest {
+
+	private static final String NL = System.getProperty("line.separator");
+
+	@Test
+	public void valuesAndVariablesOfTheProgram() throws Exception {
+		AhsaContext.Result result = new AhsaContext().execute("val x = 1 + 2; var y = x * 2; y = y + 1;");
+		assertEquals(makeNumber(3), result.get("x"));
+		assertEquals(makeNumber(7), result.get("y"));
+	}
+
+	@Test(expected = AhsaContext.UnboundNameException.class)
+	public void programsDoNotSeeEachOther() throws Exception {
+		AhsaContext context = new AhsaContext();
+		context.execute("val x = 1;");
+		context.execute("val y = 2;").get("x");
+	}
+
+	@Test
+	public void printWritesToTheStreamOfTheContext() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		AhsaContext context = new AhsaContext(ExecutionMode.singleThreaded(), new PrintStream(bytes, true));
+		context.execute("print(box(1)); print(box(2));");
+		context.execute("print(id());");
+		assertEquals("#<box0>" + NL + "#<box1>" + NL + "#<id2>" + NL, bytes.toString());
+	}
+
+	@Test
+	public void spawnIsOnlyAvailableInConcurrentContexts() throws Exception {
+		AhsaContext context = new AhsaContext();
+		assertEquals(makeNumber(42), context.execute("val t = spawn(fn() { return 42; }); val r = join(t);").get("r"));
+		try {
+			new AhsaContext(ExecutionMode.singleThreaded(), System.out).execute("val s = spawn;").get("s");
+			fail();
+		} catch (RuntimeException e) {
+			// spawn is unbound
+		}
+	}
+
+	@Test
+	public void contextsRunInAThreadPool() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> outputs = new ArrayList<Future<String>>();
+			for (int i = 0; i < 200; i++) {
+				final int n = i;
+				outputs.add(pool.submit(new Callable<String>() {
+					public String call() throws Exception {
+						ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+						AhsaContext context = new AhsaContext(ExecutionMode.concurrent(), new PrintStream(bytes, true));
+						context.execute("val b = box(0); var i = 0; loop { if i == " + n + " { break; } box_set(b, box_get(b) + i); i = i + 1; } print(b); print(box_get(b));");
+						return bytes.toString();
+					}
+				}));
+			}
+			for (int i = 0; i < outputs.size(); i++) {
+				assertEquals("#<box0>" + NL + (double) (i * (i - 1) / 2) + NL, outputs.get(i).get());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
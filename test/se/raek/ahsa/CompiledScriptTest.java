@@ -0,0 +1,88 @@
+package se.raek.ahsa;
+
+import static org.junit.Assert.*;
+import static se.raek.ahsa.interpreter.Value.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.raek.ahsa.ast.CallSite;
+import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.ast.ValueLocation;
+
+public class CompiledScriptTest {
+
+	private static final String POLY = "val y = a * x * x + b; var calls = 0; calls = calls + 1;";
+
+	@Test
+	public void runsWithDifferentInputs() throws Exception {
+		CompiledScript script = new AhsaContext().compile(POLY, "a", "b", "x");
+		assertEquals(3, script.getInputCount());
+		for (int x = 0; x < 100; x++) {
+			AhsaContext.Result result = script.run(makeNumber(2), makeNumber(1), makeNumber(x));
+			assertEquals(makeNumber(2 * x * x + 1), result.get("y"));
+			assertEquals(makeNumber(1), result.get("calls"));
+		}
+	}
+
+	@Test
+	public void optimizedScriptsGiveTheSameResults() throws Exception {
+		String source = "val k = 2 * 3; val f = fn(n) { return n + k; }; val r = f(x);";
+		CompiledScript plain = new AhsaContext().compile(source, "x");
+		CompiledScript optimized = new AhsaContext().compile(source, true, "x");
+		assertEquals(makeNumber(10), plain.run(makeNumber(4)).get("r"));
+		assertEquals(makeNumber(10), optimized.run(makeNumber(4)).get("r"));
+	}
+
+	@Test
+	public void definedNamesAreTheTopLevelOnes() throws Exception {
+		CompiledScript script = new AhsaContext().compile("val a = 1; if a == 1 { val b = 2; } var c = a; c = 3;");
+		assertEquals(Arrays.asList("a", "c"), script.getDefinedNames());
+	}
+
+	private static CallSite callSite(Statement stmt) {
+		return stmt.matchStatement(new Statement.AbstractMatcher<CallSite>() {
+			@Override
+			public CallSite caseValueDefinition(ValueLocation val, Expression expr) {
+				return expr.matchExpression(new Expression.AbstractMatcher<CallSite>() {
+					@Override
+					public CallSite caseFunctionApplication(Expression function, List<Expression> parameters, CallSite site) {
+						return site;
+					}
+					@Override
+					public CallSite otherwise() {
+						throw new AssertionError();
+					}
+				});
+			}
+			@Override
+			public CallSite otherwise() {
+				throw new AssertionError();
+			}
+		});
+	}
+
+	@Test
+	public void runsKeepHittingTheCallSiteCaches() throws Exception {
+		CompiledScript script = new AhsaContext().compile("val twice = fn(n) { return n * 2; }; val r = twice(x);", "x");
+		CallSite site = callSite(script.getStatements().get(1));
+		Object cache = null;
+		for (int i = 0; i < 10; i++) {
+			assertEquals(makeNumber(2 * i), script.run(makeNumber(i)).get("r"));
+			if (i == 0) {
+				cache = site.getCache();
+				assertNotNull(cache);
+			}
+			assertSame(cache, site.getCache());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void inputsMustAllBeGiven() throws Exception {
+		new AhsaContext().compile(POLY, "a", "b", "x").run(makeNumber(1));
+	}
+
+}
@@ -0,0 +1,74 @@
+package se.raek.ahsa;
+
+import java.util.List;
+
+import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.Resolver;
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.interpreter.Interpreter;
+import se.raek.ahsa.interpreter.Store;
+import se.raek.ahsa.interpreter.Value;
+import se.raek.ahsa.optimizer.Optimizer;
+import se.raek.ahsa.parser.Environment;
+import se.raek.ahsa.vm.VirtualMachine;
+
+/**
+ * Runs programs from source in tests, against the built-ins in a store of
+ * their own.
+ */
+public final class TestPrograms {
+
+	private TestPrograms() {
+	}
+
+	public enum Engine {
+		INTERPRETER, VIRTUAL_MACHINE
+	}
+
+	/**
+	 * Runs source in the interpreter, without optimizing it, and returns
+	 * the value of the expression result.
+	 */
+	public static Value run(String source, String result) throws Exception {
+		return run(source, result, Engine.INTERPRETER, false);
+	}
+
+	/**
+	 * Runs source in engine, after optimizing it if optimize is true. Then
+	 * parses and resolves result as an expression in the scope of the
+	 * top-level of the program, and returns its value as evaluated by the
+	 * interpreter.
+	 */
+	public static Value run(String source, final String result, Engine engine, boolean optimize) throws Exception {
+		Environment env = new Environment();
+		Store sto = new Store();
+		Main.addBuiltIns(env, sto);
+		List<Statement> stmts = Parser.parseProgram(source, env);
+		if (optimize) {
+			stmts = Optimizer.optimize(stmts);
+		}
+		Resolver.resolveTopLevel(stmts, sto.getFrame());
+		switch (engine) {
+		case INTERPRETER:
+			Interpreter.executeTopLevel(stmts, sto);
+			break;
+		case VIRTUAL_MACHINE:
+			VirtualMachine.executeTopLevel(stmts, sto);
+			break;
+		}
+		List<Statement> resultStmts = Parser.parseProgram(result + ";", env);
+		Resolver.resolveTopLevel(resultStmts, sto.getFrame());
+		if (resultStmts.size() != 1) throw new IllegalArgumentException("not one expression: " + result);
+		return Interpreter.eval(resultStmts.get(0).matchStatement(new Statement.AbstractMatcher<Expression>() {
+			@Override
+			public Expression caseThrowawayExpression(Expression expr) {
+				return expr;
+			}
+			@Override
+			public Expression otherwise() {
+				throw new IllegalArgumentException("not an expression: " + result);
+			}
+		}), sto);
+	}
+
+}
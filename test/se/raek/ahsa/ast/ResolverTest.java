@@ -0,0 +1,97 @@
+package se.raek.ahsa.ast;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static se.raek.ahsa.ast.Expression.*;
+import static se.raek.ahsa.ast.Statement.*;
+
+public class ResolverTest {
+	
+	private static final Expression cNull = makeConstant(Literal.makeNull(), new ConstantCache());
+
+	@Test
+	public void topLevelValuesGetConsecutiveSlots() {
+		ValueLocation x = new ValueLocation("x");
+		ValueLocation y = new ValueLocation("y");
+		List<Statement> stmts = new ArrayList<Statement>();
+		stmts.add(makeValueDefinition(x, cNull));
+		stmts.add(makeValueDefinition(y, cNull));
+		Frame frame = new Frame();
+		Resolver.resolveTopLevel(stmts, frame);
+		assertEquals(0, x.getLevel());
+		assertEquals(0, x.getIndex());
+		assertEquals(0, y.getLevel());
+		assertEquals(1, y.getIndex());
+		assertEquals(2, frame.getValueCount());
+	}
+
+	@Test
+	public void slotsAfterExistingOnes() {
+		Frame frame = new Frame();
+		frame.allocateValue();
+		ValueLocation x = new ValueLocation("x");
+		Resolver.resolveTopLevel(Collections.singletonList(makeValueDefinition(x, cNull)), frame);
+		assertEquals(1, x.getIndex());
+	}
+
+	@Test
+	public void variablesInConditionalsAndLoops() {
+		VariableLocation a = new VariableLocation("a");
+		VariableLocation b = new VariableLocation("b");
+		Statement assignB = makeVariableAssignment(b, makeVariableLookup(a));
+		Statement loop = makeLoop(new LoopLabel("l"), Collections.singletonList(assignB));
+		Statement cond = makeConditional(cNull, Collections.singletonList(loop), Collections.<Statement>emptyList());
+		Frame frame = new Frame();
+		Resolver.resolveTopLevel(Collections.singletonList(cond), frame);
+		assertEquals(0, a.getIndex());
+		assertEquals(1, b.getIndex());
+		assertEquals(2, frame.getVariableCount());
+	}
+
+	@Test
+	public void functionGetsOwnFrame() {
+		ValueLocation f = new ValueLocation("f");
+		ValueLocation self = new ValueLocation("self");
+		ValueLocation param = new ValueLocation("p");
+		ValueLocation local = new ValueLocation("l");
+		Frame fnFrame = new Frame();
+		List<Statement> body = Collections.singletonList(makeValueDefinition(local, makeValueLookup(f)));
+		Expression fn = makeFunctionAbstraction(self, Collections.singletonList(param), body, fnFrame);
+		Frame frame = new Frame();
+		Resolver.resolveTopLevel(Collections.singletonList(makeValueDefinition(f, fn)), frame);
+		assertEquals(1, frame.getValueCount());
+		assertEquals(3, fnFrame.getValueCount());
+		assertEquals(0, f.getLevel());
+		assertEquals(1, self.getLevel());
+		assertEquals(0, self.getIndex());
+		assertEquals(1, param.getIndex());
+		assertEquals(2, local.getIndex());
+		assertEquals(1, local.getLevel());
+	}
+
+	@Test
+	public void resolvingTwiceKeepsSlots() {
+		ValueLocation x = new ValueLocation("x");
+		List<Statement> stmts = Collections.singletonList(makeValueDefinition(x, cNull));
+		Frame frame = new Frame();
+		Resolver.resolveTopLevel(stmts, frame);
+		Resolver.resolveTopLevel(stmts, frame);
+		assertEquals(0, x.getIndex());
+		assertEquals(1, frame.getValueCount());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void resolvingAtOtherLevel() {
+		ValueLocation x = new ValueLocation("x");
+		List<Statement> stmts = Collections.singletonList(makeValueDefinition(x, cNull));
+		Resolver.resolve(stmts, new Frame(), 0);
+		Resolver.resolve(stmts, new Frame(), 1);
+	}
+
+}
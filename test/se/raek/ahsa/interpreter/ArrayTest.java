@@ -0,0 +1,268 @@
+package se.raek.ahsa.interpreter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import se.raek.ahsa.interpreter.Array;
+import se.raek.ahsa.interpreter.Value;
+
+public class ArrayTest {
+
+	private static final Value vNull = Value.makeNull();
+	private static final Value vTrue = Value.makeBoolean(true);
+	private static final Value vFalse = Value.makeBoolean(false);
+
+	@Test
+	public void newArrayHoldsNulls() {
+		Array array = new Array(3);
+		assertEquals(3, array.getLength());
+		assertEquals(vNull, array.subscript(2));
+		array.assignSubscript(1, vNull);
+		assertTrue(array.getStorage() instanceof ArrayStorage.Nulls);
+	}
+
+	@Test
+	public void numbersAreStoredUnboxed() {
+		Array array = new Array(4);
+		array.assignSubscript(0, Value.makeNumber(1.5));
+		array.assignSubscript(1, Value.makeNumber(-0.0));
+		array.assignSubscript(2, Value.makeNumber(Double.NaN));
+		assertTrue(array.getStorage() instanceof ArrayStorage.Numbers);
+		assertEquals(Value.makeNumber(1.5), array.subscript(0));
+		assertEquals(Value.makeNumber(-0.0), array.subscript(1));
+		assertEquals(Value.makeNumber(Double.NaN), array.subscript(2));
+		assertEquals(vNull, array.subscript(3));
+		array.assignSubscript(0, vNull);
+		assertEquals(vNull, array.subscript(0));
+		assertTrue(array.getStorage() instanceof ArrayStorage.Numbers);
+	}
+
+	@Test
+	public void booleansArePacked() {
+		Array array = new Array(130);
+		array.assignSubscript(0, vTrue);
+		array.assignSubscript(64, vFalse);
+		array.assignSubscript(129, vTrue);
+		assertTrue(array.getStorage() instanceof ArrayStorage.Booleans);
+		assertEquals(vTrue, array.subscript(0));
+		assertEquals(vNull, array.subscript(1));
+		assertEquals(vFalse, array.subscript(64));
+		assertEquals(vTrue, array.subscript(129));
+		array.assignSubscript(129, vNull);
+		assertEquals(vNull, array.subscript(129));
+	}
+
+	@Test
+	public void mixedValuesSwitchToGenericStorage() {
+		Array array = new Array(3);
+		array.assignSubscript(0, Value.makeNumber(7));
+		array.assignSubscript(1, vTrue);
+		assertTrue(array.getStorage() instanceof ArrayStorage.Generic);
+		assertEquals(Value.makeNumber(7), array.subscript(0));
+		assertEquals(vTrue, array.subscript(1));
+		assertEquals(vNull, array.subscript(2));
+		Value box = Value.makeBox(new Box(vNull));
+		array.assignSubscript(2, box);
+		assertEquals(box, array.subscript(2));
+	}
+
+	@Test
+	public void nullSentinelIsNotMistakenForNull() {
+		Array array = new Array(2);
+		array.assignSubscript(0, Value.makeNumber(1));
+		Value sentinel = Value.makeNumber(Double.longBitsToDouble(0x7ff80000deadbeefL));
+		array.assignSubscript(1, sentinel);
+		assertTrue(array.getStorage() instanceof ArrayStorage.Generic);
+		assertSame(sentinel, array.subscript(1));
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void indexOutOfBounds() {
+		Array array = new Array(64);
+		array.assignSubscript(0, vTrue);
+		array.subscript(64);
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void indexOutOfBoundsWhenSwitchingStorage() {
+		Array array = new Array(2);
+		array.assignSubscript(0, Value.makeNumber(1));
+		array.assignSubscript(2, vTrue);
+	}
+
+	private static Array numbers(int... ns) {
+		Array array = new Array(ns.length);
+		for (int i = 0; i < ns.length; i++) {
+			array.assignSubscript(i, Value.makeNumber(ns[i]));
+		}
+		return array;
+	}
+
+	private static void assertNumbers(Array array, int... ns) {
+		assertEquals(ns.length, array.getLength());
+		for (int i = 0; i < ns.length; i++) {
+			assertEquals(Value.makeNumber(ns[i]), array.subscript(i));
+		}
+	}
+
+	@Test
+	public void fill() {
+		Array array = new Array(100);
+		array.fill(vTrue);
+		assertTrue(array.getStorage() instanceof ArrayStorage.Booleans);
+		assertEquals(vTrue, array.subscript(99));
+		array.fill(Value.makeNumber(3));
+		assertTrue(array.getStorage() instanceof ArrayStorage.Numbers);
+		assertEquals(Value.makeNumber(3), array.subscript(0));
+		array.fill(vNull);
+		assertTrue(array.getStorage() instanceof ArrayStorage.Nulls);
+		assertEquals(vNull, array.subscript(50));
+	}
+
+	@Test
+	public void copyNumbers() {
+		Array src = numbers(1, 2, 3, 4);
+		Array dst = numbers(0, 0, 0, 0, 0);
+		Array.copy(src, 1, dst, 2, 3);
+		assertNumbers(dst, 0, 0, 2, 3, 4);
+		assertTrue(dst.getStorage() instanceof ArrayStorage.Numbers);
+	}
+
+	@Test
+	public void copyOverlapping() {
+		Array array = numbers(1, 2, 3, 4, 5);
+		Array.copy(array, 0, array, 1, 4);
+		assertNumbers(array, 1, 1, 2, 3, 4);
+		Array bools = new Array(4);
+		bools.assignSubscript(0, vTrue);
+		Array.copy(bools, 0, bools, 1, 3);
+		assertEquals(vTrue, bools.subscript(1));
+		assertEquals(vNull, bools.subscript(2));
+		Array.copy(bools, 1, bools, 0, 3);
+		assertEquals(vNull, bools.subscript(1));
+	}
+
+	@Test
+	public void copyBetweenStorageKinds() {
+		Array src = new Array(2);
+		src.assignSubscript(0, vFalse);
+		Array dst = numbers(1, 2, 3);
+		Array.copy(src, 0, dst, 1, 2);
+		assertTrue(dst.getStorage() instanceof ArrayStorage.Generic);
+		assertEquals(Value.makeNumber(1), dst.subscript(0));
+		assertEquals(vFalse, dst.subscript(1));
+		assertEquals(vNull, dst.subscript(2));
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void copyOutOfBounds() {
+		Array.copy(numbers(1, 2), 1, numbers(1, 2), 0, 2);
+	}
+
+	@Test
+	public void slice() {
+		assertNumbers(numbers(1, 2, 3, 4).slice(1, 3), 2, 3);
+		assertNumbers(numbers(1, 2).slice(2, 2));
+		Array bools = new Array(70);
+		bools.assignSubscript(65, vTrue);
+		Array slice = bools.slice(64, 70);
+		assertEquals(6, slice.getLength());
+		assertEquals(vTrue, slice.subscript(1));
+		assertEquals(vNull, slice.subscript(0));
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void sliceOutOfBounds() {
+		numbers(1, 2).slice(1, 3);
+	}
+
+	@Test
+	public void resize() {
+		Array array = numbers(1, 2, 3);
+		assertNumbers(array.resize(2), 1, 2);
+		Array larger = array.resize(5);
+		assertEquals(Value.makeNumber(3), larger.subscript(2));
+		assertEquals(vNull, larger.subscript(4));
+		assertNotSame(array, larger);
+		Array generic = new Array(1);
+		generic.assignSubscript(0, Value.makeBox(new Box(vNull)));
+		assertEquals(vNull, generic.resize(2).subscript(1));
+	}
+
+	@Test
+	public void compareAndSetNumbers() {
+		Array array = numbers(1, 2);
+		assertTrue(array.compareAndSet(0, Value.makeNumber(1), Value.makeNumber(5)));
+		assertFalse(array.compareAndSet(1, Value.makeNumber(1), Value.makeNumber(5)));
+		assertFalse(array.compareAndSet(1, vTrue, Value.makeNumber(5)));
+		assertTrue(array.compareAndSet(1, Value.makeNumber(2), vNull));
+		assertTrue(array.compareAndSet(1, vNull, Value.makeNumber(-0.0)));
+		assertFalse(array.compareAndSet(1, Value.makeNumber(0), vNull));
+		assertTrue(array.getStorage() instanceof ArrayStorage.Numbers);
+		assertEquals(Value.makeNumber(5), array.getVolatile(0));
+		assertEquals(Value.makeNumber(-0.0), array.getVolatile(1));
+	}
+
+	@Test
+	public void compareAndSetSwitchesStorage() {
+		Array array = new Array(3);
+		assertTrue(array.compareAndSet(1, vNull, Value.makeNumber(7)));
+		assertTrue(array.getStorage() instanceof ArrayStorage.Numbers);
+		assertTrue(array.compareAndSet(2, vNull, vTrue));
+		assertTrue(array.getStorage() instanceof ArrayStorage.Generic);
+		assertEquals(vNull, array.subscript(0));
+		assertEquals(Value.makeNumber(7), array.subscript(1));
+		assertEquals(vTrue, array.subscript(2));
+		Array bools = new Array(2);
+		bools.assignSubscript(0, vFalse);
+		bools.setRelease(1, vTrue);
+		assertEquals(vFalse, bools.getVolatile(0));
+		assertEquals(vTrue, bools.getVolatile(1));
+	}
+
+	@Test
+	public void getAndAdd() {
+		Array array = numbers(10);
+		assertEquals(Value.makeNumber(10), array.getAndAdd(0, 2.5));
+		assertEquals(Value.makeNumber(12.5), array.subscript(0));
+		Array generic = new Array(2);
+		generic.assignSubscript(0, vTrue);
+		generic.assignSubscript(1, Value.makeNumber(1));
+		assertEquals(Value.makeNumber(1), generic.getAndAdd(1, 1));
+		assertEquals(Value.makeNumber(2), generic.subscript(1));
+	}
+
+	@Test(expected = Interpreter.CastException.class)
+	public void getAndAddToNull() {
+		numbers(1, 2).resize(3).getAndAdd(2, 1);
+	}
+
+	@Test
+	public void concurrentAdditionsSurviveStorageSwitch() throws Exception {
+		final Array array = new Array(17);
+		array.fill(Value.makeNumber(0));
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 20000; j++) {
+						array.getAndAdd(j % 16, 1);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		// Moves the elements to generic storage while they are updated.
+		array.compareAndSet(16, Value.makeNumber(0), vTrue);
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertTrue(array.getStorage() instanceof ArrayStorage.Generic);
+		for (int i = 0; i < 16; i++) {
+			assertEquals(Value.makeNumber(4 * 20000 / 16), array.subscript(i));
+		}
+		assertEquals(vTrue, array.subscript(16));
+	}
+
+}
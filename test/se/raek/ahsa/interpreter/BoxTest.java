@@ -0,0 +1,79 @@
+package se.raek.ahsa.interpreter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import se.raek.ahsa.interpreter.Box;
+import se.raek.ahsa.interpreter.Value;
+
+public class BoxTest {
+
+	private static final Value vNull = Value.makeNull();
+
+	@Test
+	public void casComparesNumbersByValue() {
+		Box box = new Box(Value.makeNumber(1e9));
+		assertTrue(box.compareAndSet(Value.makeNumber(1e9), Value.makeNumber(0.0)));
+		assertFalse(box.compareAndSet(Value.makeNumber(-0.0), vNull));
+		assertEquals(Value.makeNumber(0.0), box.deref());
+		box.assign(Value.makeNumber(Double.NaN));
+		assertTrue(box.compareAndSet(Value.makeNumber(Double.NaN), vNull));
+		assertEquals(vNull, box.deref());
+	}
+
+	@Test
+	public void casComparesBoxesByIdentity() {
+		Value inner = Value.makeBox(new Box(vNull));
+		Box box = new Box(inner);
+		assertFalse(box.compareAndSet(Value.makeBox(new Box(vNull)), vNull));
+		assertTrue(box.compareAndSet(inner, vNull));
+	}
+
+	@Test
+	public void getAndSet() {
+		Box box = new Box(Value.makeNumber(1));
+		assertEquals(Value.makeNumber(1), box.getAndSet(Value.makeNumber(2)));
+		assertEquals(Value.makeNumber(2), box.deref());
+	}
+
+	@Test
+	public void concurrentSwapsAreNotLost() throws Exception {
+		final Box box = new Box(Value.makeNumber(0));
+		final Function increment = new AbstractFunctions.Function1() {
+			@Override
+			protected Value invoke(Value v) {
+				return Value.makeNumber(NumberValues.getNumber(v) + 1);
+			}
+		};
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						box.swap(increment);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(Value.makeNumber(40000), box.deref());
+	}
+
+	@Test
+	public void singleThreadedBoxes() {
+		ExecutionMode mode = ExecutionMode.singleThreaded();
+		Box box = new Box(Value.makeNumber(1), mode);
+		Box other = new Box(vNull, mode);
+		assertEquals(0, box.id);
+		assertEquals(1, other.id);
+		assertTrue(box.compareAndSet(Value.makeNumber(1), Value.makeNumber(2)));
+		assertFalse(box.compareAndSet(Value.makeNumber(1), vNull));
+		assertEquals(Value.makeNumber(2), box.getAndSet(Value.makeNumber(3)));
+		assertEquals(Value.makeNumber(3), box.deref());
+	}
+
+}
@@ -0,0 +1,99 @@
+package se.raek.ahsa.interpreter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import se.raek.ahsa.interpreter.Channel;
+import se.raek.ahsa.interpreter.Value;
+
+public class ChannelTest {
+
+	private static final Value vNull = Value.makeNull();
+
+	@Test
+	public void firstInFirstOut() {
+		Channel channel = new Channel(3);
+		channel.send(Value.makeNumber(1));
+		channel.send(Value.makeNumber(2));
+		assertEquals(Value.makeNumber(1), channel.recv());
+		channel.send(Value.makeNumber(3));
+		channel.send(Value.makeNumber(4));
+		assertEquals(Value.makeNumber(2), channel.tryRecv());
+		assertEquals(Value.makeNumber(3), channel.recv());
+		assertEquals(Value.makeNumber(4), channel.recv());
+		assertEquals(vNull, channel.tryRecv());
+	}
+
+	@Test
+	public void closedChannelIsDrainedThenEnds() {
+		Channel channel = new Channel(2);
+		channel.send(Value.makeBoolean(true));
+		channel.close();
+		channel.close();
+		assertTrue(channel.isClosed());
+		assertEquals(Value.makeBoolean(true), channel.recv());
+		assertEquals(vNull, channel.recv());
+	}
+
+	@Test(expected = Channel.ClosedException.class)
+	public void sendOnClosedChannel() {
+		Channel channel = new Channel(1);
+		channel.close();
+		channel.send(Value.makeNumber(1));
+	}
+
+	@Test(expected = Channel.NullMessageException.class)
+	public void nullCannotBeSent() {
+		new Channel(1).send(vNull);
+	}
+
+	@Test
+	public void closeWakesBlockedSender() throws Exception {
+		final Channel channel = new Channel(1);
+		channel.send(Value.makeNumber(1));
+		final Throwable[] thrown = new Throwable[1];
+		Thread sender = new Thread() {
+			public void run() {
+				try {
+					channel.send(Value.makeNumber(2));
+				} catch (Throwable e) {
+					thrown[0] = e;
+				}
+			}
+		};
+		sender.start();
+		while (sender.getState() != Thread.State.WAITING) {
+			Thread.yield();
+		}
+		channel.close();
+		sender.join();
+		assertTrue(thrown[0] instanceof Channel.ClosedException);
+	}
+
+	@Test
+	public void producerIsHeldBackByConsumer() throws Exception {
+		final Channel channel = new Channel(4);
+		final int n = 10000;
+		Thread producer = new Thread() {
+			public void run() {
+				for (int i = 0; i < n; i++) {
+					channel.send(Value.makeNumber(i));
+				}
+				channel.close();
+			}
+		};
+		producer.start();
+		double sum = 0;
+		int received = 0;
+		for (Value v = channel.recv(); v != vNull; v = channel.recv()) {
+			assertEquals(received, NumberValues.getNumber(v), 0.0);
+			sum += NumberValues.getNumber(v);
+			received++;
+		}
+		producer.join();
+		assertEquals(n, received);
+		assertEquals((n - 1) * n / 2.0, sum, 0.0);
+	}
+
+}
@@ -0,0 +1,40 @@
+package se.raek.ahsa.interpreter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import se.raek.ahsa.interpreter.Counter;
+
+public class CounterTest {
+
+	@Test
+	public void add() {
+		Counter counter = new Counter();
+		assertEquals(0.0, counter.sum(), 0.0);
+		counter.add(2.5);
+		counter.add(-1);
+		assertEquals(1.5, counter.sum(), 0.0);
+	}
+
+	@Test
+	public void concurrentAdditionsAreNotLost() throws Exception {
+		final Counter counter = new Counter();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 100000; j++) {
+						counter.add(1);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(800000.0, counter.sum(), 0.0);
+	}
+
+}
@@ -1,19 +1,28 @@
 package se.raek.ahsa.interpreter;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.*;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import org.junit.Test;
 
+import se.raek.ahsa.ast.ArithmeticOperator;
+import se.raek.ahsa.ast.CallSite;
+import se.raek.ahsa.ast.ConstantCache;
 import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.Frame;
 import se.raek.ahsa.ast.Literal;
 import se.raek.ahsa.ast.LoopLabel;
+import se.raek.ahsa.ast.Resolver;
 import se.raek.ahsa.ast.Statement;
 import se.raek.ahsa.ast.ValueLocation;
 import se.raek.ahsa.ast.VariableLocation;
+import se.raek.ahsa.interpreter.AbstractFunctions;
 import se.raek.ahsa.interpreter.Box;
 import se.raek.ahsa.interpreter.BuiltInFunctions;
 import se.raek.ahsa.interpreter.CompoundFunction;
@@ -42,31 +51,67 @@ public class InterpreterTest {
 	private final static Literal l1 = Literal.makeNumber(1.0);
 	private final static Literal l2 = Literal.makeNumber(2.0);
 	private final static Literal l3 = Literal.makeNumber(3.0);
-	private final static Expression c0 = makeConstant(l0);
-	private final static Expression c1 = makeConstant(l1);
-	private final static Expression c2 = makeConstant(l2);
-	private final static Expression c3 = makeConstant(l3);
-	private final static Expression c6 = makeConstant(Literal.makeNumber(6.0));
-	private final static Expression cNull = makeConstant(Literal.makeNull());
-	private final static ValueLocation valX = new ValueLocation("x");
-	private final static VariableLocation varY = new VariableLocation("y");
+	private final static Expression c0 = makeConstant(l0, new ConstantCache());
+	private final static Expression c1 = makeConstant(l1, new ConstantCache());
+	private final static Expression c2 = makeConstant(l2, new ConstantCache());
+	private final static Expression c3 = makeConstant(l3, new ConstantCache());
+	private final static Expression c6 = makeConstant(Literal.makeNumber(6.0), new ConstantCache());
+	private final static Expression cNull = makeConstant(Literal.makeNull(), new ConstantCache());
+	private final ValueLocation valX = new ValueLocation("x");
+	private final VariableLocation varY = new VariableLocation("y");
+
+	/**
+	 * Resolves stmts as a top-level program and returns a store for it.
+	 */
+	private static Store topLevelStore(List<Statement> stmts) {
+		Frame frame = new Frame();
+		Resolver.resolveTopLevel(stmts, frame);
+		return new Store(null, frame);
+	}
+
+	/**
+	 * Gives val a slot in the frame of sto and defines it there, as if it
+	 * were a built-in.
+	 */
+	private static void define(Store sto, ValueLocation val, Value v) {
+		val.resolve(sto.getLevel(), sto.getFrame().allocateValue());
+		sto.defineValue(val, v);
+	}
+
+	private static void assign(Store sto, VariableLocation var, Value v) {
+		if (!var.isResolved()) {
+			var.resolve(sto.getFrame().allocateVariable());
+		}
+		sto.assignVariable(var, v);
+	}
+
+	/**
+	 * Resolves a function defined at the top level and closes it over an
+	 * empty store.
+	 */
+	private static CompoundFunction function(ValueLocation self, List<ValueLocation> params, List<Statement> body) {
+		Frame frame = new Frame();
+		Statement def = makeThrowawayExpression(makeFunctionAbstraction(self, params, body, frame));
+		Resolver.resolveTopLevel(Collections.singletonList(def), new Frame());
+		return new CompoundFunction(self, params, body, frame, new Store());
+	}
 
 	@Test
 	public void evalConstant() {
-		assertEquals(v1, Interpreter.eval(makeConstant(l1), null));
+		assertEquals(v1, Interpreter.eval(makeConstant(l1, new ConstantCache()), null));
 	}
 
 	@Test
 	public void evalValueLookup() {
-		Store sto = new Store(null);
-		sto.defineValue(valX, v1);
+		Store sto = new Store();
+		define(sto, valX, v1);
 		assertEquals(v1, Interpreter.eval(makeValueLookup(valX), sto));
 	}
 
 	@Test
 	public void evalVariableLookup() {
-		Store sto = new Store(null);
-		sto.assignVariable(varY, v1);
+		Store sto = new Store();
+		assign(sto, varY, v1);
 		assertEquals(v1, Interpreter.eval(makeVariableLookup(varY), sto));
 	}
 
@@ -196,54 +241,56 @@ public class InterpreterTest {
 
 	@Test
 	public void executeThrowawayExpression() {
-		Store sto = new Store(null);
+		Store sto = new Store();
 		Interpreter.execute(makeThrowawayExpression(cNull), sto);
 	}
 
 	@Test
 	public void executeValueDefinition() {
-		Store sto = new Store(null);
-		Interpreter.execute(makeValueDefinition(valX, c1), sto);
+		Statement def = makeValueDefinition(valX, c1);
+		Store sto = topLevelStore(Collections.singletonList(def));
+		Interpreter.execute(def, sto);
 		assertEquals(v1, sto.lookupValue(valX));
 	}
 
 	@Test
 	public void executeVariableAssignment() {
-		Store sto = new Store(null);
-		Interpreter.execute(makeVariableAssignment(varY, c1), sto);
+		Statement assignment = makeVariableAssignment(varY, c1);
+		Store sto = topLevelStore(Collections.singletonList(assignment));
+		Interpreter.execute(assignment, sto);
 		assertEquals(v1, sto.lookupVariable(varY));
 	}
 
 	@Test
 	public void executeConditionalTrue() {
-		Expression c0 = makeConstant(Literal.makeNumber(0.0));
+		Expression c0 = makeConstant(Literal.makeNumber(0.0), new ConstantCache());
 		Expression lookupX = makeValueLookup(valX);
-		Store sto = new Store(null);
 		List<Statement> stmts = new ArrayList<Statement>();
-		stmts.add(makeValueDefinition(valX, makeConstant(Literal.makeNumber(2.0))));
+		stmts.add(makeValueDefinition(valX, makeConstant(Literal.makeNumber(2.0), new ConstantCache())));
 		Expression cond = makeRelationalOperation(GREATER_EQUAL, lookupX, c0);
 		Statement thenStmt = makeVariableAssignment(varY, lookupX);
 		Statement elseStmt = makeVariableAssignment(varY,
 				makeArithmeticOperation(SUBTRACTION, c0, lookupX));
 		stmts.add(makeConditional(cond, Collections.singletonList(thenStmt),
 				Collections.singletonList(elseStmt)));
+		Store sto = topLevelStore(stmts);
 		Interpreter.execute(stmts, sto);
 		assertEquals(makeNumber(2.0), sto.lookupVariable(varY));
 	}
 
 	@Test
 	public void executeConditionalFalse() {
-		Expression c0 = makeConstant(Literal.makeNumber(0.0));
+		Expression c0 = makeConstant(Literal.makeNumber(0.0), new ConstantCache());
 		Expression lookupX = makeValueLookup(valX);
-		Store sto = new Store(null);
 		List<Statement> stmts = new ArrayList<Statement>();
-		stmts.add(makeValueDefinition(valX, makeConstant(Literal.makeNumber(-2.0))));
+		stmts.add(makeValueDefinition(valX, makeConstant(Literal.makeNumber(-2.0), new ConstantCache())));
 		Expression cond = makeRelationalOperation(GREATER_EQUAL, lookupX, c0);
 		Statement thenStmt = makeVariableAssignment(varY, lookupX);
 		Statement elseStmt = makeVariableAssignment(varY,
 				makeArithmeticOperation(SUBTRACTION, c0, lookupX));
 		stmts.add(makeConditional(cond, Collections.singletonList(thenStmt),
 				Collections.singletonList(elseStmt)));
+		Store sto = topLevelStore(stmts);
 		Interpreter.execute(stmts, sto);
 		assertEquals(makeNumber(2.0), sto.lookupVariable(varY));
 	}
@@ -364,11 +411,11 @@ public class InterpreterTest {
 		ValueLocation x = new ValueLocation("x");
 		List<Statement> stmts = new ArrayList<Statement>();
 		List<Statement> bodyStmts = Collections.singletonList((Statement) makeValueDefinition(x, c0));
-		stmts.add(makeValueDefinition(f, makeFunctionAbstraction(null, Collections.<ValueLocation>emptyList(), bodyStmts)));
+		stmts.add(makeValueDefinition(f, makeFunctionAbstraction(null, Collections.<ValueLocation>emptyList(), bodyStmts, new Frame())));
 		List<Expression> params = Collections.emptyList();
-		stmts.add(makeThrowawayExpression(makeFunctionApplication(makeValueLookup(f), params)));
-		stmts.add(makeThrowawayExpression(makeFunctionApplication(makeValueLookup(f), params)));
-		Interpreter.execute(stmts, new Store());
+		stmts.add(makeThrowawayExpression(makeFunctionApplication(makeValueLookup(f), params, new CallSite())));
+		stmts.add(makeThrowawayExpression(makeFunctionApplication(makeValueLookup(f), params, new CallSite())));
+		Interpreter.execute(stmts, topLevelStore(stmts));
 	}
 	
 	@Test
@@ -377,11 +424,11 @@ public class InterpreterTest {
 		ValueLocation x = new ValueLocation("x");
 		List<Statement> stmts = new ArrayList<Statement>();
 		List<Statement> bodyStmts = Collections.emptyList();
-		stmts.add(makeValueDefinition(f, makeFunctionAbstraction(null, Collections.singletonList(x), bodyStmts)));
+		stmts.add(makeValueDefinition(f, makeFunctionAbstraction(null, Collections.singletonList(x), bodyStmts, new Frame())));
 		List<Expression> params = Collections.singletonList(c0);
-		stmts.add(makeThrowawayExpression(makeFunctionApplication(makeValueLookup(f), params)));
-		stmts.add(makeThrowawayExpression(makeFunctionApplication(makeValueLookup(f), params)));
-		Interpreter.execute(stmts, new Store());
+		stmts.add(makeThrowawayExpression(makeFunctionApplication(makeValueLookup(f), params, new CallSite())));
+		stmts.add(makeThrowawayExpression(makeFunctionApplication(makeValueLookup(f), params, new CallSite())));
+		Interpreter.execute(stmts, topLevelStore(stmts));
 	}
 	
 	@Test
@@ -392,11 +439,11 @@ public class InterpreterTest {
 		List<Statement> stmts = new ArrayList<Statement>();
 		Expression bodyExpr = makeArithmeticOperation(ADDITION, makeValueLookup(x), c1);
 		List<Statement> bodyStmts = Collections.singletonList((Statement) makeReturn(bodyExpr));
-		stmts.add(makeValueDefinition(f, makeFunctionAbstraction(null, Collections.singletonList(x), bodyStmts)));
+		stmts.add(makeValueDefinition(f, makeFunctionAbstraction(null, Collections.singletonList(x), bodyStmts, new Frame())));
 		Expression fExpr = makeValueLookup(f);
 		List<Expression> params = Collections.<Expression>singletonList(c2);
-		stmts.add(makeValueDefinition(y, makeFunctionApplication(fExpr, params)));
-		Store sto = new Store();
+		stmts.add(makeValueDefinition(y, makeFunctionApplication(fExpr, params, new CallSite())));
+		Store sto = topLevelStore(stmts);
 		Interpreter.execute(stmts, sto);
 		assertEquals(v3, sto.lookupValue(y));
 	}
@@ -406,10 +453,116 @@ public class InterpreterTest {
 		Expression function = cNull;
 		List<Expression> params = Collections.emptyList();
 		List<Statement> stmts = new ArrayList<Statement>();
-		stmts.add(makeThrowawayExpression(makeFunctionApplication(function, params)));
+		stmts.add(makeThrowawayExpression(makeFunctionApplication(function, params, new CallSite())));
 		Interpreter.execute(stmts, new Store());
 	}
-	
+
+	private static Value constantFunction(final double n) {
+		return Value.makeFunction(new AbstractFunctions.Function0() {
+			protected Value invoke() {
+				return Value.makeNumber(n);
+			}
+		});
+	}
+
+	/**
+	 * A compound function returning n, with code of its own.
+	 */
+	private static CompoundFunction compoundConstantFunction(double n) {
+		Expression c = makeConstant(Literal.makeNumber(n), new ConstantCache());
+		return function(null, Collections.<ValueLocation>emptyList(), Collections.<Statement>singletonList(makeReturn(c)));
+	}
+
+	/**
+	 * Another closure of the same code as fn.
+	 */
+	private static Value closureOf(CompoundFunction fn) {
+		return Value.makeFunction(new CompoundFunction(fn.self, fn.formalParameters, fn.body, fn.frame, new Store()));
+	}
+
+	@Test
+	public void callSiteRemembersCode() {
+		VariableLocation f = new VariableLocation("f");
+		Store sto = new Store();
+		CompoundFunction one = compoundConstantFunction(1.0);
+		assign(sto, f, Value.makeFunction(one));
+		CallSite site = new CallSite();
+		Expression call = makeFunctionApplication(makeVariableLookup(f), Collections.<Expression>emptyList(), site);
+		assertEquals(v1, Interpreter.eval(call, sto));
+		Object cache = site.getCache();
+		assertNotNull(cache);
+		assertSame(one.frame, ((CallSiteCache) cache).frame);
+		for (int i = 0; i < 10; i++) {
+			assign(sto, f, closureOf(one));
+			assertEquals(v1, Interpreter.eval(call, sto));
+			assertSame(cache, site.getCache());
+		}
+		assign(sto, f, Value.makeFunction(compoundConstantFunction(2.0)));
+		assertEquals(v2, Interpreter.eval(call, sto));
+		assertNotSame(cache, site.getCache());
+		assign(sto, f, constantFunction(3.0));
+		assertEquals(v3, Interpreter.eval(call, sto));
+		assertNull(((CallSiteCache) site.getCache()).frame);
+	}
+
+	@Test
+	public void megamorphicCallSite() {
+		VariableLocation f = new VariableLocation("f");
+		Store sto = new Store();
+		CallSite site = new CallSite();
+		Expression call = makeFunctionApplication(makeVariableLookup(f), Collections.<Expression>emptyList(), site);
+		for (int i = 0; i < 20; i++) {
+			assign(sto, f, Value.makeFunction(compoundConstantFunction(i % 7)));
+			assertEquals(Value.makeNumber(i % 7), Interpreter.eval(call, sto));
+		}
+		assertSame(CallSiteCache.MEGAMORPHIC, site.getCache());
+	}
+
+	@Test
+	public void stableCallSitesForgetMisses() {
+		VariableLocation f = new VariableLocation("f");
+		Store sto = new Store();
+		CallSite site = new CallSite();
+		Expression call = makeFunctionApplication(makeVariableLookup(f), Collections.<Expression>emptyList(), site);
+		for (int i = 0; i < 4 * CallSiteCache.MAX_MISSES; i++) {
+			assign(sto, f, Value.makeFunction(compoundConstantFunction(i)));
+			for (int j = 0; j <= CallSiteCache.STABLE_HITS; j++) {
+				assertEquals(Value.makeNumber(i), Interpreter.eval(call, sto));
+			}
+			assertNotSame(CallSiteCache.MEGAMORPHIC, site.getCache());
+		}
+	}
+
+	@Test
+	public void inlinedCallsUseTheirOwnStore() {
+		ValueLocation x = new ValueLocation("x");
+		List<Statement> body = Collections.<Statement>singletonList(makeReturn(
+				makeArithmeticOperation(MULTIPLICATION, makeValueLookup(x), c2)));
+		Value fn = Value.makeFunction(function(null, Collections.singletonList(x), body));
+		ValueLocation f = new ValueLocation("f");
+		Store sto = new Store();
+		define(sto, f, fn);
+		Expression inner = makeFunctionApplication(makeValueLookup(f), Collections.singletonList(c3), new CallSite());
+		Expression outer = makeFunctionApplication(makeValueLookup(f), Collections.singletonList(inner), new CallSite());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(Value.makeNumber(12.0), Interpreter.eval(outer, sto));
+		}
+	}
+
+	@Test(expected = Function.ArityException.class)
+	public void inlinedCallsCheckArity() {
+		ValueLocation x = new ValueLocation("x");
+		List<Statement> body = Collections.<Statement>singletonList(makeReturn(makeValueLookup(x)));
+		Value fn = Value.makeFunction(function(null, Collections.singletonList(x), body));
+		ValueLocation f = new ValueLocation("f");
+		Store sto = new Store();
+		define(sto, f, fn);
+		Interpreter.eval(makeFunctionApplication(makeValueLookup(f), Collections.singletonList(c1), new CallSite()), sto);
+		CallSite site = new CallSite();
+		Expression call = makeFunctionApplication(makeValueLookup(f), Collections.<Expression>emptyList(), site);
+		Interpreter.eval(call, sto);
+	}
+
 	@Test
 	public void executeTopLevelNormal() {
 		List<Statement> stmts = Collections.singletonList(makeThrowawayExpression(cNull));
@@ -451,7 +604,7 @@ public class InterpreterTest {
 		body.add(makeVariableAssignment(varA, makeArithmeticOperation(SUBTRACTION, makeVariableLookup(varA), c1)));
 		body.add(makeVariableAssignment(varB, makeArithmeticOperation(ADDITION, makeVariableLookup(varB), c1)));
 		stmts.add(makeLoop(loop, body));
-		Store sto = new Store();
+		Store sto = topLevelStore(stmts);
 		Interpreter.executeTopLevel(stmts, sto);
 		assertEquals(v0, sto.lookupVariable(varA));
 		assertEquals(v3, sto.lookupVariable(varB));
@@ -493,6 +646,36 @@ public class InterpreterTest {
 	public void typeNameBox() {
 		assertEquals("box", Interpreter.typeName(makeBox(new Box(makeNull()))));;
 	}
+
+	@Test
+	public void typeNameVec() {
+		assertEquals("vec", Interpreter.typeName(makeVec(new Vec())));
+	}
+
+	@Test
+	public void typeNameMap() {
+		assertEquals("map", Interpreter.typeName(makeTable(new Table())));
+	}
+
+	@Test
+	public void typeNamePVec() {
+		assertEquals("pvec", Interpreter.typeName(makePVec(new PVec())));
+	}
+
+	@Test
+	public void typeNameTask() {
+		assertEquals("task", Interpreter.typeName(makeTask(Task.spawn(BuiltInFunctions.vec))));
+	}
+
+	@Test
+	public void typeNameChannel() {
+		assertEquals("chan", Interpreter.typeName(makeChannel(new Channel(1))));
+	}
+
+	@Test
+	public void typeNameCounter() {
+		assertEquals("counter", Interpreter.typeName(makeCounter(new Counter())));
+	}
 	
 	@Test
 	public void isTruthyNull() {
@@ -554,4 +737,240 @@ public class InterpreterTest {
 		 Interpreter.castToInt(makeNumber(Integer.MAX_VALUE + 1l));
 	}
 
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void assumeAllocationCounting() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled());
+		allocatedBytes();
+	}
+
+	@Test
+	public void castsDoNotAllocate() {
+		assumeAllocationCounting();
+		Value fn = makeFunction(BuiltInFunctions.print);
+		final int iterations = 100000;
+		double sum = 0;
+		int calls = 0;
+		for (int round = 0; round < 2; round++) {
+			long before = allocatedBytes();
+			for (int i = 0; i < iterations; i++) {
+				sum += Interpreter.castToNumber(v3);
+				if (Interpreter.isTruthy(fn) && Interpreter.castToFunction(fn) != null) {
+					calls++;
+				}
+			}
+			long allocated = allocatedBytes() - before;
+			// allow for unrelated allocations, but not one per iteration
+			if (round == 1) {
+				assertTrue("allocated " + allocated + " bytes", allocated < iterations);
+			}
+		}
+		assertEquals(600000.0, sum, 0.0);
+		assertEquals(200000, calls);
+	}
+
+	@Test
+	public void operationsAllocateNoTemporaries() {
+		assumeAllocationCounting();
+		LoopLabel loop = new LoopLabel("loop");
+		ValueLocation valN = new ValueLocation("n");
+		VariableLocation varI = new VariableLocation("i");
+		VariableLocation varHits = new VariableLocation("hits");
+		final int depth = 50;
+		Expression arithmetic = makeVariableLookup(varI);
+		for (int i = 0; i < depth; i++) {
+			arithmetic = makeArithmeticOperation(ArithmeticOperator.values()[i % 4], arithmetic, c1);
+		}
+		List<Statement> body = new ArrayList<Statement>();
+		body.add(makeConditional(makeEqualityOperation(EQUAL, makeVariableLookup(varI), makeValueLookup(valN)),
+				Collections.singletonList(makeBreak(loop)),
+				Collections.<Statement>emptyList()));
+		body.add(makeConditional(makeRelationalOperation(GREATER_EQUAL, arithmetic, makeVariableLookup(varI)),
+				Collections.singletonList(makeVariableAssignment(varHits, makeArithmeticOperation(ADDITION, makeVariableLookup(varHits), c1))),
+				Collections.<Statement>emptyList()));
+		body.add(makeVariableAssignment(varI, makeArithmeticOperation(ADDITION, makeVariableLookup(varI), c1)));
+		List<Statement> stmts = new ArrayList<Statement>();
+		// not small integers, so that no intermediate result is interned
+		final double start = 1e6 + 0.5;
+		final int iterations = 10000;
+		stmts.add(makeVariableAssignment(varI, makeConstant(Literal.makeNumber(start), new ConstantCache())));
+		stmts.add(makeVariableAssignment(varHits, c0));
+		stmts.add(makeLoop(loop, body));
+		Store sto = topLevelStore(stmts);
+		define(sto, valN, makeNumber(start + iterations));
+		for (int round = 0; round < 3; round++) {
+			long before = allocatedBytes();
+			Interpreter.execute(stmts, sto);
+			long allocated = allocatedBytes() - before;
+			// less than a byte for each of the 50 operations of each iteration
+			if (round == 2) {
+				assertTrue("allocated " + allocated + " bytes", allocated < iterations);
+			}
+		}
+		assertEquals(makeNumber(iterations), sto.lookupVariable(varHits));
+	}
+
+	@Test
+	public void breakAndReturnDoNotAllocate() {
+		assumeAllocationCounting();
+		LoopLabel outer = new LoopLabel("outer");
+		LoopLabel inner = new LoopLabel("inner");
+		ValueLocation valN = new ValueLocation("n");
+		VariableLocation varI = new VariableLocation("i");
+		List<Statement> body = new ArrayList<Statement>();
+		body.add(makeLoop(inner, Collections.singletonList(makeBreak(inner))));
+		body.add(makeVariableAssignment(varI, makeArithmeticOperation(ADDITION, makeVariableLookup(varI), c1)));
+		body.add(makeConditional(makeRelationalOperation(GREATER_EQUAL, makeVariableLookup(varI), makeValueLookup(valN)),
+				Collections.singletonList(makeReturn(makeVariableLookup(varI))),
+				Collections.<Statement>emptyList()));
+		List<Statement> stmts = new ArrayList<Statement>();
+		stmts.add(makeVariableAssignment(varI, c0));
+		stmts.add(makeLoop(outer, body));
+		final int iterations = 10000;
+		Store sto = topLevelStore(stmts);
+		define(sto, valN, makeNumber(iterations));
+		for (int round = 0; round < 3; round++) {
+			long before = allocatedBytes();
+			assertEquals(ControlAction.makeReturn(makeNumber(iterations)), Interpreter.execute(stmts, sto));
+			long perIteration = (allocatedBytes() - before) / iterations;
+			// the constant 1 and the sum are the only allocations
+			if (round == 2) {
+				assertTrue("allocated " + perIteration + " bytes per iteration", perIteration <= 2 * 24);
+			}
+		}
+	}
+
+	@Test
+	public void smallIntegersAreInterned() {
+		assertSame(NumberValues.make(1000), NumberValues.make(1000.0));
+		assertSame(NumberValues.make(-3), NumberValues.make(-3));
+		assertNotSame(makeNumber(0.0), makeNumber(-0.0));
+		assertFalse(makeNumber(0.0).equals(makeNumber(-0.0)));
+	}
+
+	@Test
+	public void numericLoopsDoNotAllocate() {
+		assumeAllocationCounting();
+		LoopLabel loop = new LoopLabel("loop");
+		ValueLocation valStart = new ValueLocation("start");
+		ValueLocation valN = new ValueLocation("n");
+		VariableLocation varI = new VariableLocation("i");
+		VariableLocation varTotal = new VariableLocation("total");
+		List<Statement> body = new ArrayList<Statement>();
+		body.add(makeConditional(makeEqualityOperation(EQUAL, makeVariableLookup(varI), makeValueLookup(valN)),
+				Collections.singletonList(makeBreak(loop)),
+				Collections.<Statement>emptyList()));
+		body.add(makeVariableAssignment(varTotal, makeArithmeticOperation(ADDITION, makeVariableLookup(varTotal),
+				makeArithmeticOperation(MULTIPLICATION, makeVariableLookup(varI), makeVariableLookup(varI)))));
+		body.add(makeVariableAssignment(varI, makeArithmeticOperation(ADDITION, makeVariableLookup(varI), c1)));
+		List<Statement> stmts = new ArrayList<Statement>();
+		stmts.add(makeVariableAssignment(varI, makeValueLookup(valStart)));
+		stmts.add(makeVariableAssignment(varTotal, c0));
+		stmts.add(makeLoop(loop, body));
+		final int iterations = 10000;
+		final double start = 1e6;
+		Store sto = topLevelStore(stmts);
+		define(sto, valStart, makeNumber(start));
+		define(sto, valN, makeNumber(start + iterations));
+		for (int round = 0; round < 3; round++) {
+			long before = allocatedBytes();
+			Interpreter.execute(stmts, sto);
+			long allocated = allocatedBytes() - before;
+			if (round == 2) {
+				assertTrue("allocated " + allocated + " bytes", allocated < iterations);
+			}
+		}
+		double expected = 0;
+		for (double i = start; i < start + iterations; i++) {
+			expected += i * i;
+		}
+		assertEquals(makeNumber(expected), sto.lookupVariable(varTotal));
+	}
+
+	@Test
+	public void builtInCallsDoNotAllocate() {
+		assumeAllocationCounting();
+		LoopLabel loop = new LoopLabel("loop");
+		ValueLocation valF = new ValueLocation("f");
+		ValueLocation valN = new ValueLocation("n");
+		VariableLocation varI = new VariableLocation("i");
+		List<Statement> body = new ArrayList<Statement>();
+		body.add(makeConditional(makeEqualityOperation(EQUAL, makeVariableLookup(varI), makeValueLookup(valN)),
+				Collections.singletonList(makeBreak(loop)),
+				Collections.<Statement>emptyList()));
+		body.add(makeThrowawayExpression(makeFunctionApplication(makeValueLookup(valF), Arrays.asList(cNull, c1), new CallSite())));
+		body.add(makeVariableAssignment(varI, makeArithmeticOperation(ADDITION, makeVariableLookup(varI), c1)));
+		List<Statement> stmts = new ArrayList<Statement>();
+		stmts.add(makeVariableAssignment(varI, c0));
+		stmts.add(makeLoop(loop, body));
+		final int iterations = 10000;
+		Store sto = topLevelStore(stmts);
+		define(sto, valF, makeFunction(new AbstractFunctions.Function2() {
+			protected Value invoke(Value v0, Value v1) {
+				return v1;
+			}
+		}));
+		define(sto, valN, makeNumber(iterations));
+		for (int round = 0; round < 3; round++) {
+			long before = allocatedBytes();
+			Interpreter.execute(stmts, sto);
+			long allocated = allocatedBytes() - before;
+			if (round == 2) {
+				assertTrue("allocated " + allocated + " bytes", allocated < iterations);
+			}
+		}
+	}
+
+	@Test
+	public void fixedArityEntryPoints() {
+		ValueLocation x = new ValueLocation("x");
+		ValueLocation y = new ValueLocation("y");
+		List<ValueLocation> params = new ArrayList<ValueLocation>();
+		params.add(x);
+		params.add(y);
+		List<Statement> body = Collections.<Statement>singletonList(makeReturn(
+				makeArithmeticOperation(SUBTRACTION, makeValueLookup(x), makeValueLookup(y))));
+		Function fn = function(null, params, body);
+		assertEquals(v1, fn.apply2(v3, v2));
+		try {
+			fn.apply1(v3);
+			fail();
+		} catch (Function.ArityException e) {
+		}
+		try {
+			fn.apply3(v3, v2, v1);
+			fail();
+		} catch (Function.ArityException e) {
+		}
+		try {
+			BuiltInFunctions.print.apply0();
+			fail();
+		} catch (Function.ArityException e) {
+		}
+	}
+
+	@Test
+	public void selfTailCallsRunInConstantSpace() {
+		ValueLocation count = new ValueLocation("count");
+		ValueLocation n = new ValueLocation("n");
+		ValueLocation acc = new ValueLocation("acc");
+		List<ValueLocation> params = new ArrayList<ValueLocation>();
+		params.add(n);
+		params.add(acc);
+		List<Expression> args = new ArrayList<Expression>();
+		args.add(makeArithmeticOperation(SUBTRACTION, makeValueLookup(n), c1));
+		args.add(makeArithmeticOperation(ADDITION, makeValueLookup(acc), c2));
+		List<Statement> body = new ArrayList<Statement>();
+		body.add(makeConditional(makeEqualityOperation(EQUAL, makeValueLookup(n), c0),
+				Collections.<Statement>singletonList(makeReturn(makeValueLookup(acc))),
+				Collections.<Statement>emptyList()));
+		body.add(makeReturn(makeFunctionApplication(makeValueLookup(count), args, new CallSite())));
+		Function fn = function(count, params, body);
+		assertEquals(makeNumber(2e6), fn.apply2(makeNumber(1e6), v0));
+	}
+
 }
@@ -0,0 +1,110 @@
+package se.raek.ahsa.interpreter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import se.raek.ahsa.interpreter.PVec;
+import se.raek.ahsa.interpreter.Value;
+
+public class PVecTest {
+
+	private static PVec range(int n) {
+		PVec v = new PVec();
+		for (int i = 0; i < n; i++) {
+			v = v.conj(Value.makeNumber(i));
+		}
+		return v;
+	}
+
+	private static void assertRange(PVec v, int n) {
+		assertEquals(n, v.getLength());
+		for (int i = 0; i < n; i++) {
+			assertEquals(Value.makeNumber(i), v.get(i));
+		}
+	}
+
+	@Test
+	public void conj() {
+		// Enough elements for a trie of three levels.
+		assertRange(range(0), 0);
+		assertRange(range(33), 33);
+		assertRange(range(1100), 1100);
+		assertRange(range(40000), 40000);
+	}
+
+	@Test
+	public void oldVersionsAreUnchanged() {
+		PVec v1 = range(100);
+		PVec v2 = v1.conj(Value.makeNumber(100));
+		PVec v3 = v2.assoc(5, Value.makeBoolean(true)).assoc(99, Value.makeNull());
+		assertRange(v1, 100);
+		assertRange(v2, 101);
+		assertEquals(Value.makeBoolean(true), v3.get(5));
+		assertEquals(Value.makeNull(), v3.get(99));
+		assertEquals(Value.makeNumber(100), v3.get(100));
+	}
+
+	@Test
+	public void pop() {
+		PVec v = range(1100);
+		for (int n = 1100; n > 0; n--) {
+			assertEquals(n, v.getLength());
+			assertEquals(Value.makeNumber(n - 1), v.get(n - 1));
+			v = v.pop();
+		}
+		assertEquals(0, v.getLength());
+		assertRange(range(1100).pop().conj(Value.makeNumber(1099)), 1100);
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void popEmpty() {
+		new PVec().pop();
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void getOutOfBounds() {
+		range(40).get(40);
+	}
+
+	@Test
+	public void transientConjAndAssoc() {
+		PVec base = range(50);
+		PVec.Transient t = base.asTransient();
+		for (int i = 50; i < 2000; i++) {
+			t.conj(Value.makeNumber(i));
+		}
+		t.assoc(3, Value.makeNull());
+		t.assoc(3, Value.makeNumber(3));
+		t.assoc(1990, Value.makeNull());
+		PVec built = t.persistent();
+		assertRange(base, 50);
+		assertEquals(Value.makeNull(), built.get(1990));
+		assertRange(built.assoc(1990, Value.makeNumber(1990)), 2000);
+	}
+
+	@Test
+	public void transientDoesNotChangeItsSource() {
+		PVec built = range(1000);
+		PVec.Transient t = built.asTransient();
+		for (int i = 0; i < 1000; i++) {
+			t.assoc(i, Value.makeNull());
+		}
+		assertRange(built, 1000);
+		PVec nulls = t.persistent();
+		PVec.Transient again = nulls.asTransient();
+		again.assoc(0, Value.makeNumber(0));
+		again.conj(Value.makeNumber(1000));
+		assertEquals(1000, nulls.getLength());
+		assertEquals(Value.makeNull(), nulls.get(0));
+		assertEquals(Value.makeNumber(0), again.persistent().get(0));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void transientCannotBeUsedAfterPersistent() {
+		PVec.Transient t = new PVec().asTransient();
+		t.persistent();
+		t.conj(Value.makeNull());
+	}
+
+}
@@ -0,0 +1,91 @@
+package se.raek.ahsa.interpreter;
+
+import static org.junit.Assert.*;
+import static se.raek.ahsa.TestPrograms.run;
+import static se.raek.ahsa.interpreter.Value.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.raek.ahsa.jit.Jit;
+
+public class ParallelTest {
+
+	private int savedThreshold;
+	private int savedJitThreshold;
+
+	@Before
+	public void splitFinely() {
+		savedThreshold = Parallel.getThreshold();
+		savedJitThreshold = Jit.getThreshold();
+		Parallel.setThreshold(16);
+	}
+
+	@After
+	public void restoreThresholds() {
+		Parallel.setThreshold(savedThreshold);
+		Jit.setThreshold(savedJitThreshold);
+	}
+
+	private static final String RANGE =
+			"val range = fn(n) { val a = array(n); var i = 0; loop { if i == n { break; } array_set(a, i, i); i = i + 1; } return a; };";
+
+	@Test
+	public void map() throws Exception {
+		String source = RANGE + "val squares = parallel_map(range(5000), fn(x) { return x * x; });";
+		assertEquals(makeNumber(5000), run(source, "array_length(squares)"));
+		assertEquals(makeNumber(4999 * 4999), run(source, "array_get(squares, 4999)"));
+		assertEquals(makeNumber(49), run(source, "array_get(squares, 7)"));
+	}
+
+	@Test
+	public void mapKeepsTheModeOfTheArray() {
+		ExecutionMode mode = ExecutionMode.concurrent();
+		Array array = new Array(3, mode);
+		array.fill(makeNumber(2));
+		Array result = Parallel.map(array, new AbstractFunctions.Function1() {
+			@Override
+			protected Value invoke(Value v) {
+				return v;
+			}
+		});
+		assertSame(mode, result.getMode());
+		assertEquals(3, result.getLength());
+	}
+
+	@Test
+	public void reduce() throws Exception {
+		String source = RANGE + "val sum = parallel_reduce(range(5000), 0, fn(a, b) { return a + b; });";
+		assertEquals(makeNumber(4999 * 5000 / 2), run(source, "sum"));
+		assertEquals(makeNumber(7), run(RANGE, "parallel_reduce(range(0), 7, fn(a, b) { return a + b; })"));
+	}
+
+	@Test
+	public void forEach() throws Exception {
+		String source = "val a = array(1000); array_fill(a, 0); parallel_for(1000, fn(i) { array_set(a, i, i * 2); });";
+		assertEquals(makeNumber(1998), run(source, "array_get(a, 999)"));
+		assertEquals(makeNumber(0), run(source, "array_get(a, 0)"));
+	}
+
+	@Test
+	public void forEachIntoCounter() throws Exception {
+		String source = "val total = counter(); parallel_for(10000, fn(i) { counter_add(total, i); });";
+		assertEquals(makeNumber(9999 * 10000 / 2), run(source, "counter_sum(total)"));
+	}
+
+	@Test
+	public void closuresCompiledWhileRunningConcurrently() throws Exception {
+		Jit.setThreshold(50);
+		String source = RANGE
+				+ "val fib = fn fib(n) { if n < 2 { return n; } return fib(n - 1) + fib(n - 2); };"
+				+ "val fibs = parallel_map(range(4000), fn(i) { return fib(i - i + 12); });";
+		assertEquals(makeNumber(144 * 4000), run(source, "parallel_reduce(fibs, 0, fn(a, b) { return a + b; })"));
+	}
+
+	@Test(expected = Interpreter.CastException.class)
+	public void errorsReachTheCaller() throws Exception {
+		run(RANGE, "parallel_map(range(100), fn(x) { return x + true; })");
+	}
+
+}
@@ -8,6 +8,7 @@ import java.util.List;
 
 import org.junit.Test;
 
+import se.raek.ahsa.ast.ConstantCache;
 import se.raek.ahsa.ast.Expression;
 import se.raek.ahsa.ast.Statement;
 import se.raek.ahsa.ast.ValueLocation;
@@ -23,8 +24,8 @@ import static se.raek.ahsa.ast.Literal.*;
 
 public class PrinterTest {
 
-	private final Expression left = makeConstant(makeNumber(2.0));
-	private final Expression right = makeConstant(makeNumber(3.0));
+	private final Expression left = makeConstant(makeNumber(2.0), new ConstantCache());
+	private final Expression right = makeConstant(makeNumber(3.0), new ConstantCache());
 
 	@Test
 	public void printNull() {
@@ -49,7 +50,7 @@ public class PrinterTest {
 
 	@Test
 	public void printConstant() {
-		assertEquals("null", Printer.toString(makeConstant(makeNull())));
+		assertEquals("null", Printer.toString(makeConstant(makeNull(), new ConstantCache())));
 	}
 
 	@Test
@@ -148,19 +149,19 @@ public class PrinterTest {
 	public void printThrowawayExpression() {
 		assertEquals(
 				"null;",
-				Printer.toString(makeThrowawayExpression(makeConstant(makeNull()))));
+				Printer.toString(makeThrowawayExpression(makeConstant(makeNull(), new ConstantCache()))));
 	}
 
 	@Test
 	public void printValueDefinition() {
 		assertEquals("val x=null;", Printer.toString(makeValueDefinition(
-				new ValueLocation("x"), makeConstant(makeNull()))));
+				new ValueLocation("x"), makeConstant(makeNull(), new ConstantCache()))));
 	}
 
 	@Test
 	public void printVariableAssignment() {
 		assertEquals("x=null;", Printer.toString(makeVariableAssignment(
-				new VariableLocation("x"), makeConstant(makeNull()))));
+				new VariableLocation("x"), makeConstant(makeNull(), new ConstantCache()))));
 	}
 
 	@Test
@@ -169,10 +170,10 @@ public class PrinterTest {
 		Expression cond = makeVariableLookup(var);
 		List<Statement> thenStmts = Collections
 				.singletonList((Statement) makeVariableAssignment(var,
-						makeConstant(makeBoolean(true))));
+						makeConstant(makeBoolean(true), new ConstantCache())));
 		List<Statement> elseStmts = Collections
 				.singletonList((Statement) makeVariableAssignment(var,
-						makeConstant(makeBoolean(false))));
+						makeConstant(makeBoolean(false), new ConstantCache())));
 		assertEquals("if x{x=true;}else{x=false;}",
 				Printer.toString(makeConditional(cond, thenStmts, elseStmts)));
 	}
@@ -180,8 +181,8 @@ public class PrinterTest {
 	@Test
 	public void printStatements() {
 		List<Statement> stmts = new ArrayList<Statement>();
-		stmts.add(makeThrowawayExpression(makeConstant(makeBoolean(true))));
-		stmts.add(makeThrowawayExpression(makeConstant(makeBoolean(false))));
+		stmts.add(makeThrowawayExpression(makeConstant(makeBoolean(true), new ConstantCache())));
+		stmts.add(makeThrowawayExpression(makeConstant(makeBoolean(false), new ConstantCache())));
 		assertEquals("true;false;", Printer.toString(stmts));
 	}
 
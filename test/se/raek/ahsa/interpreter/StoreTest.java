@@ -4,6 +4,7 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import se.raek.ahsa.ast.Frame;
 import se.raek.ahsa.ast.ValueLocation;
 import se.raek.ahsa.ast.VariableLocation;
 import se.raek.ahsa.interpreter.Store;
@@ -11,21 +12,33 @@ import se.raek.ahsa.interpreter.Value;
 
 public class StoreTest {
 	
-	private static final ValueLocation valX = new ValueLocation("x");
-	private static final VariableLocation varY = new VariableLocation("y");
+	private final ValueLocation valX = value("x", 0, 0);
+	private final VariableLocation varY = variable("y", 0);
 	private static final Value v1 = Value.makeNumber(1.0);
 	private static final Value v2 = Value.makeNumber(1.0);
 
+	private static ValueLocation value(String label, int level, int index) {
+		ValueLocation val = new ValueLocation(label);
+		val.resolve(level, index);
+		return val;
+	}
+
+	private static VariableLocation variable(String label, int index) {
+		VariableLocation var = new VariableLocation(label);
+		var.resolve(index);
+		return var;
+	}
+
 	@Test
 	public void lookupExistingValue() {
-		Store sto = new Store(null);
+		Store sto = new Store();
 		sto.defineValue(valX, v1);
 		assertEquals(v1, sto.lookupValue(valX));
 	}
 
 	@Test
 	public void lookupExistingParentValue() {
-		Store parent = new Store(null);
+		Store parent = new Store();
 		parent.defineValue(valX, v1);
 		Store child = new Store(parent);
 		assertEquals(v1, child.lookupValue(valX));
@@ -33,13 +46,13 @@ public class StoreTest {
 	
 	@Test(expected=Store.ValueNotFoundException.class)
 	public void lookupNonExistingValue() {
-		Store sto = new Store(null);
+		Store sto = new Store();
 		sto.lookupValue(valX);
 	}
 	
 	@Test
 	public void defineNonExistingValue() {
-		Store sto = new Store(null);
+		Store sto = new Store();
 		sto.defineValue(valX, v1);
 		assertEquals(v1, sto.lookupValue(valX));
 		
@@ -47,7 +60,7 @@ public class StoreTest {
 	
 	@Test(expected=Store.ValueAlreadyDefinedException.class)
 	public void defineExistingValue() {
-		Store sto = new Store(null);
+		Store sto = new Store();
 		sto.defineValue(valX, v1);
 		sto.defineValue(valX, v2);
 		
@@ -55,20 +68,20 @@ public class StoreTest {
 
 	@Test
 	public void lookupExistingVariable() {
-		Store sto = new Store(null);
+		Store sto = new Store();
 		sto.assignVariable(varY, v1);
 		assertEquals(v1, sto.lookupVariable(varY));
 	}
 
 	@Test(expected=Store.VariableNotFoundException.class)
 	public void lookupNonExistingVariable() {
-		Store sto = new Store(null);
+		Store sto = new Store();
 		sto.lookupVariable(varY);
 	}
 
 	@Test(expected=Store.VariableNotFoundException.class)
 	public void lookupExistingInaccessibleParentVariable() {
-		Store parent = new Store(null);
+		Store parent = new Store();
 		parent.assignVariable(varY, v1);
 		Store child = new Store(parent);
 		assertEquals(v1, child.lookupVariable(varY));
@@ -76,7 +89,7 @@ public class StoreTest {
 
 	@Test
 	public void assignVariable() {
-		Store sto = new Store(null);
+		Store sto = new Store();
 		sto.assignVariable(varY, v1);
 		assertEquals(v1, sto.lookupVariable(varY));
 		sto.assignVariable(varY, v2);
@@ -85,11 +98,90 @@ public class StoreTest {
 
 	@Test
 	public void assignExistingInaccessibleParentVariable() {
-		Store parent = new Store(null);
+		Store parent = new Store();
 		parent.assignVariable(varY, v1);
 		Store child = new Store(parent);
 		child.assignVariable(varY, v2);
 		assertEquals(v2, child.lookupVariable(varY));
 	}
 
+	@Test
+	public void lookupValueSeveralLevelsUp() {
+		ValueLocation val = value("z", 0, 0);
+		Store root = new Store();
+		root.defineValue(val, v1);
+		Store sto = new Store(new Store(new Store(root)));
+		assertEquals(3, sto.getLevel());
+		assertEquals(v1, sto.lookupValue(val));
+	}
+
+	@Test
+	public void storeSizedByFrame() {
+		Frame frame = new Frame();
+		ValueLocation val = new ValueLocation("z");
+		val.resolve(1, frame.allocateValue());
+		Store sto = new Store(new Store(), frame);
+		sto.defineValue(val, v1);
+		assertEquals(v1, sto.lookupValue(val));
+		assertEquals(1, frame.getValueCount());
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void defineValueAtWrongLevel() {
+		ValueLocation val = value("z", 0, 0);
+		Store sto = new Store(new Store());
+		sto.defineValue(val, v1);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void defineUnresolvedValue() {
+		new Store().defineValue(new ValueLocation("z"), v1);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void assignUnresolvedVariable() {
+		new Store().assignVariable(new VariableLocation("z"), v1);
+	}
+
+	@Test
+	public void unboxedVariable() {
+		Store sto = new Store();
+		sto.assignVariableNumber(varY, 1e9);
+		assertTrue(sto.holdsNumber(varY));
+		assertEquals(1e9, sto.lookupVariableNumber(varY), 0.0);
+		Value v = sto.lookupVariable(varY);
+		assertEquals(Value.makeNumber(1e9), v);
+		assertSame(v, sto.lookupVariable(varY));
+		sto.assignVariable(varY, v1);
+		assertFalse(sto.holdsNumber(varY));
+		assertEquals(1.0, sto.lookupVariableNumber(varY), 0.0);
+	}
+
+	@Test
+	public void sharedStoreIsOnlyWrittenByItsCreator() throws Exception {
+		Store parent = new Store();
+		final Store child = new Store(parent);
+		child.share();
+		final Throwable[] thrown = new Throwable[1];
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					child.assignVariable(variable("z", 0), v1);
+				} catch (Throwable e) {
+					thrown[0] = e;
+				}
+			}
+		};
+		t.start();
+		t.join();
+		assertTrue(thrown[0] instanceof Store.SharedStoreWriteException);
+		parent.defineValue(value("w", 0, 0), v2);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void singleThreadedStoresAreNotShared() {
+		Store root = new Store(ExecutionMode.singleThreaded());
+		new Store(root).share();
+	}
+
 }
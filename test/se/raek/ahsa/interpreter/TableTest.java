@@ -0,0 +1,115 @@
+package se.raek.ahsa.interpreter;
+
+import static org.junit.Assert.*;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import se.raek.ahsa.interpreter.Table;
+import se.raek.ahsa.interpreter.Value;
+
+public class TableTest {
+
+	private static final Value vNull = Value.makeNull();
+	private static final Value vTrue = Value.makeBoolean(true);
+
+	@Test
+	public void putGetRemove() {
+		Table table = new Table();
+		assertNull(table.get(vTrue));
+		table.put(vTrue, Value.makeNumber(1));
+		table.put(Value.makeNumber(1), vTrue);
+		assertEquals(2, table.size());
+		assertEquals(Value.makeNumber(1), table.get(vTrue));
+		assertEquals(vTrue, table.get(Value.makeNumber(1)));
+		table.put(vTrue, Value.makeNumber(2));
+		assertEquals(2, table.size());
+		assertEquals(Value.makeNumber(2), table.remove(vTrue));
+		assertNull(table.remove(vTrue));
+		assertEquals(1, table.size());
+	}
+
+	@Test
+	public void nullIsAKey() {
+		Table table = new Table();
+		table.put(vNull, vTrue);
+		assertEquals(vTrue, table.get(Value.makeNull()));
+	}
+
+	@Test
+	public void numberKeysFollowValueEquals() {
+		Table table = new Table();
+		table.put(0.0, Value.makeNumber(1));
+		table.put(-0.0, Value.makeNumber(2));
+		table.put(Double.NaN, Value.makeNumber(3));
+		assertEquals(3, table.size());
+		assertEquals(Value.makeNumber(1), table.get(Value.makeNumber(0.0)));
+		assertEquals(Value.makeNumber(2), table.get(Value.makeNumber(-0.0)));
+		assertEquals(Value.makeNumber(3), table.get(Value.makeNumber(0.0 / 0.0)));
+	}
+
+	@Test
+	public void agreesWithHashMap() {
+		Random random = new Random(42);
+		Table table = new Table();
+		Map<Value, Value> expected = new HashMap<Value, Value>();
+		for (int i = 0; i < 20000; i++) {
+			int n = random.nextInt(500);
+			Value key = (n % 2 == 0) ? Value.makeNumber(n) : Value.makeBox(boxes[n % boxes.length]);
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), table.remove(key));
+			} else {
+				Value value = Value.makeNumber(i);
+				expected.put(key, value);
+				table.put(key, value);
+			}
+			assertEquals(expected.size(), table.size());
+		}
+		for (Map.Entry<Value, Value> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), table.get(entry.getKey()));
+		}
+	}
+
+	private static final Box[] boxes = new Box[97];
+
+	static {
+		for (int i = 0; i < boxes.length; i++) {
+			boxes[i] = new Box(vNull);
+		}
+	}
+
+	@Test
+	public void forEachVisitsEveryEntry() {
+		Table table = new Table();
+		for (int i = 0; i < 100; i++) {
+			table.put(Value.makeNumber(i), Value.makeNumber(i * i));
+		}
+		table.put(vTrue, vNull);
+		final Map<Value, Value> seen = new HashMap<Value, Value>();
+		table.forEach(new Table.EntryVisitor() {
+			public void visit(Value key, Value value) {
+				assertNull(seen.put(key, value));
+			}
+		});
+		assertEquals(101, seen.size());
+		assertEquals(Value.makeNumber(49), seen.get(Value.makeNumber(7)));
+		assertEquals(vNull, seen.get(vTrue));
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void forEachDetectsModification() {
+		final Table table = new Table();
+		table.put(1, vNull);
+		table.put(2, vNull);
+		table.forEach(new Table.EntryVisitor() {
+			public void visit(Value key, Value value) {
+				table.put(NumberValues.getNumber(key) + 10, vNull);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,43 @@
+package se.raek.ahsa.interpreter;
+
+import static org.junit.Assert.*;
+import static se.raek.ahsa.TestPrograms.run;
+import static se.raek.ahsa.interpreter.Value.*;
+
+import org.junit.Test;
+
+public class TaskTest {
+
+	@Test
+	public void spawnAndJoin() throws Exception {
+		String source = "val x = 20; val t = spawn(fn() { return x + 1; });";
+		assertEquals(makeNumber(21), run(source, "join(t)"));
+	}
+
+	@Test
+	public void manyTasks() throws Exception {
+		String source = "val n = 2000; val tasks = array(n); val total = box(0);"
+				+ "val start = fn(j) { return spawn(fn() { return j * 2; }); };"
+				+ "var i = 0; loop { if i == n { break; } array_set(tasks, i, start(i)); i = i + 1; }"
+				+ "i = 0; loop { if i == n { break; } box_set(total, box_get(total) + join(array_get(tasks, i))); i = i + 1; }";
+		assertEquals(makeNumber(1999 * 2000), run(source, "box_get(total)"));
+	}
+
+	@Test
+	public void tasksRunConcurrently() throws Exception {
+		// Each task waits for the next one, so they must all run at once.
+		String source = "val n = 100; val tasks = array(n + 1);"
+				+ "val last = box(false);"
+				+ "array_set(tasks, n, spawn(fn() { loop { if box_get(last) { break; } } return 0; }));"
+				+ "val start = fn(j) { return spawn(fn() { return join(array_get(tasks, j + 1)) + 1; }); };"
+				+ "var i = n - 1; loop { if i < 0 { break; } array_set(tasks, i, start(i)); i = i - 1; }"
+				+ "box_set(last, true);";
+		assertEquals(makeNumber(100), run(source, "join(array_get(tasks, 0))"));
+	}
+
+	@Test(expected = Interpreter.CastException.class)
+	public void joinThrowsWhatTheCallThrew() throws Exception {
+		run("val t = spawn(fn() { return 1 + true; });", "join(t)");
+	}
+
+}
@@ -0,0 +1,74 @@
+package se.raek.ahsa.interpreter;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import se.raek.ahsa.interpreter.Value;
+import se.raek.ahsa.interpreter.Vec;
+
+public class VecTest {
+
+	@Test
+	public void pushAndGet() {
+		Vec vec = new Vec();
+		for (int i = 0; i < 100; i++) {
+			vec.push(Value.makeNumber(i));
+		}
+		assertEquals(100, vec.getLength());
+		assertEquals(Value.makeNumber(42), vec.get(42));
+		vec.set(42, Value.makeBoolean(true));
+		assertEquals(Value.makeBoolean(true), vec.get(42));
+		assertEquals(Value.makeNumber(99), vec.get(99));
+	}
+
+	@Test
+	public void growsGeometrically() {
+		Vec vec = new Vec(0);
+		int reallocations = 0;
+		int capacity = vec.getCapacity();
+		for (int i = 0; i < 10000; i++) {
+			vec.push(Value.makeNull());
+			if (vec.getCapacity() != capacity) {
+				capacity = vec.getCapacity();
+				reallocations++;
+			}
+		}
+		assertTrue(reallocations < 20);
+	}
+
+	@Test
+	public void capacityHint() {
+		Vec vec = new Vec(1000);
+		assertEquals(0, vec.getLength());
+		assertEquals(1000, vec.getCapacity());
+		for (int i = 0; i < 1000; i++) {
+			vec.push(Value.makeNumber(i));
+		}
+		assertEquals(1000, vec.getCapacity());
+	}
+
+	@Test
+	public void pop() {
+		Vec vec = new Vec();
+		vec.push(Value.makeNumber(1));
+		vec.push(Value.makeNumber(2));
+		assertEquals(Value.makeNumber(2), vec.pop());
+		assertEquals(1, vec.getLength());
+		vec.push(Value.makeNumber(3));
+		assertEquals(Value.makeNumber(3), vec.get(1));
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void popEmpty() {
+		new Vec().pop();
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void getBeyondLength() {
+		Vec vec = new Vec(10);
+		vec.push(Value.makeNull());
+		vec.get(1);
+	}
+
+}
@@ -0,0 +1,169 @@
+package se.raek.ahsa.jit;
+
+import static org.junit.Assert.*;
+import static se.raek.ahsa.TestPrograms.run;
+import static se.raek.ahsa.interpreter.Value.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.raek.ahsa.ast.LoopLabel;
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.ast.ValueLocation;
+import se.raek.ahsa.interpreter.CompoundFunction;
+import se.raek.ahsa.interpreter.Function;
+import se.raek.ahsa.interpreter.Interpreter;
+import se.raek.ahsa.interpreter.Interpreter.CastException;
+import se.raek.ahsa.interpreter.Store;
+import se.raek.ahsa.interpreter.Store.ValueAlreadyDefinedException;
+import se.raek.ahsa.interpreter.Value;
+
+public class JitTest {
+
+	private int savedThreshold;
+
+	@Before
+	public void compileEverything() {
+		savedThreshold = Jit.getThreshold();
+		Jit.setThreshold(1);
+	}
+
+	@After
+	public void restoreThreshold() {
+		Jit.setThreshold(savedThreshold);
+	}
+
+	private static Function compiledFunction(String source) throws Exception {
+		Value fn = run(source, "f");
+		Function compiled = Jit.compile((CompoundFunction) Interpreter.castToFunction(fn));
+		assertNotNull(compiled);
+		return compiled;
+	}
+
+	@Test
+	public void recursion() throws Exception {
+		String source = "val fib = fn fib(n) { if n < 2 { return n; } return fib(n - 1) + fib(n - 2); };";
+		assertEquals(makeNumber(610), run(source, "fib(15)"));
+	}
+
+	@Test
+	public void loopsAndVariables() throws Exception {
+		String source =
+			"val f = fn(n) {\n" +
+			"  var i = 0; var total = 0;\n" +
+			"  loop outer {\n" +
+			"    if i == n { break outer; }\n" +
+			"    var j = 0;\n" +
+			"    loop { if j >= i { break; } total = total + j; j = j + 1; }\n" +
+			"    i = i + 1;\n" +
+			"  }\n" +
+			"  return total;\n" +
+			"};";
+		Function f = compiledFunction(source);
+		assertEquals(makeNumber(120), f.apply(Collections.singletonList(makeNumber(10))));
+	}
+
+	@Test
+	public void closures() throws Exception {
+		String source =
+			"val f = fn(n) { val k = n * 2; return fn(x) { return x + k; }; };\n" +
+			"val g = f(3);";
+		assertEquals(makeNumber(10), run(source, "g(4)"));
+		Function f = compiledFunction(source);
+		Value g = f.apply(Collections.singletonList(makeNumber(5)));
+		assertEquals(makeNumber(11), Interpreter.castToFunction(g).apply(Collections.singletonList(makeNumber(1))));
+	}
+
+	@Test
+	public void outerValues() throws Exception {
+		String source = "val k = 7; val f = fn(x) { return x * k; };";
+		Function f = compiledFunction(source);
+		assertEquals(makeNumber(21), f.apply(Collections.singletonList(makeNumber(3))));
+	}
+
+	@Test
+	public void fallOffEndReturnsNull() throws Exception {
+		Function f = compiledFunction("val f = fn() { 1 + 2; };");
+		assertEquals(makeNull(), f.apply(new ArrayList<Value>()));
+	}
+
+	@Test
+	public void relationalWithNaN() throws Exception {
+		Function f = compiledFunction("val f = fn(x) { if x < x { return 1; } if x > x { return 2; } if x <= x { return 3; } if x >= x { return 4; } return 0; };");
+		assertEquals(makeNumber(0), f.apply(Collections.singletonList(makeNumber(Double.NaN))));
+		assertEquals(makeNumber(3), f.apply(Collections.singletonList(makeNumber(1))));
+	}
+
+	@Test(expected = CastException.class)
+	public void castErrors() throws Exception {
+		Function f = compiledFunction("val f = fn(x) { return x + 1; };");
+		f.apply(Collections.singletonList(makeNull()));
+	}
+
+	@Test(expected = ValueAlreadyDefinedException.class)
+	public void valueDefinedTwice() throws Exception {
+		Function f = compiledFunction("val f = fn() { loop { val x = 1; } };");
+		f.apply(new ArrayList<Value>());
+	}
+
+	@Test(expected = Function.ArityException.class)
+	public void arity() throws Exception {
+		Function f = compiledFunction("val f = fn(x, y) { return x; };");
+		f.apply(Collections.singletonList(makeNull()));
+	}
+
+	@Test
+	public void breakOutOfFunctionIsNotCompiled() {
+		List<Statement> body = Collections.singletonList(Statement.makeBreak(new LoopLabel("outer")));
+		CompoundFunction fn = new CompoundFunction(null, new ArrayList<ValueLocation>(), body, new Store());
+		assertNull(Jit.compile(fn));
+	}
+
+	@Test
+	public void tooLargeBodyIsNotCompiled() throws Exception {
+		StringBuilder sb = new StringBuilder("val f = fn(x) { var y = 0;");
+		for (int i = 0; i < 10000; i++) {
+			sb.append(" y = y + x;");
+		}
+		sb.append(" return y; };");
+		Value f = run(sb.toString(), "f");
+		assertNull(Jit.compile((CompoundFunction) Interpreter.castToFunction(f)));
+		assertEquals(makeNumber(20000), run(sb.toString(), "f(2)"));
+	}
+
+	@Test
+	public void disabled() throws Exception {
+		Jit.setThreshold(0);
+		Value f = run("val f = fn() { return 1; }; f(); f();", "f");
+		assertNull(((CompoundFunction) Interpreter.castToFunction(f)).frame.getCompiledCode());
+	}
+
+	@Test
+	public void fixedArityEntryPoints() throws Exception {
+		Function f = compiledFunction("val f = fn(x, y, z) { return x * y + z; };");
+		assertEquals(makeNumber(7), f.apply3(makeNumber(2), makeNumber(3), makeNumber(1)));
+		try {
+			f.apply2(makeNumber(2), makeNumber(3));
+			fail();
+		} catch (Function.ArityException e) {
+		}
+		Function g = compiledFunction("val f = fn(x) { return fn() { return x; }; };");
+		Value h = g.apply1(makeNumber(4));
+		assertEquals(makeNumber(4), Interpreter.castToFunction(h).apply0());
+	}
+
+	@Test
+	public void selfTailCalls() throws Exception {
+		String source =
+			"val sum = fn sum(n, acc) { if n == 0 { return acc; } return sum(n - 1, acc + n); };\n" +
+			"val count = fn count(n) { val k = fn() { return n; }; if n == 0 { return k(); } return count(n - 1); };";
+		assertEquals(makeNumber(500000500000.0), run(source, "sum(1000000, 0)"));
+		assertEquals(makeNumber(0), run(source, "count(1000000)"));
+	}
+
+}
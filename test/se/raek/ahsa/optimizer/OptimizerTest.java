@@ -0,0 +1,160 @@
+package se.raek.ahsa.optimizer;
+
+import static org.junit.Assert.*;
+import static se.raek.ahsa.TestPrograms.run;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.raek.ahsa.TestPrograms.Engine;
+import se.raek.ahsa.ast.ConstantCache;
+import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.Frame;
+import se.raek.ahsa.ast.Literal;
+import se.raek.ahsa.ast.LoopLabel;
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.ast.ValueLocation;
+import se.raek.ahsa.ast.VariableLocation;
+import se.raek.ahsa.interpreter.Value;
+
+import static se.raek.ahsa.ast.Expression.*;
+import static se.raek.ahsa.ast.ArithmeticOperator.*;
+import static se.raek.ahsa.ast.EqualityOperator.*;
+import static se.raek.ahsa.ast.RelationalOperator.*;
+import static se.raek.ahsa.ast.Statement.*;
+
+public class OptimizerTest {
+
+	private static final Expression c1 = makeConstant(Literal.makeNumber(1.0), new ConstantCache());
+	private static final Expression c2 = makeConstant(Literal.makeNumber(2.0), new ConstantCache());
+	private static final Expression c3 = makeConstant(Literal.makeNumber(3.0), new ConstantCache());
+	private static final Expression cNull = makeConstant(Literal.makeNull(), new ConstantCache());
+	private static final Expression cTrue = makeConstant(Literal.makeBoolean(true), new ConstantCache());
+	private static final Expression cFalse = makeConstant(Literal.makeBoolean(false), new ConstantCache());
+
+	private static Expression optimize(Expression expr) {
+		List<Statement> stmts = Optimizer.optimize(Collections.singletonList(makeThrowawayExpression(expr)));
+		assertEquals(1, stmts.size());
+		return stmts.get(0).matchStatement(new Statement.AbstractMatcher<Expression>() {
+			@Override
+			public Expression caseThrowawayExpression(Expression expr) {
+				return expr;
+			}
+			@Override
+			public Expression otherwise() {
+				throw new AssertionError();
+			}
+		});
+	}
+
+	@Test
+	public void foldArithmetic() {
+		assertEquals(makeConstant(Literal.makeNumber(7.0), new ConstantCache()),
+				optimize(makeArithmeticOperation(ADDITION, c1, makeArithmeticOperation(MULTIPLICATION, c2, c3))));
+	}
+
+	@Test
+	public void foldComparisons() {
+		assertEquals(cTrue, optimize(makeRelationalOperation(LESS, c1, c2)));
+		assertEquals(cFalse, optimize(makeEqualityOperation(EQUAL, c1, cNull)));
+		assertEquals(cTrue, optimize(makeEqualityOperation(UNEQUAL, cTrue, cFalse)));
+	}
+
+	@Test
+	public void castErrorsAreNotFolded() {
+		Expression expr = makeArithmeticOperation(ADDITION, c1, cNull);
+		assertEquals(expr, optimize(expr));
+	}
+
+	@Test
+	public void partiallyConstant() {
+		VariableLocation x = new VariableLocation("x");
+		Expression expr = makeArithmeticOperation(ADDITION, makeVariableLookup(x), makeArithmeticOperation(SUBTRACTION, c3, c1));
+		assertEquals(makeArithmeticOperation(ADDITION, makeVariableLookup(x), c2), optimize(expr));
+	}
+
+	@Test
+	public void propagateTopLevelValues() {
+		ValueLocation k = new ValueLocation("k");
+		ValueLocation m = new ValueLocation("m");
+		List<Statement> stmts = new ArrayList<Statement>();
+		stmts.add(makeValueDefinition(k, makeArithmeticOperation(MULTIPLICATION, c2, c3)));
+		stmts.add(makeValueDefinition(m, makeArithmeticOperation(ADDITION, makeValueLookup(k), c1)));
+		Frame frame = new Frame();
+		Expression fn = makeFunctionAbstraction(null, new ArrayList<ValueLocation>(),
+				Collections.singletonList(makeReturn(makeValueLookup(m))), frame);
+		stmts.add(makeThrowawayExpression(fn));
+		List<Statement> expected = new ArrayList<Statement>();
+		expected.add(makeValueDefinition(k, makeConstant(Literal.makeNumber(6.0), new ConstantCache())));
+		expected.add(makeValueDefinition(m, makeConstant(Literal.makeNumber(7.0), new ConstantCache())));
+		expected.add(makeThrowawayExpression(makeFunctionAbstraction(null, new ArrayList<ValueLocation>(),
+				Collections.singletonList(makeReturn(makeConstant(Literal.makeNumber(7.0), new ConstantCache()))), frame)));
+		assertEquals(expected, Optimizer.optimize(stmts));
+	}
+
+	@Test
+	public void nestedValuesAreNotPropagated() {
+		ValueLocation k = new ValueLocation("k");
+		LoopLabel loop = new LoopLabel("l");
+		List<Statement> body = new ArrayList<Statement>();
+		body.add(makeValueDefinition(k, c1));
+		body.add(makeThrowawayExpression(makeValueLookup(k)));
+		List<Statement> stmts = Collections.singletonList(makeLoop(loop, body));
+		assertEquals(stmts, Optimizer.optimize(stmts));
+	}
+
+	@Test
+	public void pruneConstantConditionals() {
+		VariableLocation x = new VariableLocation("x");
+		Statement thenStmt = makeVariableAssignment(x, c1);
+		Statement elseStmt = makeVariableAssignment(x, c2);
+		List<Statement> stmts = new ArrayList<Statement>();
+		stmts.add(makeConditional(makeRelationalOperation(GREATER, c1, c2),
+				Collections.singletonList(thenStmt), Collections.singletonList(elseStmt)));
+		stmts.add(makeConditional(cNull, Collections.singletonList(thenStmt), Collections.<Statement>emptyList()));
+		assertEquals(Collections.singletonList(elseStmt), Optimizer.optimize(stmts));
+	}
+
+	@Test
+	public void dropStatementsAfterJumps() {
+		VariableLocation x = new VariableLocation("x");
+		LoopLabel loop = new LoopLabel("l");
+		List<Statement> body = new ArrayList<Statement>();
+		body.add(makeConditional(cTrue, Collections.singletonList(makeBreak(loop)), Collections.<Statement>emptyList()));
+		body.add(makeVariableAssignment(x, c1));
+		List<Statement> fnBody = new ArrayList<Statement>();
+		fnBody.add(makeReturn(c1));
+		fnBody.add(makeReturn(c2));
+		Frame frame = new Frame();
+		List<Statement> stmts = new ArrayList<Statement>();
+		stmts.add(makeLoop(loop, body));
+		stmts.add(makeThrowawayExpression(makeFunctionAbstraction(null, new ArrayList<ValueLocation>(), fnBody, frame)));
+		List<Statement> expected = new ArrayList<Statement>();
+		expected.add(makeLoop(loop, Collections.singletonList(makeBreak(loop))));
+		expected.add(makeThrowawayExpression(makeFunctionAbstraction(null, new ArrayList<ValueLocation>(),
+				Collections.singletonList(makeReturn(c1)), frame)));
+		assertEquals(expected, Optimizer.optimize(stmts));
+	}
+
+	@Test
+	public void sameResultAsUnoptimized() throws Exception {
+		String source =
+			"val n = 2 * 5;\n" +
+			"val fib = fn fib(n) { if n < 2 { return n; } return fib(n - 1) + fib(n - 2); };\n" +
+			"var total = 0;\n" +
+			"var i = 0;\n" +
+			"loop {\n" +
+			"  if i == n { break; total = 1000; }\n" +
+			"  if 1 < 2 { total = total + fib(i); } else { total = null; }\n" +
+			"  i = i + 1;\n" +
+			"}\n" +
+			"val result = total + n;\n";
+		Value expected = run(source, "result", Engine.INTERPRETER, false);
+		assertEquals(Value.makeNumber(88 + 10), expected);
+		assertEquals(expected, run(source, "result", Engine.INTERPRETER, true));
+	}
+
+}
@@ -0,0 +1,86 @@
+package se.raek.ahsa.script;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+import org.junit.Test;
+
+public class AhsaScriptEngineTest {
+
+	private static ScriptEngine engine() {
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("ahsa");
+		assertNotNull(engine);
+		return engine;
+	}
+
+	@Test
+	public void bindingsAreInputsAndDefinitionsAreOutputs() throws Exception {
+		ScriptEngine engine = engine();
+		engine.put("x", 20);
+		engine.put("flag", true);
+		assertNull(engine.eval("val y = x + 1; var z = flag == true;"));
+		assertEquals(21.0, engine.get("y"));
+		assertEquals(Boolean.TRUE, engine.get("z"));
+	}
+
+	@Test
+	public void compiledScriptsRunWithFreshBindings() throws Exception {
+		CompiledScript script = ((Compilable) engine()).compile("val square = n * n;");
+		for (int n = 0; n < 50; n++) {
+			Bindings bindings = script.getEngine().createBindings();
+			bindings.put("n", n);
+			script.eval(bindings);
+			assertEquals((double) (n * n), bindings.get("square"));
+		}
+	}
+
+	@Test
+	public void printWritesToTheContextWriter() throws Exception {
+		ScriptEngine engine = engine();
+		ScriptContext context = new SimpleScriptContext();
+		StringWriter out = new StringWriter();
+		context.setWriter(out);
+		context.setBindings(engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+		engine.eval("print(1 + 2);", context);
+		assertEquals("3.0" + System.getProperty("line.separator"), out.toString());
+	}
+
+	@Test(expected = ScriptException.class)
+	public void errorsAreScriptExceptions() throws Exception {
+		engine().eval("val y = 1 + true;");
+	}
+
+	@Test(expected = ScriptException.class)
+	public void syntaxErrorsAreReportedByCompile() throws Exception {
+		((Compilable) engine()).compile("val = ;");
+	}
+
+	@Test
+	public void outputsCanBeEvaluatedAgain() throws Exception {
+		ScriptEngine engine = engine();
+		engine.put("x", 1);
+		CompiledScript script = ((Compilable) engine).compile("val y = x + 1; var z = y;");
+		script.eval();
+		assertEquals(2.0, engine.get("z"));
+		engine.put("x", 5);
+		script.eval();
+		assertEquals(6.0, engine.get("z"));
+	}
+
+	@Test(expected = ScriptException.class)
+	public void unboundInputsAreUndefined() throws Exception {
+		CompiledScript script = ((Compilable) engine()).compile("val y = x + 1;");
+		script.eval();
+	}
+
+}
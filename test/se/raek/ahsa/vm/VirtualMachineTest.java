@@ -0,0 +1,275 @@
+package se.raek.ahsa.vm;
+
+import static org.junit.Assert.*;
+import static se.raek.ahsa.TestPrograms.run;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import se.raek.ahsa.Main;
+import se.raek.ahsa.Parser;
+import se.raek.ahsa.TestPrograms.Engine;
+import se.raek.ahsa.ast.CallSite;
+import se.raek.ahsa.ast.ConstantCache;
+import se.raek.ahsa.ast.Expression;
+import se.raek.ahsa.ast.Frame;
+import se.raek.ahsa.ast.Literal;
+import se.raek.ahsa.ast.LoopLabel;
+import se.raek.ahsa.ast.Resolver;
+import se.raek.ahsa.ast.Statement;
+import se.raek.ahsa.ast.ValueLocation;
+import se.raek.ahsa.ast.VariableLocation;
+import se.raek.ahsa.interpreter.ControlAction;
+import se.raek.ahsa.interpreter.Interpreter.CastException;
+import se.raek.ahsa.interpreter.Store;
+import se.raek.ahsa.interpreter.Value;
+import se.raek.ahsa.parser.Environment;
+
+import static se.raek.ahsa.ast.Expression.*;
+import static se.raek.ahsa.ast.ArithmeticOperator.*;
+import static se.raek.ahsa.ast.EqualityOperator.*;
+import static se.raek.ahsa.ast.RelationalOperator.*;
+import static se.raek.ahsa.ast.Statement.*;
+import static se.raek.ahsa.interpreter.Value.*;
+
+public class VirtualMachineTest {
+
+	private final static Value v0 = Value.makeNumber(0.0);
+	private final static Value v1 = Value.makeNumber(1.0);
+	private final static Value v3 = Value.makeNumber(3.0);
+	private final static Expression c0 = makeConstant(Literal.makeNumber(0.0), new ConstantCache());
+	private final static Expression c1 = makeConstant(Literal.makeNumber(1.0), new ConstantCache());
+	private final static Expression c2 = makeConstant(Literal.makeNumber(2.0), new ConstantCache());
+	private final static Expression c3 = makeConstant(Literal.makeNumber(3.0), new ConstantCache());
+	private final static Expression c6 = makeConstant(Literal.makeNumber(6.0), new ConstantCache());
+	private final static Expression cNull = makeConstant(Literal.makeNull(), new ConstantCache());
+
+	/**
+	 * Resolves stmts as a top-level program and returns a store for it.
+	 */
+	private static Store topLevelStore(List<Statement> stmts) {
+		Frame frame = new Frame();
+		Resolver.resolveTopLevel(stmts, frame);
+		return new Store(null, frame);
+	}
+
+	@Test
+	public void evalArithmetic() {
+		assertEquals(makeNumber(5), VirtualMachine.eval(makeArithmeticOperation(ADDITION, c2, c3), null));
+		assertEquals(makeNumber(-1), VirtualMachine.eval(makeArithmeticOperation(SUBTRACTION, c2, c3), null));
+		assertEquals(makeNumber(6), VirtualMachine.eval(makeArithmeticOperation(MULTIPLICATION, c2, c3), null));
+		assertEquals(makeNumber(2), VirtualMachine.eval(makeArithmeticOperation(DIVISION, c6, c3), null));
+	}
+
+	@Test(expected = CastException.class)
+	public void evalArithOpWithNonNumberArgument() {
+		VirtualMachine.eval(makeArithmeticOperation(ADDITION, c1, cNull), null);
+	}
+
+	@Test
+	public void evalEquality() {
+		assertEquals(makeBoolean(true), VirtualMachine.eval(makeEqualityOperation(EQUAL, c1, c1), null));
+		assertEquals(makeBoolean(false), VirtualMachine.eval(makeEqualityOperation(EQUAL, cNull, c2), null));
+		assertEquals(makeBoolean(true), VirtualMachine.eval(makeEqualityOperation(UNEQUAL, c1, c2), null));
+	}
+
+	@Test
+	public void evalRelational() {
+		assertEquals(makeBoolean(true), VirtualMachine.eval(makeRelationalOperation(GREATER, c3, c2), null));
+		assertEquals(makeBoolean(false), VirtualMachine.eval(makeRelationalOperation(LESS, c3, c2), null));
+		assertEquals(makeBoolean(true), VirtualMachine.eval(makeRelationalOperation(GREATER_EQUAL, c3, c3), null));
+		assertEquals(makeBoolean(false), VirtualMachine.eval(makeRelationalOperation(LESS_EQUAL, c3, c2), null));
+	}
+
+	@Test(expected = CastException.class)
+	public void evalRelOpWithNonNumberArgument() {
+		VirtualMachine.eval(makeRelationalOperation(GREATER, c1, cNull), null);
+	}
+
+	@Test
+	public void executeConditional() {
+		ValueLocation valX = new ValueLocation("x");
+		VariableLocation varY = new VariableLocation("y");
+		Expression lookupX = makeValueLookup(valX);
+		List<Statement> stmts = new ArrayList<Statement>();
+		stmts.add(makeValueDefinition(valX, makeConstant(Literal.makeNumber(-2.0), new ConstantCache())));
+		Expression cond = makeRelationalOperation(GREATER_EQUAL, lookupX, c0);
+		Statement thenStmt = makeVariableAssignment(varY, lookupX);
+		Statement elseStmt = makeVariableAssignment(varY, makeArithmeticOperation(SUBTRACTION, c0, lookupX));
+		stmts.add(makeConditional(cond, Collections.singletonList(thenStmt), Collections.singletonList(elseStmt)));
+		Store sto = topLevelStore(stmts);
+		VirtualMachine.execute(stmts, sto);
+		assertEquals(makeNumber(2.0), sto.lookupVariable(varY));
+	}
+
+	private static boolean isBreak(ControlAction action, final LoopLabel expected) {
+		return action.matchControlAction(new ControlAction.AbstractMatcher<Boolean>() {
+			@Override
+			public Boolean caseBreak(LoopLabel loop) {
+				return loop.equals(expected);
+			}
+			@Override
+			public Boolean otherwise() {
+				return false;
+			}
+		});
+	}
+
+	private static boolean isReturn(ControlAction action, final Value expected) {
+		return action.matchControlAction(new ControlAction.AbstractMatcher<Boolean>() {
+			@Override
+			public Boolean caseReturn(Value v) {
+				return v.equals(expected);
+			}
+			@Override
+			public Boolean otherwise() {
+				return false;
+			}
+		});
+	}
+
+	@Test
+	public void executeBreak() {
+		LoopLabel loop1 = new LoopLabel("l1");
+		List<Statement> stmts = new ArrayList<Statement>();
+		stmts.add(makeBreak(loop1));
+		stmts.add(makeBreak(new LoopLabel("l2")));
+		assertTrue(isBreak(VirtualMachine.execute(stmts, new Store()), loop1));
+	}
+
+	@Test
+	public void breakThisLoop() {
+		LoopLabel loop0 = new LoopLabel("l");
+		List<Statement> stmts = Collections.singletonList(makeLoop(loop0, Collections.singletonList(makeBreak(loop0))));
+		assertSame(ControlAction.makeNext(), VirtualMachine.execute(stmts, new Store()));
+	}
+
+	@Test
+	public void breakOtherLoop() {
+		LoopLabel loop1 = new LoopLabel("l1");
+		List<Statement> stmts = Collections.singletonList(makeLoop(new LoopLabel("l2"), Collections.singletonList(makeBreak(loop1))));
+		assertTrue(isBreak(VirtualMachine.execute(stmts, new Store()), loop1));
+	}
+
+	@Test
+	public void returnFromLoop() {
+		List<Statement> stmts = Collections.singletonList(makeLoop(new LoopLabel("l"), Collections.singletonList(makeReturn(c0))));
+		assertTrue(isReturn(VirtualMachine.execute(stmts, new Store()), v0));
+	}
+
+	@Test
+	public void makeAndApplyFunction() {
+		ValueLocation f = new ValueLocation("f");
+		ValueLocation x = new ValueLocation("x");
+		ValueLocation y = new ValueLocation("y");
+		List<Statement> stmts = new ArrayList<Statement>();
+		Expression bodyExpr = makeArithmeticOperation(ADDITION, makeValueLookup(x), c1);
+		List<Statement> bodyStmts = Collections.singletonList(makeReturn(bodyExpr));
+		stmts.add(makeValueDefinition(f, makeFunctionAbstraction(null, Collections.singletonList(x), bodyStmts, new Frame())));
+		stmts.add(makeValueDefinition(y, makeFunctionApplication(makeValueLookup(f), Collections.<Expression>singletonList(c2), new CallSite())));
+		Store sto = topLevelStore(stmts);
+		VirtualMachine.execute(stmts, sto);
+		assertEquals(v3, sto.lookupValue(y));
+	}
+
+	@Test
+	public void reachEndOfFunction() {
+		ValueLocation y = new ValueLocation("y");
+		Expression fn = makeFunctionAbstraction(null, Collections.<ValueLocation>emptyList(), Collections.<Statement>emptyList(), new Frame());
+		Statement stmt = makeValueDefinition(y, makeFunctionApplication(fn, Collections.<Expression>emptyList(), new CallSite()));
+		Store sto = topLevelStore(Collections.singletonList(stmt));
+		VirtualMachine.execute(stmt, sto);
+		assertEquals(makeNull(), sto.lookupValue(y));
+	}
+
+	@Test(expected = AssertionError.class)
+	public void breakFromFunction() {
+		List<Statement> body = Collections.singletonList(makeBreak(new LoopLabel("l")));
+		Expression fn = makeFunctionAbstraction(null, Collections.<ValueLocation>emptyList(), body, new Frame());
+		VirtualMachine.eval(makeFunctionApplication(fn, Collections.<Expression>emptyList(), new CallSite()), new Store());
+	}
+
+	@Test(expected = CastException.class)
+	public void applyNonFunction() {
+		VirtualMachine.execute(makeThrowawayExpression(makeFunctionApplication(cNull, Collections.<Expression>emptyList(), new CallSite())), new Store());
+	}
+
+	@Test(expected = AssertionError.class)
+	public void executeTopLevelBreak() {
+		VirtualMachine.executeTopLevel(Collections.singletonList(makeBreak(new LoopLabel("l"))), new Store());
+	}
+
+	@Test(expected = AssertionError.class)
+	public void executeTopLevelReturn() {
+		VirtualMachine.executeTopLevel(Collections.singletonList(makeReturn(cNull)), new Store());
+	}
+
+	@Test
+	public void loop() {
+		VariableLocation varA = new VariableLocation("a");
+		VariableLocation varB = new VariableLocation("b");
+		LoopLabel loop = new LoopLabel("l");
+		List<Statement> stmts = new ArrayList<Statement>();
+		stmts.add(makeVariableAssignment(varA, c3));
+		stmts.add(makeVariableAssignment(varB, c0));
+		List<Statement> body = new ArrayList<Statement>();
+		body.add(makeConditional(makeEqualityOperation(EQUAL, makeVariableLookup(varA), c0), Collections.singletonList(makeBreak(loop)), Collections.<Statement>emptyList()));
+		body.add(makeVariableAssignment(varA, makeArithmeticOperation(SUBTRACTION, makeVariableLookup(varA), c1)));
+		body.add(makeVariableAssignment(varB, makeArithmeticOperation(ADDITION, makeVariableLookup(varB), c1)));
+		stmts.add(makeLoop(loop, body));
+		Store sto = topLevelStore(stmts);
+		VirtualMachine.executeTopLevel(stmts, sto);
+		assertEquals(v0, sto.lookupVariable(varA));
+		assertEquals(v3, sto.lookupVariable(varB));
+	}
+
+	@Test
+	public void sameResultAsInterpreter() throws Exception {
+		String source =
+			"val fib = fn fib(n) { if n < 2 { return n; } return fib(n - 1) + fib(n - 2); };\n" +
+			"val adder = fn(n) { return fn(x) { return x + n; }; };\n" +
+			"val a = array(10);\n" +
+			"var i = 0;\n" +
+			"var total = 0;\n" +
+			"loop outer {\n" +
+			"  if i == 10 { break outer; }\n" +
+			"  var j = 0;\n" +
+			"  loop { if j == i { break; } total = total + j; j = j + 1; }\n" +
+			"  array_set(a, i, adder(i)(fib(i)));\n" +
+			"  i = i + 1;\n" +
+			"}\n" +
+			"val sum = total + array_get(a, 9);\n";
+		Value expected = run(source, "sum", Engine.INTERPRETER, false);
+		assertEquals(makeNumber(120 + 34 + 9), expected);
+		assertEquals(expected, run(source, "sum", Engine.VIRTUAL_MACHINE, false));
+	}
+
+	@Test
+	public void spawnSharesTheStoresOfBytecodeFunctions() throws Exception {
+		Environment env = new Environment();
+		final Store sto = new Store();
+		Main.addBuiltIns(env, sto);
+		List<Statement> stmts = Parser.parseProgram("val t = spawn(fn() { return 1; }); join(t);", env);
+		Resolver.resolveTopLevel(stmts, sto.getFrame());
+		VirtualMachine.executeTopLevel(stmts, sto);
+		final ValueLocation val = new ValueLocation("w");
+		val.resolve(0, sto.getFrame().allocateValue());
+		final Throwable[] thrown = new Throwable[1];
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					sto.defineValue(val, makeNull());
+				} catch (Throwable e) {
+					thrown[0] = e;
+				}
+			}
+		};
+		t.start();
+		t.join();
+		assertTrue(thrown[0] instanceof Store.SharedStoreWriteException);
+	}
+
+}